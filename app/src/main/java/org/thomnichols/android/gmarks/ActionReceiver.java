@@ -20,6 +20,7 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.net.ConnectivityManager;
 import android.os.SystemClock;
 import android.util.Log;
 
@@ -46,5 +47,11 @@ public class ActionReceiver extends BroadcastReceiver {
 //		     Intent serviceLauncher = new Intent(context, BackgroundService.class);
 //		     context.startService(serviceLauncher);
 		  }
+		else if ( ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction()) ) {
+			// send local edits made while offline
+			if ( intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false) ) return;
+			if ( Prefs.get(context).getBoolean(Prefs.PREF_CHANGES_PENDING, false) )
+				ChangeQueue.requestPush(context);
+		}
 	}
 }
@@ -0,0 +1,164 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import android.widget.SimpleCursorAdapter;
+
+/**
+ * Runs an activity's cursor query on a small pool of worker threads shared
+ * by the whole app, and hands the result back on the UI thread.  Starting
+ * a query cancels the one before it; a cursor that arrives after it's been
+ * replaced, or after {@link #close()}, is closed rather than delivered.
+ * Together with {@link Adapter}, which reloads through here instead of
+ * calling <code>requery()</code>, no query runs on the UI thread.
+ */
+class AsyncQuery {
+	static final String TAG = "GMARKS ASYNC QUERY";
+	static final int WORKERS = 2;
+	/** ms to wait for more changes (i.e. during a sync) before reloading */
+	static final long SETTLE_DELAY = 500;
+
+	private static final ExecutorService workers = Executors.newFixedThreadPool(
+			WORKERS, new ThreadFactory() {
+		private int count = 0;
+		public synchronized Thread newThread( final Runnable r ) {
+			Thread t = new Thread( new Runnable() {
+				public void run() {
+					Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+					r.run();
+				}
+			}, TAG + " " + (++count) );
+			t.setDaemon( true );
+			return t;
+		}
+	});
+
+	interface Callbacks {
+		/**
+		 * Called on the UI thread each time the query is (re)started.
+		 * @return the query to run on a worker thread
+		 */
+		Callable<Cursor> onCreateQuery();
+
+		/**
+		 * Called on the UI thread with the result of the latest query; the
+		 * callee owns the cursor from here on.
+		 * @param cursor the result, or null if the query failed
+		 */
+		void onQueryComplete( Cursor cursor );
+	}
+
+	private final Handler handler = new Handler();
+	private final Callbacks callbacks;
+	/** bumped for every query, so only the latest is delivered */
+	private int sequence = 0;
+	private Future<?> pending = null;
+	private boolean closed = false;
+
+	private final Runnable restart = new Runnable() {
+		public void run() { start(); }
+	};
+
+	/** Create on the UI thread */
+	AsyncQuery( Callbacks callbacks ) {
+		this.callbacks = callbacks;
+	}
+
+	/** Run the query, replacing any that hasn't finished yet */
+	void start() {
+		if ( closed ) return;
+		handler.removeCallbacks( restart );
+		cancelPending();
+		final int seq = ++sequence;
+		final Callable<Cursor> query = callbacks.onCreateQuery();
+		pending = workers.submit( new Runnable() {
+			public void run() {
+				Cursor cursor = null;
+				try {
+					cursor = query.call();
+					// fill the cursor window here rather than on first draw
+					if ( cursor != null ) cursor.getCount();
+				}
+				catch ( Exception ex ) {
+					Log.w( TAG, "Query failed", ex );
+				}
+				final Cursor result = cursor;
+				handler.post( new Runnable() {
+					public void run() { deliver( seq, result ); }
+				});
+			}
+		});
+	}
+
+	/** Start again once changes have stopped coming in */
+	void restartLater() {
+		if ( closed ) return;
+		handler.removeCallbacks( restart );
+		handler.postDelayed( restart, SETTLE_DELAY );
+	}
+
+	/** Cancel any query in progress; nothing more will be delivered */
+	void close() {
+		closed = true;
+		handler.removeCallbacks( restart );
+		cancelPending();
+	}
+
+	private void cancelPending() {
+		// a query already running can't be stopped, but its result is dropped
+		if ( pending != null ) pending.cancel( false );
+		pending = null;
+	}
+
+	private void deliver( int seq, Cursor cursor ) {
+		if ( seq != sequence || closed ) {
+			if ( cursor != null ) cursor.close();
+			return;
+		}
+		pending = null;
+		callbacks.onQueryComplete( cursor );
+	}
+
+	/**
+	 * A {@link SimpleCursorAdapter} that, when its cursor's data changes,
+	 * restarts the query in the background instead of requerying on the
+	 * UI thread.  Pass new cursors to {@link #changeCursor(Cursor)}.
+	 */
+	static class Adapter extends SimpleCursorAdapter {
+		private final AsyncQuery query;
+
+		Adapter( Context ctx, int layout, Cursor cursor, String[] from, int[] to,
+				AsyncQuery query ) {
+			super( ctx, layout, cursor, from, to );
+			this.query = query;
+		}
+
+		@Override protected void onContentChanged() {
+			query.restartLater();
+		}
+	}
+}
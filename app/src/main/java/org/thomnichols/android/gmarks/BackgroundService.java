@@ -18,6 +18,7 @@ package org.thomnichols.android.gmarks;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.AlarmManager;
+import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
@@ -26,6 +27,7 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.AsyncTask;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
@@ -88,13 +90,9 @@ public class BackgroundService extends Service implements OnSharedPreferenceChan
 		else if ( Intent.ACTION_SYNC.equals(action) ) {
 			// this is the intent called by AlarmManager
 			if ( backgroundSyncEnabled ) {
-				ConnectivityManager netwkMan = 
-					(ConnectivityManager)getApplicationContext().getSystemService(
-							Context.CONNECTIVITY_SERVICE );
-				NetworkInfo netState = netwkMan.getActiveNetworkInfo();  
-				if ( netState != null && netState.isConnected() ) {
+				if ( isConnected() ) {
 					Log.d(TAG,"STARTING BACKGROUND SYNC!");
-					new BackgroundSyncTask(getApplicationContext()).execute();
+					SyncCoordinator.submit(new BackgroundSyncTask(getApplicationContext()));
 				}
 				return; // don't stop the service yet.
 			}
@@ -103,6 +101,14 @@ public class BackgroundService extends Service implements OnSharedPreferenceChan
 				this.unscheduleSync();
 			}
 		}
+		else if ( ChangeQueue.ACTION_PUSH.equals(action) ) {
+			// local edits were saved, or a retry is due
+			if ( isConnected() ) {
+				new PushChangesTask().execute();
+				return; // stopped when the push is done
+			}
+			Log.d(TAG, "Not connected; changes will be pushed when connected");
+		}
 		else if ( Intent.ACTION_CONFIGURATION_CHANGED.equals(action) ) {
 			String key = intent.getStringExtra("key");
 			if ( key != null ) {
@@ -120,6 +126,14 @@ public class BackgroundService extends Service implements OnSharedPreferenceChan
 		super.onDestroy();
 	}
 
+	private boolean isConnected() {
+		ConnectivityManager netwkMan = 
+			(ConnectivityManager)getApplicationContext().getSystemService(
+					Context.CONNECTIVITY_SERVICE );
+		NetworkInfo netState = netwkMan.getActiveNetworkInfo();  
+		return netState != null && netState.isConnected();
+	}
+
 	protected boolean scheduleSync() {
 		return this.scheduleSync(true);
 	}
@@ -162,21 +176,19 @@ public class BackgroundService extends Service implements OnSharedPreferenceChan
     	BackgroundSyncTask(Context ctx) {
 			super(ctx);
 			this.showToast = false;
-		}
-    	
-    	@Override protected void onPreExecute() {
-    		// don't let the phone fall asleep during sync
+    		// don't let the phone fall asleep during sync, or while
+    		// waiting on one that the UI started
     		final PowerManager powerManager = 
     			(PowerManager)getSystemService(Context.POWER_SERVICE);
     		this.wakeLock = powerManager.newWakeLock(
     				PowerManager.PARTIAL_WAKE_LOCK, BackgroundService.TAG);
     		wakeLock.acquire();
-    		super.onPreExecute();
-    	}
+		}
     	
-		@Override protected void onPostExecute(Integer result) {
+    	/* Also called if this was attached to a sync already running */
+		@Override protected void onSyncFinished(int result) {
 			Log.d(BackgroundService.TAG,"SYNC Post-execute complete!");
-			super.onPostExecute(result);
+			super.onSyncFinished(result);
 			this.wakeLock.release();
 			// schedule the next occurrence:
 			BackgroundService.this.scheduleSync(false);
@@ -185,6 +197,29 @@ public class BackgroundService extends Service implements OnSharedPreferenceChan
     	}
     };
     
+    /**
+     * Sends queued local edits.  See {@link ChangeQueue}.
+     */
+    class PushChangesTask extends AsyncTask<Void, Void, Integer> {
+    	@Override protected Integer doInBackground(Void... args) {
+    		return ChangeQueue.push( getApplicationContext(), 
+    				GmarksProvider.DatabaseHelper.get(getApplicationContext()), 
+    				BookmarksQueryService.getInstance() );
+    	}
+    	
+    	@Override protected void onPostExecute(Integer result) {
+    		Log.d(TAG, "Push finished: " + result);
+    		if ( result == RemoteSyncTask.RESULT_FAILURE_AUTH ) {
+    			// the edits stay queued until the user logs in again
+    			RemoteSyncTask.notifyAuthFailure( BackgroundService.this, 
+    					new Notification( R.drawable.ic_sync, 
+    							getText(R.string.sync_notify_auth_error), 
+    							System.currentTimeMillis() ) );
+    		}
+    		BackgroundService.this.stopSelf(startID);
+    	}
+    }
+    
     /**
      * This isn't actually likely to be notified of changes since most often
      * when preferences change it will be shut down.  Not to mention, the 
@@ -0,0 +1,201 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Bookmarks or search results read a page at a time, using the provider's
+ * keyset pagination (see {@link GmarksProvider#PARAM_LIMIT}).  Only the
+ * first page is read up front; the list calls {@link #loadNextPage()} off
+ * the UI thread as it nears the end, then {@link #addPage(Cursor, int)} to
+ * show it.  To reload after the bookmarks change, create a new one (in the
+ * background, see {@link AsyncQuery}) with as many rows as had been loaded;
+ * requery does the same in place.  The projection must include the _id and
+ * the sort column.
+ */
+class BookmarkPageCursor extends AbstractCursor {
+	private final ContentResolver resolver;
+	private final Uri uri;
+	private final String[] projection;
+	private final String sort;
+	private final int pageSize;
+	private final int idColumn;
+	private final int sortColumn;
+
+	private final List<Cursor> pages = new ArrayList<Cursor>();
+	/** position of each page's first row */
+	private final List<Integer> offsets = new ArrayList<Integer>();
+	private int count = 0;
+	private boolean complete = false;
+	/** bumped on requery, so a page read before it is dropped */
+	private int generation = 0;
+	private Cursor current = null;
+	/** _id and sort column of the last row loaded, where the next page starts */
+	private String lastID = null;
+	private String lastSortKey = null;
+
+	/**
+	 * Reads the first rows, so create it off the UI thread.
+	 * @param rows rows to read up front; at least one page is read
+	 */
+	BookmarkPageCursor( ContentResolver resolver, Uri uri, String[] projection,
+			String sort, int pageSize, int rows ) {
+		this.resolver = resolver;
+		this.uri = uri;
+		this.projection = projection;
+		this.sort = sort;
+		this.pageSize = pageSize;
+		this.idColumn = indexOf( Bookmark.Columns._ID );
+		this.sortColumn = indexOf( isTitleSort() ?
+				Bookmark.Columns.TITLE : Bookmark.Columns.MODIFIED_DATE );
+		load( Math.max( rows, pageSize ) );
+		setNotificationUri( resolver, uri );
+	}
+
+	private int indexOf( String column ) {
+		for ( int i=0; i< projection.length; i++ )
+			if ( projection[i].equals( column ) ) return i;
+		throw new IllegalArgumentException( "Projection needs column " + column );
+	}
+
+	private boolean isTitleSort() {
+		return Bookmark.Columns.SORT_TITLE.equals( sort );
+	}
+
+	/** Replace everything with the first rows, up to the given limit */
+	private void load( int limit ) {
+		closePages();
+		Cursor first = query( uri.buildUpon(), limit );
+		if ( first != null ) add( first, limit );
+		else complete = true;
+	}
+
+	private Cursor query( Uri.Builder page, int limit ) {
+		page.appendQueryParameter( GmarksProvider.PARAM_LIMIT, ""+limit );
+		return resolver.query( page.build(), projection, null, null, sort );
+	}
+
+	/** @return true if there may be more rows after those loaded */
+	boolean hasMore() { return ! complete; }
+
+	int getGeneration() { return generation; }
+
+	/**
+	 * Read the page after the last loaded row.  Doesn't change this cursor,
+	 * so it can be called from a background thread.
+	 * @return the page, to pass to {@link #addPage(Cursor, int)}, or null
+	 */
+	Cursor loadNextPage() {
+		Uri.Builder next = uri.buildUpon();
+		synchronized ( this ) {
+			if ( complete || lastID == null ) return null;
+			next.appendQueryParameter( GmarksProvider.PARAM_AFTER_ID, lastID );
+			next.appendQueryParameter( isTitleSort() ? GmarksProvider.PARAM_AFTER_TITLE
+					: GmarksProvider.PARAM_AFTER_MODIFIED, lastSortKey );
+		}
+		return query( next, pageSize );
+	}
+
+	/**
+	 * Append a page from {@link #loadNextPage()}, unless the cursor has been
+	 * requeried since it was read.  Call on the UI thread, then tell the
+	 * adapter its data has changed.
+	 * @param generation the value of {@link #getGeneration()} when the page
+	 * was requested
+	 */
+	synchronized void addPage( Cursor page, int generation ) {
+		if ( page == null ) return;
+		if ( generation != this.generation || isClosed() ) {
+			page.close();
+			return;
+		}
+		add( page, pageSize );
+	}
+
+	private synchronized void add( Cursor page, int limit ) {
+		int rows = page.getCount();
+		if ( rows < limit ) complete = true;
+		if ( rows < 1 ) {
+			page.close();
+			return;
+		}
+		page.moveToLast();
+		lastID = page.getString( idColumn );
+		lastSortKey = page.getString( sortColumn );
+		offsets.add( count );
+		pages.add( page );
+		count += rows;
+	}
+
+	private synchronized void closePages() {
+		for ( Cursor page : pages ) page.close();
+		pages.clear();
+		offsets.clear();
+		count = 0;
+		complete = false;
+		current = null;
+		lastID = null;
+		lastSortKey = null;
+		generation++;
+	}
+
+	@Override public int getCount() { return count; }
+
+	@Override public String[] getColumnNames() { return projection; }
+
+	@Override public boolean onMove( int oldPosition, int newPosition ) {
+		// find the last page that starts at or before the new position
+		int lo = 0, hi = offsets.size() -1;
+		if ( hi < 0 ) return false;
+		while ( lo < hi ) {
+			int mid = (lo + hi + 1) >>> 1;
+			if ( offsets.get( mid ) <= newPosition ) lo = mid;
+			else hi = mid -1;
+		}
+		current = pages.get( lo );
+		return current.moveToPosition( newPosition - offsets.get( lo ) );
+	}
+
+	@Override public boolean requery() {
+		load( Math.max( count, pageSize ) );
+		return super.requery();
+	}
+
+	@Override public void deactivate() {
+		for ( Cursor page : pages ) page.deactivate();
+		super.deactivate();
+	}
+
+	@Override public void close() {
+		closePages();
+		super.close();
+	}
+
+	@Override public String getString( int column ) { return current.getString( column ); }
+	@Override public short getShort( int column ) { return current.getShort( column ); }
+	@Override public int getInt( int column ) { return current.getInt( column ); }
+	@Override public long getLong( int column ) { return current.getLong( column ); }
+	@Override public float getFloat( int column ) { return current.getFloat( column ); }
+	@Override public double getDouble( int column ) { return current.getDouble( column ); }
+	@Override public boolean isNull( int column ) { return current.isNull( column ); }
+}
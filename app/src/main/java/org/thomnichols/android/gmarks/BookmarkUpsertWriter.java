@@ -0,0 +1,299 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARKS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.FTS_TABLE_NAME;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.thomnichols.android.gmarks.GmarksProvider.DBException;
+import org.thomnichols.android.gmarks.GmarksProvider.DatabaseHelper;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Inserts or updates bookmarks coming from a remote sync.  Every write
+ * statement is compiled once up front and re-bound for each row, so writing
+ * a bookmark doesn't cost a query compilation per statement the way the
+ * <code>ContentValues</code> based insert/update methods do.  Each bookmark
+ * is looked up once by google ID, reading its _id, modified time and
+ * fingerprint together; the writes then go by _id.  Label links go through
+ * a {@link LabelCache} shared with the rest of the sync.
+ *
+ * Every bookmark the writer inserts or updates is stamped with the sync
+ * generation.  One whose modified time hasn't changed isn't written at all;
+ * its _id is kept in {@link #getUnchangedIDs()} instead, so a full sync of
+ * an unchanged account only reads the bookmarks table.  The sweep in
+ * {@link RemoteSyncTask} keeps rows that are either stamped or in that set.
+ * If the modified time has changed but the
+ * {@link ContentFingerprint} hasn't, only the modified time is updated;
+ * the FTS row and label links are left alone.  The decisions are made by
+ * {@link UpsertPlan}.
+ *
+ * Bookmarks are buffered and written {@link #batchSize} at a time.  The
+ * caller owns the transaction; call {@link #flush()} before committing and
+ * {@link #close()} when finished.
+ */
+class BookmarkUpsertWriter {
+	static final String TAG = "GMARKS UPSERT";
+	static final int DEFAULT_BATCH_SIZE = 25; // one threadsearch page
+
+	private final LabelCache labels;
+	private final int generation;
+	private final int batchSize;
+	private final List<Bookmark> batch;
+
+	private final SQLiteDatabase db;
+	private final String selectStored;
+	/** re-bound for each lookup */
+	private final String[] selectArgs = new String[1];
+	/** rows seen but left with an older generation */
+	private final Set<Long> unchangedIDs = new HashSet<Long>();
+	private final SQLiteStatement touchBookmark;
+	private final SQLiteStatement insertBookmark;
+	private final SQLiteStatement updateBookmark;
+	/** null if the FTS table is kept by triggers */
+	private final SQLiteStatement insertFTS;
+	private final SQLiteStatement updateFTS;
+
+	private int inserted = 0;
+	private int updated = 0;
+	private int unchanged = 0;
+	private int touched = 0;
+	private long writeTime = 0; // nanoseconds spent in flush()
+	private long ftsTime = 0; // part of writeTime spent on the FTS table
+	private final long startTime = System.currentTimeMillis();
+
+	BookmarkUpsertWriter( SQLiteDatabase db, LabelCache labels, int generation ) {
+		this( db, labels, generation, DEFAULT_BATCH_SIZE );
+	}
+
+	BookmarkUpsertWriter( SQLiteDatabase db, LabelCache labels, int generation, 
+			int batchSize ) {
+		this.db = db;
+		this.labels = labels;
+		this.generation = generation;
+		this.batchSize = batchSize;
+		this.batch = new ArrayList<Bookmark>(batchSize);
+
+		this.selectStored = "select " + Bookmark.Columns._ID
+				+ "," + Bookmark.Columns.MODIFIED_DATE
+				+ "," + Bookmark.Columns.CONTENT_HASH
+				+ " from " + BOOKMARKS_TABLE_NAME
+				+ " where " + Bookmark.Columns.GOOGLEID + "=?";
+		this.touchBookmark = db.compileStatement( "update " + BOOKMARKS_TABLE_NAME
+				+ " set " + Bookmark.Columns.MODIFIED_DATE + "=?"
+				+ "," + Bookmark.Columns.SYNC_GEN + "=?"
+				+ " where " + Bookmark.Columns._ID + "=?" );
+		this.insertBookmark = db.compileStatement( "insert into " + BOOKMARKS_TABLE_NAME
+				+ " (" + Bookmark.Columns.THREAD_ID
+				+ "," + Bookmark.Columns.TITLE
+				+ "," + Bookmark.Columns.URL
+				+ "," + Bookmark.Columns.HOST
+				+ "," + Bookmark.Columns.FAVICON
+				+ "," + Bookmark.Columns.DESCRIPTION
+				+ "," + Bookmark.Columns.LABELS
+				+ "," + Bookmark.Columns.CREATED_DATE
+				+ "," + Bookmark.Columns.MODIFIED_DATE
+				+ "," + Bookmark.Columns.SYNC_GEN
+				+ "," + Bookmark.Columns.CONTENT_HASH
+				+ "," + Bookmark.Columns.GOOGLEID
+				+ ") values (?,?,?,?,?,?,?,?,?,?,?,?)" );
+		// same bind order as the insert so both can share bindBookmark()
+		this.updateBookmark = db.compileStatement( "update " + BOOKMARKS_TABLE_NAME
+				+ " set " + Bookmark.Columns.THREAD_ID + "=?"
+				+ "," + Bookmark.Columns.TITLE + "=?"
+				+ "," + Bookmark.Columns.URL + "=?"
+				+ "," + Bookmark.Columns.HOST + "=?"
+				+ "," + Bookmark.Columns.FAVICON + "=?"
+				+ "," + Bookmark.Columns.DESCRIPTION + "=?"
+				+ "," + Bookmark.Columns.LABELS + "=?"
+				+ "," + Bookmark.Columns.CREATED_DATE + "=?"
+				+ "," + Bookmark.Columns.MODIFIED_DATE + "=?"
+				+ "," + Bookmark.Columns.SYNC_GEN + "=?"
+				+ "," + Bookmark.Columns.CONTENT_HASH + "=?"
+				+ " where " + Bookmark.Columns._ID + "=?" );
+		if ( DatabaseHelper.hasFTSTriggers() ) {
+			this.insertFTS = null;
+			this.updateFTS = null;
+		}
+		else {
+			this.insertFTS = db.compileStatement( "insert into " + FTS_TABLE_NAME
+					+ " (" + Bookmark.Columns.TITLE + "_fts"
+					+ "," + Bookmark.Columns.HOST + "_fts"
+					+ "," + Bookmark.Columns.DESCRIPTION + "_fts"
+					+ "," + Bookmark.Columns.LABELS + "_fts"
+					+ ",docid) values (?,?,?,?,?)" );
+			this.updateFTS = db.compileStatement( "update " + FTS_TABLE_NAME
+					+ " set " + Bookmark.Columns.TITLE + "_fts=?"
+					+ "," + Bookmark.Columns.HOST + "_fts=?"
+					+ "," + Bookmark.Columns.DESCRIPTION + "_fts=?"
+					+ "," + Bookmark.Columns.LABELS + "_fts=?"
+					+ " where docid=?" );
+		}
+	}
+
+	/** Queue a bookmark, writing the current batch if it's full. */
+	void add( Bookmark b ) throws DBException {
+		batch.add(b);
+		if ( batch.size() >= batchSize ) flush();
+	}
+
+	/** Write any queued bookmarks. */
+	void flush() throws DBException {
+		if ( batch.isEmpty() ) return;
+		long start = System.nanoTime();
+		try {
+			for ( Bookmark b : batch ) upsert(b);
+		}
+		finally {
+			batch.clear();
+			writeTime += System.nanoTime() - start;
+		}
+	}
+
+	private void upsert( Bookmark b ) throws DBException {
+		long rowID = -1, modified = -1, storedHash = 0; // -1: no such row
+		selectArgs[0] = b.getGoogleId();
+		Cursor stored = db.rawQuery( selectStored, selectArgs );
+		try {
+			if ( stored.moveToFirst() ) {
+				rowID = stored.getLong(0);
+				modified = stored.getLong(1);
+				storedHash = stored.getLong(2);
+			}
+		}
+		finally { stored.close(); }
+		
+		int action = UpsertPlan.byModified( modified, b );
+		if ( action == UpsertPlan.UNCHANGED ) {
+			unchangedIDs.add( rowID );
+			unchanged++;
+			return;
+		}
+
+		boolean isNew = action == UpsertPlan.INSERT;
+		long hash = ContentFingerprint.of(b);
+		if ( ! isNew && UpsertPlan.byHash( storedHash, hash ) == UpsertPlan.TOUCH ) {
+			touchBookmark.bindLong( 1, b.getModifiedDate() );
+			touchBookmark.bindLong( 2, generation );
+			touchBookmark.bindLong( 3, rowID );
+			touchBookmark.execute();
+			touched++;
+			return;
+		}
+
+		String allLabels = b.getAllLabels();
+		if ( isNew ) {
+			bindBookmark( insertBookmark, b, allLabels, hash );
+			insertBookmark.bindString( 12, b.getGoogleId() );
+			rowID = insertBookmark.executeInsert();
+			if ( rowID < 0 )
+				throw new DBException( "Insert failed for bookmark: " + b.getGoogleId() );
+			inserted++;
+		}
+		else {
+			bindBookmark( updateBookmark, b, allLabels, hash );
+			updateBookmark.bindLong( 12, rowID );
+			updateBookmark.execute();
+			updated++;
+		}
+		b.set_id(rowID);
+
+		labels.updateLinks( b, isNew );
+		if ( insertFTS == null ) return;
+
+		long ftsStart = System.nanoTime();
+		SQLiteStatement fts = isNew ? insertFTS : updateFTS;
+		bind( fts, 1, b.getTitle() );
+		bind( fts, 2, b.getHost() );
+		bind( fts, 3, b.getDescription() );
+		bind( fts, 4, allLabels );
+		fts.bindLong( 5, rowID );
+		fts.execute();
+		ftsTime += System.nanoTime() - ftsStart;
+	}
+
+	private void bindBookmark( SQLiteStatement stmt, Bookmark b, String allLabels, 
+			long hash ) {
+		bind( stmt, 1, b.getThreadId() );
+		bind( stmt, 2, b.getTitle() );
+		bind( stmt, 3, b.getUrl() );
+		bind( stmt, 4, b.getHost() );
+		bind( stmt, 5, b.getFaviconURL() );
+		bind( stmt, 6, b.getDescription() );
+		bind( stmt, 7, allLabels );
+		stmt.bindLong( 8, b.getCreatedDate() );
+		stmt.bindLong( 9, b.getModifiedDate() );
+		stmt.bindLong( 10, generation );
+		stmt.bindLong( 11, hash );
+	}
+
+	private static void bind( SQLiteStatement stmt, int index, String val ) {
+		if ( val == null ) stmt.bindNull( index );
+		else stmt.bindString( index, val );
+	}
+
+	int getInserted() { return this.inserted; }
+	int getUpdated() { return this.updated; }
+	int getUnchanged() { return this.unchanged; }
+	int getTouched() { return this.touched; }
+	int getCount() { return this.inserted + this.updated + this.unchanged + this.touched; }
+
+	/** @return _ids of the bookmarks that were seen but not written */
+	Set<Long> getUnchangedIDs() { return this.unchangedIDs; }
+
+	/** @return rows written per second of time spent actually writing */
+	double getRowsPerSecond() {
+		if ( writeTime < 1 ) return 0;
+		return getCount() * 1000000000.0 / writeTime;
+	}
+
+	/**
+	 * Add the time spent writing, split between the FTS table and everything
+	 * else, and the row counts.  Touched bookmarks count as skipped since
+	 * only their modified time was written.
+	 */
+	void addTo( SyncStats stats ) {
+		stats.add( SyncStats.DB_WRITE, writeTime - ftsTime );
+		stats.add( SyncStats.FTS_WRITE, ftsTime );
+		stats.setRows( inserted, updated, unchanged + touched );
+	}
+
+	void logStats() {
+		Log.d(TAG, String.format(
+				"Wrote %d bookmarks (%d new, %d updated, %d touched, %d unchanged) in %dms of %dms: %.1f rows/sec",
+				getCount(), inserted, updated, touched, unchanged, writeTime / 1000000,
+				System.currentTimeMillis() - startTime, getRowsPerSecond() ) );
+	}
+
+	/** Release the compiled statements.  Queued bookmarks are discarded. */
+	void close() {
+		batch.clear();
+		touchBookmark.close();
+		insertBookmark.close();
+		updateBookmark.close();
+		if ( insertFTS != null ) insertFTS.close();
+		if ( updateFTS != null ) updateFTS.close();
+	}
+}
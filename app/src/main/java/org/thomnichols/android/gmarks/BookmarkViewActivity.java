@@ -15,6 +15,8 @@
  */
 package org.thomnichols.android.gmarks;
 
+import java.util.concurrent.Callable;
+
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Intent;
@@ -34,7 +36,8 @@ import android.widget.SimpleCursorAdapter;
  * TODO add labels list
  * @author tnichols
  */
-public class BookmarkViewActivity extends Activity implements OnClickListener {
+public class BookmarkViewActivity extends Activity
+		implements OnClickListener, AsyncQuery.Callbacks {
 	private static String TAG = "BookmarkView";
 	
     private static final String[] PROJECTION = new String[] {
@@ -46,9 +49,8 @@ public class BookmarkViewActivity extends Activity implements OnClickListener {
 	        Bookmark.Columns.DESCRIPTION,  // 4
 	        Bookmark.Columns.LABELS  // 4
 	};
-    private static final String[] LABEL_PROJECTION = new String[] {
-    	Label.Columns._ID,
-    	Label.Columns.TITLE };
+    /** most labels shown in the auto-complete list */
+    private static final int MAX_LABEL_SUGGESTIONS = 20;
 
     private static final int COLUMN_INDEX_ID = 0;
     private static final int COLUMN_INDEX_GOOGLEID = 1;
@@ -59,7 +61,8 @@ public class BookmarkViewActivity extends Activity implements OnClickListener {
     private static final int COLUMN_INDEX_LABELS = 6;
     
 	private Uri mUri;
-	private Cursor cursor;
+	/** reads the bookmark to view or edit */
+	private AsyncQuery query;
 	
 	Bookmark bookmark = null;
 	
@@ -80,17 +83,10 @@ public class BookmarkViewActivity extends Activity implements OnClickListener {
         final String action = intent.getAction();
         
         if (Intent.ACTION_VIEW.equals(action)) {
-        	// if viewing, immediately open the HTTP URL associated with this item.
+        	// if viewing, open the HTTP URL associated with this item once it's read.
         	// TODO should check to verify that the intent Uri points to a single item?
-        	this.cursor = managedQuery(mUri, PROJECTION, null, null, null);
-        	if ( ! this.cursor.moveToFirst() ) {
-        		Log.w(TAG, "Can't find bookmark for ID: " + mUri);
-        		finish();
-        		return;
-        	}
-        	String bookmarkURL = this.cursor.getString(COLUMN_INDEX_URL);
-        	startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(bookmarkURL)));
-        	finish();
+        	this.query = new AsyncQuery(this);
+        	this.query.start();
         	return;
         }
 
@@ -100,11 +96,14 @@ public class BookmarkViewActivity extends Activity implements OnClickListener {
         
         if (Intent.ACTION_EDIT.equals(action) || 
         		Intent.ACTION_PICK.equals(action) ) {
-        	this.cursor = managedQuery(mUri, PROJECTION, null, null, null);
+        	this.query = new AsyncQuery(this);
         	
             // Requested to edit: set that state, and the data being edited.
         	setTitle(R.string.edit_bookmark);
             ((Button)findViewById(R.id.saveBtn)).setText(R.string.btn_update);
+            // until the bookmark's been read
+            findViewById(R.id.saveBtn).setEnabled(false);
+            findViewById(R.id.deleteBtn).setEnabled(false);
         }
         else if (Intent.ACTION_INSERT.equals(action)) {
         	String label = intent.getStringExtra("label");
@@ -133,67 +132,102 @@ public class BookmarkViewActivity extends Activity implements OnClickListener {
         this.descriptionField = (EditText) findViewById(R.id.description);
         this.labelsField = (MultiAutoCompleteTextView) findViewById(R.id.labels);
 
+        // suggestions come from the in-memory label index, not the DB
+        LabelIndexCache.start(this);
         SimpleCursorAdapter adapter = new SimpleCursorAdapter(this, 
         		R.layout.label_autocomplete_item,
-        		managedQuery(Label.CONTENT_URI, LABEL_PROJECTION, null, null, null),
+        		LabelIndexCache.toCursor(LabelIndex.EMPTY, new int[0]),
         		new String[] { Label.Columns.TITLE }, 
         		new int[] { R.id.autocomplete_item} );
         adapter.setStringConversionColumn(1); // used for text filtering
         adapter.setFilterQueryProvider(new FilterQueryProvider() {
 			public Cursor runQuery(CharSequence constraint) {
 				if ( constraint == null || constraint.length() < 1 ) return null;
-				String label = constraint.toString();
-				label.replaceAll("'", "");
-				return managedQuery( Label.CONTENT_URI, LABEL_PROJECTION, 
-						"label like '"+label+"%'", null, null);
+				LabelIndex labels = LabelIndexCache.get(BookmarkViewActivity.this);
+				return LabelIndexCache.toCursor(labels, 
+						labels.match(constraint, MAX_LABEL_SUGGESTIONS));
 			}
 		});
         labelsField.setAdapter(adapter);
         labelsField.setTokenizer(new MultiAutoCompleteTextView.CommaTokenizer());
         
-        // Get the bookmark
-        Log.d(TAG, "Getting data for: " + mUri);        
-        
 		((Button)findViewById(R.id.saveBtn)).setOnClickListener( this );
 		((Button)findViewById(R.id.deleteBtn)).setOnClickListener( this );
+        
+        if ( this.query != null ) {
+        	// Get the bookmark
+        	Log.d(TAG, "Getting data for: " + mUri);
+        	this.query.start();
+        }
+        else this.bookmark = new Bookmark();
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	if ( this.query != null ) this.query.close();
+    }
+    
+    public Callable<Cursor> onCreateQuery() {
+    	final Uri uri = this.mUri;
+    	return new Callable<Cursor>() {
+    		public Cursor call() {
+    			return getContentResolver().query(uri, PROJECTION, null, null, null);
+    		}
+    	};
+    }
+    
+    public void onQueryComplete(Cursor cursor) {
+    	try {
+    		if ( cursor == null || ! cursor.moveToFirst() ) {
+    			Log.w(TAG, "Can't find bookmark for ID: " + mUri);
+    			finish();
+    			return;
+    		}
+    		if ( Intent.ACTION_VIEW.equals(getIntent().getAction()) ) {
+    			String bookmarkURL = cursor.getString(COLUMN_INDEX_URL);
+    			startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(bookmarkURL)));
+    			finish();
+    			return;
+    		}
+    		showBookmark(cursor);
+    	}
+    	finally { if ( cursor != null ) cursor.close(); }
+    }
+	
+    /** Fill in the fields from the bookmark being edited */
+    protected void showBookmark(Cursor cursor) {
+        setTitle(R.string.edit_bookmark);
+        
+        Bookmark b = new Bookmark( cursor.getString(COLUMN_INDEX_GOOGLEID),
+        		cursor.getString(COLUMN_INDEX_THREADID),
+        		cursor.getString(COLUMN_INDEX_TITLE),
+        		cursor.getString(COLUMN_INDEX_URL),
+        		null,
+        		cursor.getString(COLUMN_INDEX_DESCRIPTION),
+        		0, 0 );
+        b.set_id(cursor.getLong(COLUMN_INDEX_ID));
+        String labels = cursor.getString(COLUMN_INDEX_LABELS);
+        b.parseLabels(labels);
+        if ( labels != null && labels.length() > 0 ) labels += ", ";
+
+        // This is a little tricky: we may be resumed after previously being
+        // paused/stopped.  We want to put the new text in the text view,
+        // but leave the user where they were (retain the cursor position
+        // etc).  This version of setText does that for us.
+        this.titleField.setTextKeepState( b.getTitle() );
+        this.urlField.setTextKeepState( b.getUrl() );
+        this.descriptionField.setTextKeepState( b.getDescription() );
+        this.labelsField.setTextKeepState( labels );
+        
+        this.bookmark = b;
+        findViewById(R.id.saveBtn).setEnabled(true);
+        findViewById(R.id.deleteBtn).setEnabled(true);
     }
 	
     @Override
     protected void onResume() {
         super.onResume();
-
-        // If we didn't have any trouble retrieving the data, it is now
-        // time to get at the stuff.
-        if (cursor != null) {
-            // Make sure we are at the one and only row in the cursor.
-            cursor.moveToFirst();
-            
-            setTitle(R.string.edit_bookmark);
-            
-            Bookmark b = new Bookmark( cursor.getString(COLUMN_INDEX_GOOGLEID),
-            		cursor.getString(COLUMN_INDEX_THREADID),
-            		cursor.getString(COLUMN_INDEX_TITLE),
-            		cursor.getString(COLUMN_INDEX_URL),
-            		null,
-            		cursor.getString(COLUMN_INDEX_DESCRIPTION),
-            		0, 0 );
-            b.set_id(cursor.getLong(COLUMN_INDEX_ID));
-            String labels = cursor.getString(COLUMN_INDEX_LABELS);
-            b.parseLabels(labels);
-            if ( labels != null && labels.length() > 0 ) labels += ", ";
-
-            // This is a little tricky: we may be resumed after previously being
-            // paused/stopped.  We want to put the new text in the text view,
-            // but leave the user where they were (retain the cursor position
-            // etc).  This version of setText does that for us.
-            this.titleField.setTextKeepState( b.getTitle() );
-            this.urlField.setTextKeepState( b.getUrl() );
-            this.descriptionField.setTextKeepState( b.getDescription() );
-            this.labelsField.setTextKeepState( labels );
-            
-            this.bookmark = b;
-        }
-        else this.bookmark = new Bookmark();
         
         if ( Intent.ACTION_DELETE.equals(getIntent().getAction()) ) {
 			Log.d(TAG, "Deleting bookmark ID: " + mUri + " ...");
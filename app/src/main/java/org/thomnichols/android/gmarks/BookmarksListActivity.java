@@ -0,0 +1,456 @@
+/* This file is part of GMarks. Copyright 2010, 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.concurrent.Callable;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.app.SearchManager;
+import android.content.ContentUris;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.KeyEvent;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.Toast;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.AdapterView.OnItemLongClickListener;
+
+public class BookmarksListActivity extends ListActivity implements AsyncQuery.Callbacks {
+
+    private static final String TAG = "BOOKMARKS LIST";
+
+    // Menu item ids
+    public static final int CONTEXT_MENU_ITEM_DELETE = Menu.FIRST;
+    public static final int CONTEXT_MENU_ITEM_EDIT = Menu.FIRST + 1;
+    
+    static final int SORT_MODIFIED = 0;
+    static final int SORT_TITLE = 1;
+    protected int currentSort = SORT_MODIFIED;
+    /** true while choosing bookmarks to delete or relabel */
+    protected boolean selecting = false;
+
+    /**
+     * The columns we are interested in from the database
+     */
+    private static final String[] PROJECTION = new String[] {
+            Bookmark.Columns._ID, // 0
+            Bookmark.Columns.TITLE, // 1
+            Bookmark.Columns.URL, // 2
+            Bookmark.Columns.HOST, // 3
+            Bookmark.Columns.MODIFIED_DATE, // 4, for paging
+            Bookmark.Columns.FAVICON, // 5
+    };
+    
+    /** bookmarks read per query; more are read as the list is scrolled */
+    static final int PAGE_SIZE = 100;
+    /** true while a page is being read */
+    private boolean loadingPage = false;
+    protected AsyncQuery query;
+    /** sort order of the last query, to tell a reload from a new sort */
+    private int querySort = -1;
+
+    // the cursor index of the url column
+    private static final int COLUMN_INDEX_URL = 2;
+    private static final int COLUMN_INDEX_HOST = 3;
+    private static final int COLUMN_INDEX_FAVICON = 5;
+    /** ms to wait for more icons to load before redrawing the list */
+    static final long ICON_REFRESH_DELAY = 200;
+    
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setDefaultKeyMode(DEFAULT_KEYS_SHORTCUT);
+
+        // bind an action for long-press (not a context menu)
+        getListView().setOnItemLongClickListener(this.longClickListener);
+        getListView().setOnScrollListener(this.scrollListener);
+        
+        this.currentSort = Prefs.get(this).getInt(Prefs.KEY_BOOKMARKS_SORT_PREF, SORT_MODIFIED);
+
+        setTitle(R.string.bookmarks_activity);
+        
+        final Intent intent = getIntent();
+        if (intent.getData() == null) intent.setData(GmarksProvider.BOOKMARKS_CONTENT_URI);
+        Uri uri = intent.getData();
+        if ( uri == null ) intent.setData(GmarksProvider.BOOKMARKS_CONTENT_URI);
+        final String action = intent.getAction();
+        
+        if ( Intent.ACTION_PICK.equals(action) ) {
+        	setTitle(R.string.choose_bookmark);
+        }
+        else if ( Intent.ACTION_VIEW.equals(action) && uri.getScheme().startsWith("http") ) {
+        	// this was the result of a search where an item was chosen; 
+        	// just start the view activity for that URL.
+        	startActivity(new Intent(Intent.ACTION_VIEW, uri));
+        	finish();
+        	return;
+        }
+        else if (Intent.ACTION_SEARCH.equals(action)) {
+            String query = intent.getStringExtra(SearchManager.QUERY);
+            uri = uri.buildUpon().appendPath("search")
+            	.appendQueryParameter("q", query).build();
+            intent.setData( uri );
+            this.setTitle( getString(R.string.search_results_title, query) );
+        }
+        else {
+            String labelName = uri.getQueryParameter("label");
+            if ( labelName != null )
+            	this.setTitle( getString(R.string.label_results_title, labelName) );
+        }
+        
+        this.query = new AsyncQuery(this);
+        setListAdapter( newAdapter(null) );
+        this.query.start();
+    }
+    
+    @Override
+    public void onLowMemory() {
+    	super.onLowMemory();
+    	FaviconCache.trimMemory();
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	if ( this.query == null ) return; // finished in onCreate
+    	this.query.close();
+    	((SimpleCursorAdapter)getListAdapter()).changeCursor(null);
+    }
+    
+    /** Used to map notes entries from the database to views */
+    protected SimpleCursorAdapter newAdapter( Cursor cursor ) {
+    	if ( this.selecting ) return new AsyncQuery.Adapter( this,
+    			android.R.layout.simple_list_item_multiple_choice, cursor,
+    			new String[] { Bookmark.Columns.TITLE }, 
+    			new int[] { android.R.id.text1 }, query );
+        SimpleCursorAdapter adapter = new AsyncQuery.Adapter( this, 
+        		R.layout.bookmarkslist_item, cursor,
+                new String[] { Bookmark.Columns.TITLE, Bookmark.Columns.HOST, 
+        			Bookmark.Columns.FAVICON }, 
+                new int[] { R.id.title, R.id.host, R.id.favicon }, query );
+        adapter.setViewBinder(this.faviconBinder);
+        return adapter;
+    }
+    
+    /** Show icons that are in memory; others are loaded in the background */
+    protected SimpleCursorAdapter.ViewBinder faviconBinder = new SimpleCursorAdapter.ViewBinder() {
+		public boolean setViewValue(View view, Cursor cursor, int column) {
+			if ( view.getId() != R.id.favicon ) return false;
+			Bitmap icon = FaviconCache.get(BookmarksListActivity.this).getIcon( 
+					cursor.getString(COLUMN_INDEX_HOST), 
+					cursor.getString(COLUMN_INDEX_FAVICON), iconListener );
+			((ImageView)view).setImageBitmap(icon);
+			return true;
+		}
+	};
+	
+	/** Redraw the list once a batch of icons has loaded */
+	protected FaviconCache.Listener iconListener = new FaviconCache.Listener() {
+		public void onIconLoaded(String host, Bitmap icon) {
+			getListView().removeCallbacks(refreshIcons);
+			getListView().postDelayed(refreshIcons, ICON_REFRESH_DELAY);
+		}
+	};
+	
+	private Runnable refreshIcons = new Runnable() {
+		public void run() {
+			((SimpleCursorAdapter)getListAdapter()).notifyDataSetChanged();
+		}
+	};
+    
+    /**
+     * Switch to or from a list of checkboxes, to delete or relabel 
+     * several bookmarks at once.
+     */
+    protected void setSelecting( boolean selecting ) {
+    	this.selecting = selecting;
+    	ListView list = getListView();
+    	list.clearChoices();
+    	list.setChoiceMode( selecting ? 
+    			ListView.CHOICE_MODE_MULTIPLE : ListView.CHOICE_MODE_NONE );
+    	setListAdapter( newAdapter( 
+    			((SimpleCursorAdapter)getListAdapter()).getCursor() ) );
+    }
+    
+    /** @return the IDs of the checked bookmarks */
+    protected long[] getCheckedIDs() {
+    	SparseBooleanArray checked = getListView().getCheckedItemPositions();
+    	ListAdapter adapter = getListAdapter();
+    	int count = 0;
+    	long[] ids = new long[checked != null ? checked.size() : 0];
+    	for ( int i=0; i< ids.length; i++ ) 
+    		if ( checked.valueAt(i) ) ids[count++] = adapter.getItemId( checked.keyAt(i) );
+    	long[] result = new long[count];
+    	System.arraycopy( ids, 0, result, 0, count );
+    	return result;
+    }
+    
+    /** Delete or relabel the checked bookmarks */
+    protected void editChecked( int action, String label ) {
+    	long[] ids = getCheckedIDs();
+    	if ( ids.length < 1 ) {
+    		Toast.makeText(this, R.string.none_selected_msg, Toast.LENGTH_SHORT).show();
+    		return;
+    	}
+    	new BulkEditTask( action, ids, label, this ) {
+    		@Override protected void onDone() {
+    			setSelecting( false );
+    			query.start();
+    		}
+    	}.execute();
+    }
+    
+    public Callable<Cursor> onCreateQuery() {
+        final Uri uri = getIntent().getData();
+        final String sort = currentSort == SORT_MODIFIED ? 
+        		Bookmark.Columns.SORT_MODIFIED : Bookmark.Columns.SORT_TITLE;
+        // when reloading, read back as many rows as were showing so the list doesn't jump
+        Cursor current = ((SimpleCursorAdapter)getListAdapter()).getCursor();
+        final int rows = current != null && querySort == currentSort ? current.getCount() : 0;
+        this.querySort = currentSort;
+        return new Callable<Cursor>() {
+        	public Cursor call() {
+        		return new BookmarkPageCursor( getContentResolver(), 
+        				uri, PROJECTION, sort, PAGE_SIZE, rows );
+        	}
+        };
+    }
+    
+    public void onQueryComplete(Cursor cursor) {
+    	if ( cursor != null ) ((SimpleCursorAdapter)getListAdapter()).changeCursor(cursor);
+    }
+    
+    /** Read the next page of bookmarks in the background, if there is one */
+    protected void loadNextPage() {
+    	if ( loadingPage ) return;
+    	Cursor c = ((SimpleCursorAdapter)getListAdapter()).getCursor();
+    	if ( ! (c instanceof BookmarkPageCursor) ) return;
+    	final BookmarkPageCursor cursor = (BookmarkPageCursor)c;
+    	if ( ! cursor.hasMore() ) return;
+    	final int generation = cursor.getGeneration();
+    	loadingPage = true;
+    	new AsyncTask<Void, Void, Cursor>() {
+    		@Override protected Cursor doInBackground(Void... args) {
+    			return cursor.loadNextPage();
+    		}
+    		
+    		@Override protected void onPostExecute(Cursor page) {
+    			loadingPage = false;
+    			cursor.addPage(page, generation);
+    			((SimpleCursorAdapter)getListAdapter()).notifyDataSetChanged();
+    		}
+    	}.execute();
+    }
+    
+    /** Start reading the next page a quarter page before the end */
+    protected OnScrollListener scrollListener = new OnScrollListener() {
+		public void onScroll(AbsListView view, int firstVisibleItem,
+				int visibleItemCount, int totalItemCount) {
+			if ( totalItemCount > 0 && 
+					firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE/4 )
+				loadNextPage();
+		}
+		
+		public void onScrollStateChanged(AbsListView view, int scrollState) {}
+	};
+        
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        super.onCreateOptionsMenu(menu);
+
+        MenuInflater inflater = getMenuInflater();
+        inflater.inflate(R.menu.bookmark_list, menu);
+
+        return true;
+    }
+    
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        final boolean haveItems = getListAdapter().getCount() > 0;
+
+        if ( haveItems ) {
+//    		menu.findItem(R.id.menu_delete).setVisible( true );
+        }
+        else menu.removeGroup(Menu.CATEGORY_ALTERNATIVE);
+        
+		menu.findItem(R.id.menu_sort_title).setVisible(
+				! selecting && this.currentSort != SORT_TITLE );
+		menu.findItem(R.id.menu_sort_date).setVisible(
+				! selecting && this.currentSort != SORT_MODIFIED );
+
+		menu.findItem(R.id.menu_search).setVisible(
+				! selecting && ! Hardware.hasSearchButton() );
+		menu.findItem(R.id.menu_add).setVisible( ! selecting );
+		menu.findItem(R.id.menu_sync).setVisible( ! selecting );
+		menu.findItem(R.id.menu_select).setVisible( ! selecting && haveItems
+				&& ! Intent.ACTION_PICK.equals( getIntent().getAction() ) );
+
+		menu.findItem(R.id.menu_add_label).setVisible( selecting );
+		menu.findItem(R.id.menu_remove_label).setVisible( selecting 
+				&& getIntent().getData().getQueryParameter("label") != null );
+		menu.findItem(R.id.menu_delete_selected).setVisible( selecting );
+		menu.findItem(R.id.menu_select_all).setVisible( selecting );
+		menu.findItem(R.id.menu_select_none).setVisible( selecting );
+		menu.findItem(R.id.menu_select_done).setVisible( selecting );
+		
+        return true;
+    }
+    
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch ( item.getItemId() ) {
+        case R.id.menu_add:
+        	Intent intent = new Intent(Intent.ACTION_INSERT);
+        	intent.setType(Bookmark.CONTENT_ITEM_TYPE);
+        	String label = getIntent().getData().getQueryParameter("label");
+        	if ( label != null ) intent.putExtra("label", label);
+            // Launch activity to insert a new item
+            startActivity(intent);
+            return true;
+        case R.id.menu_search:
+        	this.onSearchRequested();
+        	break;
+        case R.id.menu_sort_title:
+            this.currentSort = SORT_TITLE;
+            Prefs.edit(this).putInt(Prefs.KEY_BOOKMARKS_SORT_PREF, SORT_TITLE).commit();
+            this.query.start();
+        	break;
+        case R.id.menu_sort_date:
+            this.currentSort = SORT_MODIFIED;
+            Prefs.edit(this).putInt(Prefs.KEY_BOOKMARKS_SORT_PREF, SORT_MODIFIED).commit();
+            this.query.start();
+        	break;
+        case R.id.menu_delete:
+        	Uri uri = ContentUris.withAppendedId(getIntent().getData(), getSelectedItemId());
+        	startActivity( new Intent(Intent.ACTION_DELETE, uri) );
+        	break;
+        case R.id.menu_sync:
+        	Log.d(TAG, "Starting sync...");
+        	// TODO only sync bookmarks for this label?
+        	Toast.makeText(this, SyncCoordinator.submit(new RemoteSyncTask(this)) ?
+        			R.string.sync_begin_msg : R.string.sync_in_progress_msg, 
+        			Toast.LENGTH_SHORT).show();
+        	break;
+        case R.id.menu_select:
+        	setSelecting( true );
+        	break;
+        case R.id.menu_select_done:
+        	setSelecting( false );
+        	break;
+        case R.id.menu_select_all:
+        case R.id.menu_select_none:
+        	ListView list = getListView();
+        	for ( int i=0; i< list.getCount(); i++ )
+        		list.setItemChecked( i, item.getItemId() == R.id.menu_select_all );
+        	break;
+        case R.id.menu_delete_selected:
+        	final long[] ids = getCheckedIDs();
+        	if ( ids.length < 1 ) {
+        		Toast.makeText(this, R.string.none_selected_msg, Toast.LENGTH_SHORT).show();
+        		break;
+        	}
+        	new AlertDialog.Builder(this)
+        		.setMessage( getString(R.string.bulk_delete_confirm_msg, ids.length) )
+        		.setPositiveButton( R.string.btn_delete, new DialogInterface.OnClickListener() {
+        			public void onClick(DialogInterface dialog, int which) {
+        				editChecked( BulkEditTask.ACTION_DELETE, null );
+        			}
+        		})
+        		.setNegativeButton( R.string.btn_cancel, null )
+        		.show();
+        	break;
+        case R.id.menu_add_label:
+        	final EditText labelText = new EditText(this);
+        	labelText.setSingleLine();
+        	new AlertDialog.Builder(this)
+        		.setTitle( getString(R.string.bulk_add_label_title, getCheckedIDs().length) )
+        		.setView( labelText )
+        		.setPositiveButton( R.string.btn_ok, new DialogInterface.OnClickListener() {
+        			public void onClick(DialogInterface dialog, int which) {
+        				String newLabel = labelText.getText().toString().trim();
+        				if ( newLabel.length() > 0 ) 
+        					editChecked( BulkEditTask.ACTION_ADD_LABEL, newLabel );
+        			}
+        		})
+        		.setNegativeButton( R.string.btn_cancel, null )
+        		.show();
+        	break;
+        case R.id.menu_remove_label:
+        	editChecked( BulkEditTask.ACTION_REMOVE_LABEL, 
+        			getIntent().getData().getQueryParameter("label") );
+        	break;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+        
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+    	if ( this.selecting ) return; // the list checks or unchecks it
+    	Uri uri = ContentUris.withAppendedId(getIntent().getData(), id);
+    	String action = getIntent().getAction();
+        if (Intent.ACTION_PICK.equals(action) || Intent.ACTION_GET_CONTENT.equals(action)) {
+            // The caller is waiting for us to return a note selected by
+            // the user.  The have clicked on one, so return it now.
+            setResult(RESULT_OK, new Intent().setData(uri));
+            finish();
+        } else {
+        	String bookmarkURL = ((Cursor)l.getItemAtPosition(position))
+        		.getString(COLUMN_INDEX_URL);
+        	startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(bookmarkURL)));
+        }
+    }
+    
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+    	if ( keyCode == KeyEvent.KEYCODE_BACK && this.selecting ) {
+    		setSelecting( false );
+    		return true;
+    	}
+    	return super.onKeyDown(keyCode, event);
+    }
+    
+    protected OnItemLongClickListener longClickListener = new OnItemLongClickListener() {
+		public boolean onItemLongClick(AdapterView<?> adapter, View v, int position, long id) {
+			if ( selecting ) return false;
+			Uri uri = ContentUris.withAppendedId(GmarksProvider.BOOKMARKS_CONTENT_URI, id);
+            startActivity(new Intent(Intent.ACTION_EDIT, uri));
+			return false;
+		}    	
+        
+        //TODO after starting the activity, if the item was updated or deleted, this 
+        // view will need to be refreshed!
+	};
+}
@@ -0,0 +1,166 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BROWSER_CHANGES_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.BROWSER_SNAPSHOT_TABLE_NAME;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.thomnichols.android.gmarks.GmarksProvider.DatabaseHelper;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.Browser;
+import android.util.Log;
+
+/**
+ * Watches the browser's bookmarks and records which URLs were added or 
+ * retitled, so {@link BrowserSync} only has to look at those.  The browser
+ * doesn't say which rows changed, so after a burst of changes settles the 
+ * bookmarks are compared with a snapshot of URLs & titles kept in the 
+ * GMarks database; that runs on a background thread rather than in the 
+ * sync.  Changes made while the app's process isn't running are missed, 
+ * which is why BrowserSync still does a full reconcile now and then.
+ */
+class BrowserChangeTracker extends ContentObserver {
+	static final String TAG = "GMARKS BROWSER WATCH";
+	/** ms to wait for more changes before comparing */
+	static final long SETTLE_DELAY = 5000;
+
+	private static BrowserChangeTracker instance = null;
+
+	private final Context ctx;
+	private final Handler handler;
+	private final long watchingSince = System.currentTimeMillis();
+	private final Runnable scan = new Runnable() {
+		public void run() { scan(); }
+	};
+
+	private BrowserChangeTracker( Context ctx, Handler handler ) {
+		super( handler );
+		this.ctx = ctx;
+		this.handler = handler;
+	}
+
+	/** Start watching, if it isn't already. */
+	static synchronized void start( Context ctx ) {
+		if ( instance != null ) return;
+		HandlerThread thread = new HandlerThread( TAG );
+		thread.start();
+		instance = new BrowserChangeTracker( ctx.getApplicationContext(), 
+				new Handler( thread.getLooper() ) );
+		ctx.getContentResolver().registerContentObserver( 
+				Browser.BOOKMARKS_URI, true, instance );
+		Log.d(TAG, "Watching browser bookmarks");
+	}
+
+	/** @return when this process started watching, or -1 if it isn't */
+	static synchronized long getWatchingSince() {
+		return instance != null ? instance.watchingSince : -1;
+	}
+
+	private static synchronized void stop() {
+		if ( instance == null ) return;
+		instance.ctx.getContentResolver().unregisterContentObserver( instance );
+		instance.handler.getLooper().quit();
+		instance = null;
+		Log.d(TAG, "Stopped watching browser bookmarks");
+	}
+
+	@Override
+	public void onChange( boolean selfChange ) {
+		handler.removeCallbacks( scan );
+		handler.postDelayed( scan, SETTLE_DELAY );
+	}
+
+	private void scan() {
+		if ( ! Prefs.get(ctx).getBoolean( Prefs.KEY_BROWSER_SYNC_ENABLED, false ) ) {
+			stop();
+			return;
+		}
+		try {
+			SQLiteDatabase db = DatabaseHelper.get( ctx ).getWritableDatabase();
+			recordChanges( db, BrowserSync.loadBrowserBookmarks( ctx, null ),
+					Prefs.get(ctx).getLong( Prefs.PREF_LAST_BROWSER_SYNC, 0 ) );
+		}
+		catch ( Exception ex ) {
+			Log.w(TAG, "Error recording browser changes", ex);
+		}
+	}
+
+	/**
+	 * Compare the browser's bookmarks with the snapshot, log URLs that are
+	 * new or have a new title as changed, and bring the snapshot up to date.
+	 * If the snapshot is empty, as it is after upgrading from a version 
+	 * without one, bookmarks created before the last browser sync are 
+	 * only added to the snapshot; they were sync'd back then.
+	 * @param lastSync when browser bookmarks were last sync'd, or 0
+	 * @return the number of changed URLs
+	 */
+	static int recordChanges( SQLiteDatabase db, 
+			Map<String,BrowserSync.BrowserBookmark> browser, long lastSync ) {
+		long start = System.currentTimeMillis();
+		Map<String,String> snapshot = new HashMap<String,String>();
+		Cursor c = db.query( BROWSER_SNAPSHOT_TABLE_NAME, new String[] {"url", "title"}, 
+				null, null, null, null, null );
+		try {
+			while ( c.moveToNext() ) snapshot.put( c.getString(0), c.getString(1) );
+		}
+		finally { c.close(); }
+
+		boolean seeding = snapshot.isEmpty() && lastSync > 0;
+		int changed = 0;
+		db.beginTransaction();
+		try {
+			for ( Map.Entry<String,BrowserSync.BrowserBookmark> e : browser.entrySet() ) {
+				String url = e.getKey();
+				String title = e.getValue().title;
+				boolean known = snapshot.containsKey( url );
+				String oldTitle = snapshot.remove( url );
+				if ( known && ( title == null ? oldTitle == null : title.equals( oldTitle ) ) )
+					continue;
+				db.execSQL( "insert or replace into " + BROWSER_SNAPSHOT_TABLE_NAME 
+						+ " (url, title) values (?,?)", new Object[] {url, title} );
+				if ( seeding && e.getValue().created < lastSync ) continue;
+				db.execSQL( "insert or ignore into " + BROWSER_CHANGES_TABLE_NAME 
+						+ " (url, changed) values (?,?)", new Object[] {url, start} );
+				changed++;
+			}
+			// whatever is left was deleted from the browser
+			for ( String url : snapshot.keySet() ) 
+				db.delete( BROWSER_SNAPSHOT_TABLE_NAME, "url=?", new String[] {url} );
+			db.setTransactionSuccessful();
+		}
+		finally { db.endTransaction(); }
+		Log.d(TAG, "Recorded " + changed + " changed browser bookmarks, " 
+				+ snapshot.size() + " removed, in " 
+				+ (System.currentTimeMillis() - start) + "ms");
+		return changed;
+	}
+
+	/** Add bookmarks GMarks is about to put in the browser to the snapshot,
+	 * so they aren't seen as browser changes. */
+	static void addToSnapshot( SQLiteDatabase db, String url, String title ) {
+		db.execSQL( "insert or replace into " + BROWSER_SNAPSHOT_TABLE_NAME 
+				+ " (url, title) values (?,?)", new Object[] {url, title} );
+	}
+}
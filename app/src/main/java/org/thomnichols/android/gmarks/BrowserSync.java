@@ -0,0 +1,346 @@
+/* This file is part of GMarks. Copyright 2010, 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARKS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.BROWSER_CHANGES_TABLE_NAME;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.thomnichols.android.gmarks.GmarksProvider.DBException;
+import org.thomnichols.android.gmarks.GmarksProvider.DatabaseHelper;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.Browser;
+import android.provider.Browser.BookmarkColumns;
+import android.util.Log;
+
+/**
+ * Two-way sync between the browser's bookmarks and a GMarks label.  
+ * Normally only the browser bookmarks {@link BrowserChangeTracker} logged
+ * as added or retitled are looked at, plus labelled bookmarks modified 
+ * since the last sync.  If the tracker hasn't been running since the last
+ * sync, or every {@link #RECONCILE_INTERVAL}, all of the browser's 
+ * bookmarks are compared instead, which logs anything the tracker missed.
+ * 
+ * Both sides are loaded into maps keyed by URL and compared in memory; 
+ * the differences are then sent to the server in batches, written locally
+ * with a {@link BookmarkUpsertWriter} and added to the browser with a 
+ * single bulk insert.
+ */
+public class BrowserSync {
+	private static final String TAG = "GMARKS BROWSER SYNC";
+	
+	/** Compare every browser bookmark at least this often, in ms */
+	static final long RECONCILE_INTERVAL = 24 * 60 * 60 * 1000;
+	/** URLs per <code>in (...)</code> query; SQLite allows 999 parameters */
+	static final int QUERY_CHUNK_SIZE = 500;
+	
+	Context ctx;
+	
+	static final String[] browserColumnsProjection = {
+		BookmarkColumns.URL,
+		BookmarkColumns.TITLE,
+		BookmarkColumns.CREATED
+	};
+	static final int COL_URL = 0;
+	static final int COL_TITLE = 1;
+	static final int COL_CREATED = 2;
+
+	static final String[] localColumnsProjection = {
+		Bookmark.Columns._ID, Bookmark.Columns.GOOGLEID, Bookmark.Columns.THREAD_ID,
+		Bookmark.Columns.TITLE, Bookmark.Columns.URL, Bookmark.Columns.HOST,
+		Bookmark.Columns.DESCRIPTION, Bookmark.Columns.CREATED_DATE,
+		Bookmark.Columns.MODIFIED_DATE, Bookmark.Columns.FAVICON, 
+		Bookmark.Columns.LABELS
+	};
+
+	/** A browser bookmark's title and created time */
+	static final class BrowserBookmark {
+		final String title;
+		final long created;
+		BrowserBookmark( String title, long created ) {
+			this.title = title;
+			this.created = created;
+		}
+	}
+	
+	public BrowserSync(Context ctx) {
+		this.ctx = ctx;
+	}
+
+	// TODO this needs to be async
+	public void syncBrowserBookmarks( String label, long updatedSince ) throws IOException, DBException {
+		BrowserChangeTracker.start( ctx ); // changes from now on are logged
+		BookmarksQueryService bookmarksSvc = BookmarksQueryService.getInstance();
+		DatabaseHelper bookmarksDB = DatabaseHelper.get(this.ctx);
+		SQLiteDatabase db = bookmarksDB.getWritableDatabase();
+		LabelCache labelCache = null;
+		BookmarkUpsertWriter writer = null;
+		SharedPreferences prefs = Prefs.get(ctx);
+
+		long start = System.currentTimeMillis();
+		long watchingSince = BrowserChangeTracker.getWatchingSince();
+		boolean reconcile = updatedSince == 0 || watchingSince < 0 
+			|| watchingSince > updatedSince
+			|| start - prefs.getLong(Prefs.PREF_LAST_BROWSER_RECONCILE, 0) > RECONCILE_INTERVAL;
+		Log.d(TAG,"Syncing browser bookmarks for label: " + label 
+				+ (reconcile ? " (full reconcile)" : "") );
+		try {
+			/* 1. load both sides.  Nothing is written to the DB until the 
+			 * remote changes have been sent, so the write lock isn't held 
+			 * across HTTP requests. */
+			Map<String,BrowserBookmark> browser = null;
+			if ( reconcile ) {
+				browser = loadBrowserBookmarks( ctx, null );
+				BrowserChangeTracker.recordChanges( db, browser, updatedSince );
+			}
+			long lastChange = -1;
+			Set<String> changed = new HashSet<String>();
+			Cursor c = db.query( BROWSER_CHANGES_TABLE_NAME, new String[] {"_id", "url"}, 
+					null, null, null, null, "_id" );
+			try {
+				while ( c.moveToNext() ) {
+					lastChange = c.getLong(0);
+					changed.add( c.getString(1) );
+				}
+			}
+			finally { c.close(); }
+			Set<String> labelled = findLabelled( db, label, updatedSince );
+
+			Set<String> urls = new HashSet<String>( changed );
+			urls.addAll( labelled );
+			if ( browser == null ) browser = loadBrowserBookmarks( ctx, urls );
+			Map<String,Bookmark> local = loadLocalBookmarks( db, urls );
+			Log.d(TAG, "Loaded " + browser.size() + " browser & " + local.size() 
+					+ " local bookmarks for " + changed.size() + " browser changes in " 
+					+ (System.currentTimeMillis() - start) + "ms");
+		
+			// 2. compare them:
+			List<Bookmark> creates = new ArrayList<Bookmark>();
+			List<Bookmark> updates = new ArrayList<Bookmark>();
+			for ( String url : changed ) {
+				BrowserBookmark bb = browser.get( url );
+				if ( bb == null ) continue; // since removed from the browser
+
+				Bookmark b = local.get( url );
+				if ( b == null ) { // create new GMark
+					Bookmark newBookmark = new Bookmark(null,null,
+							bb.title, url, null, "", bb.created, 0);
+					newBookmark.getLabels().add(label);
+					creates.add( newBookmark );
+					continue;
+				}
+				// not created remotely yet; the change queue will send it
+				if ( PendingChange.isLocalID( b.getGoogleId() ) ) continue;
+					
+				// update the remote & local GMark
+				boolean needUpdate = false;
+				if ( bb.title != null && ! bb.title.equals(b.getTitle()) ) {
+					b.setTitle(bb.title);
+					needUpdate = true;
+				}
+				if ( ! b.getLabels().contains(label) ) {
+					b.getLabels().add(label);
+					needUpdate = true;
+				}
+				if ( needUpdate ) updates.add( b );
+			}
+					
+			// remote bookmarks that should be added to the browser:
+			List<ContentValues> browserInserts = new ArrayList<ContentValues>();
+			for ( String url : labelled ) {
+				Bookmark b = local.get( url );
+				if ( b == null || browser.containsKey(url) ) continue;
+					
+				ContentValues vals = new ContentValues();
+				vals.put(BookmarkColumns.TITLE, b.getTitle());
+				vals.put(BookmarkColumns.URL, b.getUrl());
+				vals.put(BookmarkColumns.CREATED, b.getCreatedDate());
+				vals.put(BookmarkColumns.BOOKMARK, 1);
+//				vals.put(BookmarkColumns., value) TODO favicon
+				browserInserts.add( vals );
+			}
+			Log.d(TAG, "Creating " + creates.size() + ", updating " + updates.size() 
+					+ " bookmarks; adding " + browserInserts.size() + " to the browser");
+			
+			// 3. send the remote changes:
+			List<Bookmark> sent = new ArrayList<Bookmark>();
+			IOException failure = null;
+			if ( creates.size() > 0 ) {
+				BatchResult<Bookmark> created = bookmarksSvc.createAll( 
+						creates, BookmarksQueryService.DEFAULT_BATCH_SIZE );
+				for ( Bookmark b : created.getCompleted() ) { // the response has no created date
+					BrowserBookmark bb = browser.get( b.getUrl() );
+					sent.add( withCreated( b, bb != null ? bb.created : 0 ) );
+				}
+				failure = firstFailure( created );
+			}
+			if ( updates.size() > 0 && ! ( failure instanceof BookmarksQueryService.AuthException ) ) {
+				BatchResult<Bookmark> updated = bookmarksSvc.updateAll( 
+						updates, BookmarksQueryService.DEFAULT_BATCH_SIZE );
+				for ( Bookmark b : updated.getCompleted() ) {
+					Bookmark old = local.get( b.getUrl() );
+					sent.add( withCreated( b, old != null ? old.getCreatedDate() : 0 ) );
+				}
+				if ( failure == null ) failure = firstFailure( updated );
+			}
+			
+			// 4. save them locally, in one short transaction:
+			db.beginTransaction();
+			int generation = prefs.getInt(Prefs.PREF_SYNC_GENERATION, 0);
+			labelCache = new LabelCache(db, true);
+			writer = new BookmarkUpsertWriter(db, labelCache, generation);
+			// whatever was sent is saved, even if something else failed
+			for ( Bookmark b : sent ) writer.add( b );
+			writer.flush();
+			// failed changes stay logged so they're tried again
+			if ( failure == null ) db.delete( BROWSER_CHANGES_TABLE_NAME, 
+					"_id<=?", new String[] {""+lastChange} );
+			for ( ContentValues vals : browserInserts ) BrowserChangeTracker.addToSnapshot( 
+					db, vals.getAsString(BookmarkColumns.URL), vals.getAsString(BookmarkColumns.TITLE) );
+			db.setTransactionSuccessful();
+			db.endTransaction();
+			if ( reconcile && failure == null ) prefs.edit()
+				.putLong(Prefs.PREF_LAST_BROWSER_RECONCILE, start).commit();
+
+			if ( browserInserts.size() > 0 ) {
+				int count = ctx.getContentResolver().bulkInsert( Browser.BOOKMARKS_URI, 
+						browserInserts.toArray( new ContentValues[browserInserts.size()] ) );
+				Log.d(TAG,"Created " + count + " browser bookmarks");
+			}
+			// so the last browser sync time isn't moved on and they're tried again
+			if ( failure != null ) throw failure;
+			Log.d(TAG, "Browser sync took " + (System.currentTimeMillis() - start) + "ms");
+		}
+		finally { 
+			if ( writer != null ) writer.close();
+			if ( labelCache != null ) labelCache.close();
+			if ( db.inTransaction() ) db.endTransaction();
+		}
+	}
+
+	/**
+	 * @param urls only load these; all of them if null
+	 * @return the browser's bookmarks by URL 
+	 */
+	static Map<String,BrowserBookmark> loadBrowserBookmarks( Context ctx, 
+			Collection<String> urls ) {
+		Map<String,BrowserBookmark> bookmarks = new HashMap<String,BrowserBookmark>();
+		for ( String[] chunk : chunks( urls ) ) {
+			Cursor cursor = ctx.getContentResolver().query(Browser.BOOKMARKS_URI, 
+					browserColumnsProjection, chunk == null ? "bookmark=1" 
+							: "bookmark=1 and " + urlsIn( chunk ), chunk, null);
+			try {
+				while( cursor.moveToNext() ) 
+					bookmarks.put( cursor.getString(COL_URL), new BrowserBookmark( 
+							cursor.getString(COL_TITLE), cursor.getLong(COL_CREATED) ) );
+			}
+			finally { cursor.close(); }
+		}
+		return bookmarks;
+	}
+
+	/**
+	 * @param urls only load these; all of them if null
+	 * @return cached bookmarks by URL, with their labels
+	 */
+	private Map<String,Bookmark> loadLocalBookmarks( SQLiteDatabase db, 
+			Collection<String> urls ) {
+		Map<String,Bookmark> bookmarks = new HashMap<String,Bookmark>();
+		for ( String[] chunk : chunks( urls ) ) {
+			Cursor c = db.query( BOOKMARKS_TABLE_NAME, localColumnsProjection, 
+					urlsIn( chunk ), chunk, null, null, null );
+			try {
+				while ( c.moveToNext() ) {
+					Bookmark b = new Bookmark(c.getString(1),c.getString(2),c.getString(3),
+							c.getString(4),c.getString(5),c.getString(6),c.getLong(7),c.getLong(8));
+					b.set_id(c.getLong(0));
+					b.setFaviconURL(c.getString(9));
+					if ( c.getString(10) != null ) b.parseLabels(c.getString(10));
+					if ( ! bookmarks.containsKey(b.getUrl()) ) bookmarks.put( b.getUrl(), b );
+				}
+			}
+			finally { c.close(); }
+		}
+		return bookmarks;
+	}
+
+	/** @return URLs of bookmarks with the label that were modified since the given time */
+	private Set<String> findLabelled( SQLiteDatabase db, String label, long since ) {
+		Set<String> urls = new HashSet<String>();
+		Cursor c = db.query("bookmarks b join bookmark_labels bl on bl.bookmark_id=b._id" 
+				+ " join labels l on l._id=bl.label_id", new String[] {"b.url"},
+				"l.label=? and b.modified>=?", new String[] {label, ""+since}, 
+				null, null, null);
+		try {
+			while ( c.moveToNext() ) urls.add( c.getString(0) );
+		}
+		finally { c.close(); }
+		return urls;
+	}
+
+	/** @return the URLs in chunks for {@link #urlsIn}; a single null chunk if urls is null */
+	private static List<String[]> chunks( Collection<String> urls ) {
+		List<String[]> chunks = new ArrayList<String[]>();
+		if ( urls == null ) {
+			chunks.add( null );
+			return chunks;
+		}
+		List<String> all = new ArrayList<String>( urls );
+		for ( int i=0; i< all.size(); i += QUERY_CHUNK_SIZE ) {
+			List<String> chunk = all.subList( i, Math.min( all.size(), i + QUERY_CHUNK_SIZE ) );
+			chunks.add( chunk.toArray( new String[chunk.size()] ) );
+		}
+		return chunks;
+	}
+
+	/** @return "url in (?,...)" for the chunk, or null if it's null */
+	private static String urlsIn( String[] chunk ) {
+		if ( chunk == null ) return null;
+		StringBuilder sql = new StringBuilder( "url in (" );
+		for ( int i=0; i< chunk.length; i++ ) sql.append( i > 0 ? ",?" : "?" );
+		return sql.append( ')' ).toString();
+	}
+
+	/** @return the first error, or null if everything was sent */
+	private IOException firstFailure( BatchResult<Bookmark> result ) {
+		if ( result.getFailed().isEmpty() ) return null;
+		IOException first = result.getFailed().values().iterator().next();
+		Log.w(TAG, result.getFailed().size() + " bookmarks couldn't be sent", first );
+		return first;
+	}
+
+	private static Bookmark withCreated( Bookmark b, long created ) {
+		Bookmark copy = new Bookmark( b.getGoogleId(), b.getThreadId(), b.getTitle(), 
+				b.getUrl(), b.getHost(), b.getDescription(), created, b.getModifiedDate() );
+		copy.set_id( b.get_id() );
+		copy.setFaviconURL( b.getFaviconURL() );
+		copy.setLabels( b.getLabels() );
+		return copy;
+	}
+}
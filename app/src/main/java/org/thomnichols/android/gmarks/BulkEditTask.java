@@ -0,0 +1,161 @@
+/* This file is part of GMarks. Copyright 2010, 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARKS_TABLE_NAME;
+
+import org.thomnichols.android.gmarks.GmarksProvider.DatabaseHelper;
+
+import android.app.ProgressDialog;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Deletes or relabels several bookmarks at once.  Like 
+ * {@link UpdateBookmarkTask}, the edits are written locally, in a single
+ * transaction, and queued; {@link ChangeQueue#push} then sends them to the
+ * server in batches rather than one request per bookmark.
+ */
+public class BulkEditTask extends AsyncTask<Void,Void,Integer> {
+	static final String TAG = "GMARK BULK EDIT";
+
+	static final int ACTION_DELETE = 0;
+	static final int ACTION_ADD_LABEL = 1;
+	static final int ACTION_REMOVE_LABEL = 2;
+
+	private static final String[] bookmarkColumns = {
+		Bookmark.Columns.TITLE, Bookmark.Columns.URL, Bookmark.Columns.HOST,
+		Bookmark.Columns.DESCRIPTION, Bookmark.Columns.LABELS, 
+		Bookmark.Columns.FAVICON };
+
+	final int action;
+	final long[] bookmarkIDs;
+	final String label;
+	final Context ctx;
+	ProgressDialog waitDialog; 
+
+	/**
+	 * @param label the label to add or remove; ignored for a delete
+	 */
+	public BulkEditTask(int action, long[] bookmarkIDs, String label, Context ctx) {
+		this.action = action;
+		this.bookmarkIDs = bookmarkIDs;
+		this.label = label;
+		this.ctx = ctx;
+	}
+
+	@Override
+	protected void onPreExecute() {
+		super.onPreExecute();
+		CharSequence progressText = ctx.getText(
+				this.action == ACTION_DELETE ?
+				R.string.deleting_bookmarks_msg :
+				R.string.saving_bookmarks_msg);
+		this.waitDialog = ProgressDialog.show( this.ctx, "", progressText, true );
+	}
+
+	/** @return the number of bookmarks changed, or -1 on error */
+	@Override protected Integer doInBackground(Void... arg0) {
+		DatabaseHelper dbHelper = DatabaseHelper.get(this.ctx);
+		int changed = 0;
+		try {
+			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				long now = System.currentTimeMillis();
+				for ( long id : bookmarkIDs ) {
+					if ( action == ACTION_DELETE ) {
+						ChangeQueue.add( ctx, db, PendingChange.DELETE, id );
+						dbHelper.deleteBookmark( id, db );
+						changed++;
+						continue;
+					}
+					Bookmark b = load( db, id, now );
+					if ( b == null ) continue;
+					boolean modified = action == ACTION_ADD_LABEL ? 
+							b.getLabels().add( label ) : b.getLabels().remove( label );
+					if ( ! modified ) continue;
+					dbHelper.update( b, db );
+					ChangeQueue.add( ctx, db, PendingChange.UPDATE, id );
+					changed++;
+				}
+				db.setTransactionSuccessful();
+			}
+			finally { db.endTransaction(); }
+			Log.d(TAG,"Saved; queued changes for " + changed + " bookmarks" );
+			if ( changed > 0 ) {
+				// so the label filters see added labels before the next sync
+				ContentResolver resolver = ctx.getContentResolver();
+				resolver.notifyChange(GmarksProvider.BOOKMARKS_CONTENT_URI, null);
+				resolver.notifyChange(GmarksProvider.LABELS_CONTENT_URI, null);
+			}
+		}
+		catch ( Exception ex ) {
+			Log.w(TAG, "Bulk edit error", ex );
+			return -1;
+		}
+
+		if ( changed > 0 ) ChangeQueue.requestPush( ctx );
+		return changed;
+	}
+
+	/**
+	 * @return the bookmark's fields, to be written back with new labels.  
+	 * There's no google or thread ID so they aren't overwritten with stale 
+	 * ones; see {@link UpdateBookmarkTask}.
+	 */
+	private Bookmark load( SQLiteDatabase db, long id, long modified ) {
+		Cursor c = db.query( BOOKMARKS_TABLE_NAME, bookmarkColumns,
+				Bookmark.Columns._ID + "=?", new String[] {""+id}, null, null, null );
+		try {
+			if ( ! c.moveToFirst() ) return null;
+			Bookmark b = new Bookmark( null, null, c.getString(0), c.getString(1),
+					c.getString(2), c.getString(3), 0, modified );
+			b.set_id( id );
+			if ( c.getString(4) != null ) b.parseLabels( c.getString(4) );
+			b.setFaviconURL( c.getString(5) );
+			return b;
+		}
+		finally { c.close(); }
+	}
+
+	/** Override this to refresh the list once the bookmarks are saved */
+	protected void onDone() {}
+
+	@Override
+	protected void onPostExecute(Integer changed) {
+		try {
+			this.waitDialog.dismiss();
+		} catch ( IllegalArgumentException ex ) {} // if 'back' was pressed 
+
+		if ( changed < 0 ) {
+			int msgID = this.action == ACTION_DELETE ? 
+					R.string.error_delete_failed_msg : 
+					R.string.error_save_failed_msg;
+			Toast.makeText(this.ctx, msgID, Toast.LENGTH_LONG).show();
+			return;
+		}
+		String msg = ctx.getString( this.action == ACTION_DELETE ?
+				R.string.bulk_delete_ok_msg : R.string.bulk_update_ok_msg, changed );
+		Toast.makeText(this.ctx, msg, Toast.LENGTH_SHORT).show();
+		onDone();
+	}
+}
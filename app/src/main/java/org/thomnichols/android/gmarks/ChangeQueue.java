@@ -0,0 +1,411 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARKS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.PENDING_CHANGES_TABLE_NAME;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
+import org.thomnichols.android.gmarks.BookmarksQueryService.NotFoundException;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * Local bookmark edits waiting to be sent to the server.  An edit is
+ * written to the bookmarks table and queued in the same transaction, so
+ * saving doesn't wait on the network.  {@link #push} sends them later,
+ * from {@link BackgroundService} or at the start of a sync.
+ *
+ * There's at most one entry per bookmark; see {@link PendingChange} for
+ * how edits are merged.  Each entry has a version that's bumped whenever
+ * it's merged, so an edit made while the entry is being sent isn't lost
+ * when the send finishes.  Failed entries are retried with an increasing
+ * delay, scheduled with the AlarmManager.  Only one push runs at a time,
+ * so two can't both send the same entry.
+ */
+class ChangeQueue {
+	static final String TAG = "GMARKS CHANGES";
+
+	static final String ACTION_PUSH = "org.thomnichols.gmarks.action.PUSH_CHANGES";
+
+	private static final String[] entryColumns = {
+		"_id", "bookmark_id", "action", "google_id", "version", "attempts" };
+	private static final String[] bookmarkColumns = {
+		Bookmark.Columns.GOOGLEID, Bookmark.Columns.THREAD_ID,
+		Bookmark.Columns.TITLE, Bookmark.Columns.URL, Bookmark.Columns.HOST,
+		Bookmark.Columns.DESCRIPTION, Bookmark.Columns.LABELS,
+		Bookmark.Columns.CREATED_DATE, Bookmark.Columns.MODIFIED_DATE };
+
+	/** held from reading the due entries until they're finished */
+	private static final Object pushLock = new Object();
+
+	/** @return a google ID for a bookmark that only exists locally so far */
+	static String newLocalID() {
+		return PendingChange.LOCAL_ID_PREFIX + UUID.randomUUID();
+	}
+
+	/**
+	 * Queue an edit, merging it with anything already queued for the same
+	 * bookmark.  Call it in the transaction that writes the edit; for a
+	 * delete, call it before the row is deleted.
+	 * @param action one of the {@link PendingChange} actions
+	 */
+	static void add( Context ctx, SQLiteDatabase db, int action, long bookmarkID ) {
+		String googleId = null;
+		Cursor c = db.query( BOOKMARKS_TABLE_NAME, new String[] {Bookmark.Columns.GOOGLEID},
+				Bookmark.Columns._ID + "=?", new String[] {""+bookmarkID}, null, null, null );
+		try {
+			if ( c.moveToFirst() ) googleId = c.getString(0);
+		}
+		finally { c.close(); }
+		if ( PendingChange.isLocalID(googleId) ) googleId = null;
+
+		ContentValues vals = new ContentValues();
+		vals.put( "google_id", googleId );
+		vals.put( "attempts", 0 );
+		vals.put( "next_attempt", 0 );
+		c = db.query( PENDING_CHANGES_TABLE_NAME, new String[] {"_id", "action"},
+				"bookmark_id=?", new String[] {""+bookmarkID}, null, null, null );
+		try {
+			if ( c.moveToFirst() ) {
+				int merged = PendingChange.coalesce( c.getInt(1), action );
+				Log.d(TAG, "Merging " + action + " into " + c.getInt(1)
+						+ " for bookmark " + bookmarkID + ": " + merged );
+				vals.put( "action", merged );
+				db.update( PENDING_CHANGES_TABLE_NAME, vals, "_id=?",
+						new String[] {""+c.getLong(0)} );
+				db.execSQL( "update " + PENDING_CHANGES_TABLE_NAME
+						+ " set version=version+1 where _id=" + c.getLong(0) );
+			}
+			else {
+				vals.put( "bookmark_id", bookmarkID );
+				vals.put( "action", action );
+				vals.put( "queued", System.currentTimeMillis() );
+				db.insert( PENDING_CHANGES_TABLE_NAME, null, vals );
+			}
+		}
+		finally { c.close(); }
+		Prefs.edit(ctx).putBoolean(Prefs.PREF_CHANGES_PENDING, true).commit();
+	}
+
+	/** Start {@link BackgroundService} to push whatever is queued. */
+	static void requestPush( Context ctx ) {
+		ctx.startService( pushIntent(ctx) );
+	}
+
+	/** @return google IDs of bookmarks with local edits that haven't been sent */
+	static Set<String> pendingIDs( SQLiteDatabase db ) {
+		Set<String> ids = new HashSet<String>();
+		Cursor c = db.query( PENDING_CHANGES_TABLE_NAME, new String[] {"google_id"},
+				"google_id is not null", null, null, null, null );
+		try {
+			while ( c.moveToNext() ) ids.add( c.getString(0) );
+		}
+		finally { c.close(); }
+		return ids;
+	}
+
+	/**
+	 * Send every queued edit that's due, in batches: deletes first, then
+	 * updates, then creates.  Stops after an auth or connection failure, 
+	 * since the rest would fail the same way, and schedules another push 
+	 * for when the next entry is due.  Edits the server rejects are retried 
+	 * until they reach {@link PendingChange#MAX_ATTEMPTS}.
+	 * Don't call this inside a transaction; each sent edit is committed
+	 * on its own.  If another push is running, from the service or a sync, 
+	 * this waits for it and then sends whatever is still due.
+	 * @return one of RemoteSyncTask's result codes.  Entries that fail for
+	 *  other reasons are retried later but don't fail the push.
+	 */
+	static int push( Context ctx, GmarksProvider.DatabaseHelper dbHelper,
+			BookmarksQueryService remoteSvc ) {
+		synchronized ( pushLock ) {
+			return pushDue( ctx, dbHelper, remoteSvc );
+		}
+	}
+
+	private static int pushDue( Context ctx, GmarksProvider.DatabaseHelper dbHelper,
+			BookmarksQueryService remoteSvc ) {
+		long now = System.currentTimeMillis();
+		SQLiteDatabase db;
+		List<long[]> entries = new ArrayList<long[]>();
+		List<String> googleIds = new ArrayList<String>();
+		try {
+			if ( ! remoteSvc.isAuthInitialized() ) 
+				remoteSvc.setAuthCookies( dbHelper.restoreCookies() );
+			db = dbHelper.getWritableDatabase();
+			Cursor c = db.query( PENDING_CHANGES_TABLE_NAME, entryColumns,
+					"next_attempt<=?", new String[] {""+now}, null, null, "_id" );
+			try {
+				while ( c.moveToNext() ) {
+					entries.add( new long[] { c.getLong(0), c.getLong(1),
+							c.getInt(2), c.getInt(4), c.getInt(5) } );
+					googleIds.add( c.getString(3) );
+				}
+			}
+			finally { c.close(); }
+		}
+		catch ( SQLiteException ex ) {
+			Log.w(TAG, "Error reading change queue", ex);
+			return RemoteSyncTask.RESULT_FAILURE_DB;
+		}
+
+		int result = RemoteSyncTask.RESULT_SUCCESS;
+		long retryAt = -1;
+		try {
+			if ( entries.size() > 0 ) Log.d(TAG, "Pushing " + entries.size() + " changes");
+			/* Sort the due entries into deletes, updates & creates, each sent
+			 * in batches.  There's one entry per bookmark so the order they
+			 * were queued in doesn't matter. */
+			Map<String,long[]> deletes = new LinkedHashMap<String,long[]>();
+			Map<Long,long[]> updates = new LinkedHashMap<Long,long[]>();
+			Map<Long,long[]> creates = new LinkedHashMap<Long,long[]>();
+			List<Bookmark> toUpdate = new ArrayList<Bookmark>();
+			List<Bookmark> toCreate = new ArrayList<Bookmark>();
+			for ( int i=0; i< entries.size(); i++ ) {
+				long[] e = entries.get(i);
+				if ( e[2] == PendingChange.DELETE ) {
+					// a null ID means it was never created remotely
+					if ( googleIds.get(i) != null ) deletes.put( googleIds.get(i), e );
+					else finish( db, e[0], (int)e[2], e[3] );
+					continue;
+				}
+				Bookmark b = load( db, e[1] );
+				if ( b == null ) { // deleted without the queue knowing
+					finish( db, e[0], (int)e[2], e[3] );
+					continue;
+				}
+				if ( PendingChange.isLocalID( b.getGoogleId() ) ) e[2] = PendingChange.CREATE;
+				if ( e[2] == PendingChange.CREATE ) {
+					creates.put( e[1], e );
+					toCreate.add( b );
+				}
+				else {
+					updates.put( e[1], e );
+					toUpdate.add( b );
+				}
+			}
+
+			Map<long[],IOException> failed = new LinkedHashMap<long[],IOException>();
+			if ( deletes.size() > 0 ) {
+				BatchResult<String> sent = remoteSvc.deleteAll( 
+						new ArrayList<String>( deletes.keySet() ), 
+						BookmarksQueryService.DEFAULT_BATCH_SIZE );
+				for ( String id : sent.getCompleted() ) {
+					long[] e = deletes.get(id);
+					finish( db, e[0], (int)e[2], e[3] );
+				}
+				for ( Map.Entry<String,IOException> f : sent.getFailed().entrySet() ) 
+					failed.put( deletes.get( f.getKey() ), f.getValue() );
+				result = failed( sent, failed );
+			}
+			if ( updates.size() > 0 && result == RemoteSyncTask.RESULT_SUCCESS ) {
+				BatchResult<Bookmark> sent = remoteSvc.updateAll( 
+						toUpdate, BookmarksQueryService.DEFAULT_BATCH_SIZE );
+				for ( Bookmark b : sent.getCompleted() ) {
+					long[] e = updates.get( b.get_id() );
+					finish( db, e[0], (int)e[2], e[3] );
+				}
+				for ( Map.Entry<Bookmark,IOException> f : sent.getFailed().entrySet() ) {
+					long[] e = updates.get( f.getKey().get_id() );
+					if ( f.getValue() instanceof NotFoundException ) {
+						// deleted remotely; the next sync will remove it here too
+						Log.w(TAG, "Bookmark " + f.getKey().getGoogleId() + " no longer exists remotely");
+						finish( db, e[0], (int)e[2], e[3] );
+					}
+					else failed.put( e, f.getValue() );
+				}
+				result = failed( sent, failed );
+			}
+			if ( creates.size() > 0 && result == RemoteSyncTask.RESULT_SUCCESS ) {
+				BatchResult<Bookmark> sent = remoteSvc.createAll( 
+						toCreate, BookmarksQueryService.DEFAULT_BATCH_SIZE );
+				for ( Bookmark created : sent.getCompleted() ) {
+					long[] e = creates.get( created.get_id() );
+					try {
+						created( db, e[0], e[1], e[3], created );
+					}
+					catch ( SQLiteException ex ) {
+						Log.w(TAG, "Error saving created bookmark " + e[1], ex);
+						retryLater( db, e[0], (int)e[4], ex, true );
+					}
+				}
+				for ( Map.Entry<Bookmark,IOException> f : sent.getFailed().entrySet() ) 
+					failed.put( creates.get( f.getKey().get_id() ), f.getValue() );
+				result = failed( sent, failed );
+			}
+
+			for ( Map.Entry<long[],IOException> f : failed.entrySet() ) {
+				long[] e = f.getKey();
+				long at = retryLater( db, e[0], (int)e[4], f.getValue(), 
+						! PendingChange.isConnectivityError( f.getValue() ) );
+				if ( at >= 0 && ( retryAt < 0 || at < retryAt ) ) retryAt = at;
+			}
+			if ( retryAt < 0 && result == RemoteSyncTask.RESULT_SUCCESS ) {
+				Cursor c = db.rawQuery( "select min(next_attempt), count(*) from "
+						+ PENDING_CHANGES_TABLE_NAME, null );
+				try {
+					c.moveToFirst();
+					if ( c.getInt(1) > 0 ) retryAt = Math.max( now, c.getLong(0) );
+					else Prefs.edit(ctx).putBoolean(Prefs.PREF_CHANGES_PENDING, false).commit();
+				}
+				finally { c.close(); }
+			}
+		}
+		catch ( AuthException ex ) { // from getting the xt token; nothing was sent
+			Log.d(TAG, "Auth error; leaving changes queued");
+			result = RemoteSyncTask.RESULT_FAILURE_AUTH;
+		}
+		catch ( IOException ex ) {
+			Log.w(TAG, "Error pushing changes", ex);
+			result = RemoteSyncTask.RESULT_FAILURE_UNKNOWN;
+			retryAt = now + PendingChange.MIN_RETRY_DELAY;
+		}
+
+		if ( retryAt >= 0 ) {
+			Log.d(TAG, "Next push at " + retryAt);
+			AlarmManager am = (AlarmManager)ctx.getSystemService(Context.ALARM_SERVICE);
+			am.set( AlarmManager.RTC, retryAt,
+					PendingIntent.getService(ctx, 0, pushIntent(ctx), 0) );
+		}
+		return result;
+	}
+
+	/**
+	 * Stop pushing if a batch couldn't reach the server.  An auth failure 
+	 * leaves its entries queued as they were; anything else is retried 
+	 * later, which the caller does with the <code>failed</code> entries.
+	 * Changes the server rejected don't stop the push.
+	 * @return the push's result so far
+	 */
+	private static int failed( BatchResult<?> sent, Map<long[],IOException> failed ) {
+		if ( sent.isAuthFailed() ) {
+			Log.d(TAG, "Auth error; leaving changes queued");
+			failed.clear();
+			return RemoteSyncTask.RESULT_FAILURE_AUTH;
+		}
+		if ( failed.isEmpty() ) return RemoteSyncTask.RESULT_SUCCESS;
+		for ( IOException ex : failed.values() ) {
+			if ( PendingChange.isConnectivityError( ex ) ) {
+				Log.w(TAG, "Connection error; stopping push", ex);
+				return RemoteSyncTask.RESULT_FAILURE_UNKNOWN;
+			}
+		}
+		Log.w(TAG, failed.size() + " changes rejected: " 
+				+ failed.values().iterator().next() );
+		return RemoteSyncTask.RESULT_SUCCESS;
+	}
+
+	/** Save the google ID of a bookmark that's been created remotely */
+	private static void created( SQLiteDatabase db, long entryID, long bookmarkID,
+			long version, Bookmark created ) {
+		Log.d(TAG, "Created " + created.getGoogleId() + " for bookmark " + bookmarkID );
+		db.beginTransaction();
+		try {
+			ContentValues vals = new ContentValues();
+			vals.put( Bookmark.Columns.GOOGLEID, created.getGoogleId() );
+			vals.put( Bookmark.Columns.THREAD_ID, created.getThreadId() );
+			if ( created.getHost() != null )
+				vals.put( Bookmark.Columns.HOST, created.getHost() );
+			if ( created.getFaviconURL() != null )
+				vals.put( Bookmark.Columns.FAVICON, created.getFaviconURL() );
+			db.update( BOOKMARKS_TABLE_NAME, vals,
+					Bookmark.Columns._ID + "=?", new String[] {""+bookmarkID} );
+			// a delete may have been queued meanwhile
+			vals.clear();
+			vals.put( "google_id", created.getGoogleId() );
+			db.update( PENDING_CHANGES_TABLE_NAME, vals, "_id=?", new String[] {""+entryID} );
+			finish( db, entryID, PendingChange.CREATE, version );
+			db.setTransactionSuccessful();
+		}
+		finally { db.endTransaction(); }
+	}
+
+	/**
+	 * Remove a sent entry, unless it was merged with another edit while it
+	 * was being sent.  If it was a create, what's left is an update.
+	 */
+	private static void finish( SQLiteDatabase db, long entryID, int action, long version ) {
+		int removed = db.delete( PENDING_CHANGES_TABLE_NAME, "_id=? and version=?",
+				new String[] {""+entryID, ""+version} );
+		if ( removed > 0 || action != PendingChange.CREATE ) return;
+		ContentValues vals = new ContentValues();
+		vals.put( "action", PendingChange.UPDATE );
+		db.update( PENDING_CHANGES_TABLE_NAME, vals, "_id=? and action=?",
+				new String[] {""+entryID, ""+PendingChange.CREATE} );
+	}
+
+	/**
+	 * Back off before trying the entry again.
+	 * @param giveUp drop the entry if it has failed too many times
+	 * @return when it should be retried
+	 */
+	private static long retryLater( SQLiteDatabase db, long entryID, int attempts,
+			Exception error, boolean giveUp ) {
+		attempts++;
+		if ( giveUp && attempts >= PendingChange.MAX_ATTEMPTS ) {
+			Log.w(TAG, "Giving up on change " + entryID + " after " + attempts + " attempts");
+			db.delete( PENDING_CHANGES_TABLE_NAME, "_id=?", new String[] {""+entryID} );
+			return -1;
+		}
+		long retryAt = System.currentTimeMillis() + PendingChange.retryDelay( attempts );
+		ContentValues vals = new ContentValues();
+		vals.put( "attempts", attempts );
+		vals.put( "next_attempt", retryAt );
+		vals.put( "last_error", String.valueOf( error ) );
+		db.update( PENDING_CHANGES_TABLE_NAME, vals, "_id=?", new String[] {""+entryID} );
+		return retryAt;
+	}
+
+	private static Bookmark load( SQLiteDatabase db, long bookmarkID ) {
+		Cursor c = db.query( BOOKMARKS_TABLE_NAME, bookmarkColumns,
+				Bookmark.Columns._ID + "=?", new String[] {""+bookmarkID}, null, null, null );
+		try {
+			if ( ! c.moveToFirst() ) return null;
+			Bookmark b = new Bookmark( c.getString(0), c.getString(1), c.getString(2),
+					c.getString(3), c.getString(4), c.getString(5), c.getLong(7), c.getLong(8) );
+			b.set_id( bookmarkID );
+			if ( c.getString(6) != null ) b.parseLabels( c.getString(6) );
+			return b;
+		}
+		finally { c.close(); }
+	}
+
+	private static Intent pushIntent( Context ctx ) {
+		Intent intent = new Intent( ctx, BackgroundService.class );
+		intent.setAction( ACTION_PUSH );
+		return intent;
+	}
+
+	private ChangeQueue() {}
+}
@@ -1,8 +1,11 @@
 package org.thomnichols.android.gmarks;
 
+import java.util.concurrent.Callable;
+
 import android.app.ListActivity;
 import android.content.Intent;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -11,7 +14,7 @@ import android.view.MenuItem;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 
-public class ChooseLabelsActivity extends ListActivity {
+public class ChooseLabelsActivity extends ListActivity implements AsyncQuery.Callbacks {
 	static final String TAG = "GMARKS LABELS MULTI CHOOSER";
 
     private static final String[] PROJECTION = new String[] {
@@ -22,6 +25,8 @@ public class ChooseLabelsActivity extends ListActivity {
     
     public static final String EXTRA_LABEL_IDS = "gmarks.extra.label.ids";
     
+    protected AsyncQuery query;
+    
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -30,17 +35,17 @@ public class ChooseLabelsActivity extends ListActivity {
 		setContentView(R.layout.labels_chooser_view);
         
 		final Intent intent = getIntent();
-        if (intent.getData() == null) intent.setData(Label.CONTENT_URI);
+        if (intent.getData() == null) intent.setData(GmarksProvider.LABELS_CONTENT_URI);
         Log.d(TAG,"Intent URI: " + intent.getData() );
 		
-        Cursor cursor = managedQuery( intent.getData(), PROJECTION, null, null, null );
+        this.query = new AsyncQuery(this);
         
         // Used to map labels from the database to views
-        SimpleCursorAdapter adapter = new SimpleCursorAdapter(
-        		this, android.R.layout.simple_list_item_multiple_choice, cursor,
+        SimpleCursorAdapter adapter = new AsyncQuery.Adapter(
+        		this, android.R.layout.simple_list_item_multiple_choice, null,
                 new String[] { Label.Columns.TITLE }, //, "count(label_id)" }, 
 //                new int[] { R.id.title, R.id.count });
-        		new int[] { android.R.id.text1 });
+        		new int[] { android.R.id.text1 }, query);
 /*        adapter.setStringConversionColumn(1); // used for text filtering
         adapter.setFilterQueryProvider(new FilterQueryProvider() {
 			public Cursor runQuery(CharSequence constraint) {
@@ -53,6 +58,27 @@ public class ChooseLabelsActivity extends ListActivity {
 			}
 		}); */
         setListAdapter(adapter);
+        this.query.start();
+	}
+	
+	public Callable<Cursor> onCreateQuery() {
+		final Uri uri = getIntent().getData();
+		return new Callable<Cursor>() {
+			public Cursor call() {
+				return getContentResolver().query( uri, PROJECTION, null, null, null );
+			}
+		};
+	}
+	
+	public void onQueryComplete(Cursor cursor) {
+		if ( cursor != null ) ((SimpleCursorAdapter)getListAdapter()).changeCursor(cursor);
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		this.query.close();
+		((SimpleCursorAdapter)getListAdapter()).changeCursor(null);
 	}
 	
 	@Override
@@ -0,0 +1,235 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Favicons for the bookmarks list, one per host.  There are two cache
+ * tiers.  Decoded icons are kept in a memory LRU sized from the app's
+ * memory class.  The downloaded bytes are kept in the cache dir for
+ * {@link #TTL}.  The list only reads the memory tier on the UI thread.
+ * Misses are read from disk on one background thread, and downloaded by
+ * at most {@link #FETCH_THREADS} at once, one download per host.
+ * {@link #prefetch(Context)} runs after each sync, so scrolling usually
+ * finds the icons on disk.
+ */
+class FaviconCache {
+	static final String TAG = "GMARKS FAVICONS";
+	/** how long a downloaded icon (or the lack of one) is kept */
+	static final long TTL = 1000L * 60 * 60 * 24 * 7; // 1 week
+	static final int FETCH_THREADS = 3;
+	static final int TIMEOUT = 10000; // ms
+	/** bigger than any sane favicon */
+	static final int MAX_BYTES = 64 * 1024;
+	/** icon size in dip, to match the list item */
+	static final int ICON_SIZE = 16;
+
+	interface Listener {
+		/** Called on the UI thread once an icon that wasn't in memory is loaded */
+		void onIconLoaded( String host, Bitmap icon );
+	}
+
+	private static FaviconCache instance = null;
+
+	/** marks hosts with no icon in the memory tier */
+	private static final Bitmap NONE = Bitmap.createBitmap( 1, 1, Bitmap.Config.ALPHA_8 );
+
+	private final Context ctx;
+	private final Handler handler = new Handler( Looper.getMainLooper() );
+	private final SizedLruCache<String,Bitmap> memory;
+	private final FileCache disk;
+	private final int iconSize;
+	/** where to download each host's icon from, until it's downloaded */
+	private final Map<String,String> urls = new ConcurrentHashMap<String,String>();
+
+	/** reads icons from disk into memory */
+	private final DedupingFetcher<String,Bitmap> reads;
+	/** downloads icons to disk */
+	private final DedupingFetcher<String,byte[]> downloads;
+
+	static synchronized FaviconCache get( Context ctx ) {
+		if ( instance == null ) instance = new FaviconCache( ctx.getApplicationContext() );
+		return instance;
+	}
+
+	private FaviconCache( Context ctx ) {
+		this.ctx = ctx;
+		int memoryClass = ((ActivityManager)ctx.getSystemService(
+				Context.ACTIVITY_SERVICE )).getMemoryClass(); // MB
+		this.memory = new SizedLruCache<String,Bitmap>( memoryClass * 1024 * 1024 / 32 ) {
+			@Override protected int sizeOf( String host, Bitmap icon ) {
+				return icon.getRowBytes() * icon.getHeight();
+			}
+		};
+		this.disk = new FileCache( new File( ctx.getCacheDir(), "favicons" ), TTL );
+		this.iconSize = (int)( ICON_SIZE * ctx.getResources().getDisplayMetrics().density + .5f );
+		
+		this.reads = new DedupingFetcher<String,Bitmap>( Executors.newSingleThreadExecutor() ) {
+			@Override protected Bitmap load( String host ) throws IOException {
+				byte[] data = disk.get( host, System.currentTimeMillis() );
+				Bitmap icon = data != null ? decode( data ) : null;
+				memory.put( host, icon != null ? icon : NONE );
+				return icon;
+			}
+		};
+		this.downloads = new DedupingFetcher<String,byte[]>(
+				Executors.newFixedThreadPool( FETCH_THREADS ) ) {
+			@Override protected byte[] load( String host ) throws IOException {
+				String url = urls.get( host );
+				if ( url == null ) return null;
+				byte[] data = download( url );
+				disk.put( host, data );
+				urls.remove( host );
+				return data;
+			}
+		};
+	}
+
+	/**
+	 * Get a host's icon without blocking.  If it isn't in memory it's read
+	 * from disk, or downloaded, in the background, and the listener is told.
+	 * @param url where to download the icon from if it isn't on disk; may be null
+	 * @return the icon, or null if it's not loaded yet or the host has none
+	 */
+	Bitmap getIcon( final String host, final String url, final Listener listener ) {
+		if ( host == null || host.length() < 1 ) return null;
+		Bitmap icon = memory.get( host );
+		if ( icon != null ) return icon == NONE ? null : icon;
+		memory.put( host, NONE ); // so the row isn't asked for again while loading
+		
+		final DedupingFetcher.Callback<String,Bitmap> loaded = 
+				new DedupingFetcher.Callback<String,Bitmap>() {
+			public void onFetched( final String key, final Bitmap value ) {
+				if ( value == null ) return;
+				handler.post( new Runnable() {
+					public void run() { listener.onIconLoaded( key, value ); }
+				});
+			}
+		};
+		reads.fetch( host, new DedupingFetcher.Callback<String,Bitmap>() {
+			public void onFetched( String key, Bitmap value ) {
+				if ( value != null ) loaded.onFetched( key, value );
+				else if ( url != null && ! disk.contains( key, System.currentTimeMillis() ) )
+					fetch( key, url, loaded );
+			}
+		});
+		return null;
+	}
+
+	/** Download a host's icon, then read it into memory */
+	private void fetch( String host, String url, 
+			final DedupingFetcher.Callback<String,Bitmap> loaded ) {
+		urls.put( host, url );
+		downloads.fetch( host, new DedupingFetcher.Callback<String,byte[]>() {
+			public void onFetched( String key, byte[] data ) {
+				if ( data != null && data.length > 0 ) reads.fetch( key, loaded );
+			}
+		});
+	}
+
+	/**
+	 * Queue downloads for every host without a fresh icon on disk, and
+	 * delete expired icons.  Call after a sync, off the UI thread; returns
+	 * once the downloads are queued.
+	 */
+	static void prefetch( Context ctx ) {
+		FaviconCache cache = get( ctx );
+		long now = System.currentTimeMillis();
+		int evicted = cache.disk.evictExpired( now );
+		Cursor c = ctx.getContentResolver().query( GmarksProvider.BOOKMARKS_CONTENT_URI,
+				new String[] { Bookmark.Columns.HOST, Bookmark.Columns.FAVICON },
+				Bookmark.Columns.FAVICON + " is not null", null, null );
+		if ( c == null ) return;
+		Set<String> hosts = new HashSet<String>();
+		int queued = 0;
+		try {
+			while ( c.moveToNext() ) {
+				String host = c.getString(0);
+				if ( host == null || ! hosts.add( host ) 
+						|| cache.disk.contains( host, now ) ) continue;
+				cache.urls.put( host, c.getString(1) );
+				if ( cache.downloads.fetch( host, null ) ) queued++;
+			}
+		}
+		finally { c.close(); }
+		Log.d(TAG, "Fetching icons for " + queued + " of " + hosts.size() 
+				+ " hosts; evicted " + evicted );
+	}
+
+	/** Drop the memory tier, i.e. when memory is low */
+	static void trimMemory() {
+		if ( instance != null ) instance.memory.clear();
+	}
+
+	/**
+	 * @return the icon, or an empty array if the server says there isn't
+	 * one.  Other failures throw, so they aren't cached.
+	 */
+	private byte[] download( String url ) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection)new URL( url ).openConnection();
+		conn.setConnectTimeout( TIMEOUT );
+		conn.setReadTimeout( TIMEOUT );
+		try {
+			int status = conn.getResponseCode();
+			if ( status >= 400 && status < 500 ) return new byte[0];
+			if ( status != HttpURLConnection.HTTP_OK ) 
+				throw new IOException( "HTTP " + status + " from " + url );
+			InputStream in = conn.getInputStream();
+			try {
+				ByteArrayOutputStream data = new ByteArrayOutputStream( 2048 );
+				byte[] buf = new byte[2048];
+				for ( int n; (n = in.read( buf )) > 0; ) {
+					data.write( buf, 0, n );
+					if ( data.size() > MAX_BYTES ) return new byte[0];
+				}
+				return data.toByteArray();
+			}
+			finally { in.close(); }
+		}
+		finally { conn.disconnect(); }
+	}
+
+	/** @return the icon scaled to fit the list, or null if it can't be decoded */
+	private Bitmap decode( byte[] data ) {
+		if ( data.length < 1 ) return null;
+		Bitmap icon = BitmapFactory.decodeByteArray( data, 0, data.length );
+		if ( icon == null || icon.getWidth() == iconSize && icon.getHeight() == iconSize )
+			return icon;
+		Bitmap scaled = Bitmap.createScaledBitmap( icon, iconSize, iconSize, true );
+		if ( scaled != icon ) icon.recycle();
+		return scaled;
+	}
+}
@@ -0,0 +1,1483 @@
+/* This file is part of GMarks. Copyright 2010, 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.thomnichols.android.gmarks.thirdparty.ArrayUtils;
+
+import android.app.SearchManager;
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.LiveFolders;
+import android.text.TextUtils;
+import android.util.Log;
+
+public class GmarksProvider extends ContentProvider {
+
+	static final String TAG = "GMARKS PROVIDER";
+	static final String DB_NAME = "gmarks_sync.db";
+	static final String COOKIES_TABLE_NAME = "auth_cookies";
+	static final String BOOKMARKS_TABLE_NAME = "bookmarks";
+	static final String LABELS_TABLE_NAME = "labels";
+	static final String BOOKMARK_LABELS_TABLE_NAME = "bookmark_labels";
+	static final String PENDING_CHANGES_TABLE_NAME = "pending_changes";
+	static final String BROWSER_SNAPSHOT_TABLE_NAME = "browser_snapshot";
+	static final String BROWSER_CHANGES_TABLE_NAME = "browser_changes";
+	static final String FTS_TABLE_NAME = BOOKMARKS_TABLE_NAME + "_FTS";
+	
+	public static final Uri BOOKMARKS_CONTENT_URI
+		= Uri.parse( "content://" + Bookmark.AUTHORITY + "/bookmarks" );
+	public static final Uri LABELS_CONTENT_URI
+		= Uri.parse( "content://" + Label.AUTHORITY + "/labels" );
+	public static final Uri BOOKMARK_LISTS_CONTENT_URI
+		= Uri.parse( "content://" + Bookmark.AUTHORITY + "/bookmark_lists" );
+	/** One row per sync, most recent first.  See {@link SyncStats}. */
+	public static final Uri SYNC_STATS_CONTENT_URI
+		= Uri.parse( "content://" + Bookmark.AUTHORITY + "/sync_stats" );
+	
+	/** Number of syncs kept in the stats table */
+	static final int SYNC_STATS_HISTORY = 50;
+	
+	/** 
+	 * Query parameters for reading bookmarks or search results a page at a
+	 * time.  Pass a limit, and for every page after the first, the sort 
+	 * column and _id of the last row of the previous page.  See 
+	 * {@link #paginate(SQLiteQueryBuilder, Uri, String, boolean)}.
+	 */
+	static final String PARAM_LIMIT = "limit";
+	static final String PARAM_AFTER_ID = "after_id";
+	static final String PARAM_AFTER_MODIFIED = "after_modified";
+	static final String PARAM_AFTER_TITLE = "after_title";
+	
+    private static final Map<String, String> bookmarksProjectionMap;
+    private static final Map<String, String> labelsProjectionMap;
+    private static final Map<String, String> listsProjectionMap;
+    private static final Map<String, String> sLiveFolderProjectionMap;
+    private static final Map<String, String> searchSuggestProjectionMap;
+
+    private static final int BOOKMARKS_URI = 1;
+    private static final int BOOKMARK_ID_URI = 2;
+    private static final int LABELS_URI = 3;
+//    private static final int LABELS_ID_URI = 4;
+    private static final int LIVE_FOLDER_BOOKMARKS_URI = 5;
+    private static final int BOOKMARK_SEARCH_URI = 6;
+    private static final int BOOKMARK_SEARCH_SUGGEST_URI = 7;
+    private static final int BOOKMARK_LISTS_URI = 8;
+    private static final int BOOKMARK_LISTS_ID_URI = 9;
+    private static final int SYNC_STATS_URI = 10;
+
+    private static final UriMatcher sUriMatcher;
+
+    private DatabaseHelper dbHelper = null;
+	
+    @Override
+    public boolean onCreate() {
+    	dbHelper = DatabaseHelper.get(getContext());
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, 
+    		String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+
+//        Log.d(TAG, "Managed query: " + uri);
+        String groupBy = null;
+        String orderBy = null;
+        String limit = null;
+        switch (sUriMatcher.match(uri)) {
+        case BOOKMARKS_URI:
+            qb.setTables(BOOKMARKS_TABLE_NAME);
+            qb.setProjectionMap(bookmarksProjectionMap);
+            
+            String labelID = uri.getQueryParameter("label_id");
+            if ( labelID != null ) {
+                qb.setTables(Clauses.LABEL_JOIN_TABLES);
+                qb.appendWhere(Clauses.LABEL_JOIN_WHERE);
+                selectionArgs = (String[])ArrayUtils.addAll(selectionArgs, new String[]{labelID});
+            }
+            if ( uri.getQueryParameter(PARAM_LIMIT) != null ) {
+            	limit = parseLimit(uri);
+            	sortOrder = paginate(qb, uri, sortOrder, labelID != null);
+            }
+            break;
+
+        case BOOKMARK_SEARCH_URI:
+        case BOOKMARK_SEARCH_SUGGEST_URI:
+        	String query = null;
+        	if (sUriMatcher.match(uri) == BOOKMARK_SEARCH_SUGGEST_URI ) {
+        		qb.setProjectionMap(searchSuggestProjectionMap);
+	        	// path looks like "search_suggest_query/[query]?limit=50
+        		query = prefixQuery(uri.getLastPathSegment());
+                limit = uri.getQueryParameter("limit");
+                if ( sortOrder == null ) sortOrder = Bookmark.Columns.SORT_MODIFIED;
+        	}            
+            else query = uri.getQueryParameter("q");
+        	
+            if ( query != null ) {
+            	// the FTS table may have the same column names as bookmarks
+            	qb.setTables(BOOKMARKS_TABLE_NAME);
+            	qb.appendWhere(Clauses.SEARCH_WHERE);
+            	if ( selectionArgs == null ) selectionArgs = new String[]{query};
+            	else selectionArgs = (String[])ArrayUtils.addAll(selectionArgs, new String[]{query});
+            }
+            else if ( selectionArgs == null || selectionArgs.length < 1 )
+            	throw new IllegalArgumentException("No search criteria given for query!");
+            if ( uri.getQueryParameter(PARAM_LIMIT) != null ) {
+            	limit = parseLimit(uri);
+            	sortOrder = paginate(qb, uri, sortOrder, query != null);
+            }
+            break;
+            
+        case BOOKMARK_ID_URI:
+            qb.setTables(BOOKMARKS_TABLE_NAME);
+            qb.setProjectionMap(bookmarksProjectionMap);
+            qb.appendWhere(Bookmark.Columns._ID + "=" + uri.getPathSegments().get(1));
+            break;
+
+        case LABELS_URI:
+            // counts are kept by triggers on bookmark_labels; see labelCountTriggers
+            qb.setTables(LABELS_TABLE_NAME);
+            qb.appendWhere(Clauses.LABELS_WHERE);
+            if ( sortOrder == null ) sortOrder = Label.Columns.DEFAULT_SORT_ORDER;
+            qb.setProjectionMap(labelsProjectionMap);
+            break;
+
+        case LIVE_FOLDER_BOOKMARKS_URI:
+            qb.setTables(BOOKMARKS_TABLE_NAME);
+            qb.setProjectionMap(sLiveFolderProjectionMap);
+            String labelId = uri.getQueryParameter("label_id");
+            if ( labelId != null ) {
+                qb.setTables(Clauses.LABEL_JOIN_TABLES);
+                qb.appendWhere(Clauses.LABEL_JOIN_WHERE);
+                selectionArgs = (String[])ArrayUtils.addAll(selectionArgs, new String[]{labelId});
+            }
+            sortOrder = "modified DESC"; // for some reason this gets set to 'name ASC'
+            break;
+            
+        case BOOKMARK_LISTS_URI:
+        	qb.setTables(BookmarkList.TABLE_NAME);
+        	qb.setProjectionMap(listsProjectionMap);
+        	if ( sortOrder == null ) sortOrder = BookmarkList.Columns.DEFAULT_SORT_ORDER;
+        	String listsWhere = Clauses.listsWhere(uri.getQueryParameter(BookmarkList.PARAM_CATEGORY));
+        	if ( listsWhere != null ) qb.appendWhere(listsWhere);
+        	break;
+        	
+        case SYNC_STATS_URI:
+        	qb.setTables(SyncStats.TABLE_NAME);
+        	if ( sortOrder == null ) sortOrder = SyncStats.Columns.DEFAULT_SORT_ORDER;
+        	break;
+
+        default:
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        // If no sort order is specified use the default
+        if (TextUtils.isEmpty(sortOrder)) {
+            orderBy = Bookmark.Columns.DEFAULT_SORT_ORDER;
+        } else {
+            orderBy = sortOrder;
+        }
+
+        // Get the database and run the query
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor c = qb.query(db, projection, selection, selectionArgs, groupBy, null, orderBy, limit);
+
+        // Tell the cursor what uri to watch, so it knows when its source data changes
+        c.setNotificationUri(getContext().getContentResolver(), uri);
+        return c;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues initialValues) {
+        // Validate the requested uri
+        if (sUriMatcher.match(uri) != BOOKMARKS_URI) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Batch batch = startBatch();
+        LabelCache labels = null;
+        long rowId;
+        db.beginTransaction();
+        try {
+        	labels = new LabelCache(db, false);
+        	rowId = insertBookmark(db, initialValues, labels, batch);
+        	db.setTransactionSuccessful();
+        }
+        finally {
+        	if ( labels != null ) labels.close();
+        	db.endTransaction();
+        	endBatch(batch);
+        }
+        return ContentUris.withAppendedId(BOOKMARKS_CONTENT_URI, rowId);
+    }
+
+    /**
+     * Insert all of the bookmarks in one transaction, with a single change
+     * notification.  Same rules as {@link #insert(Uri, ContentValues)}.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) != BOOKMARKS_URI) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Batch batch = startBatch();
+        LabelCache labels = null;
+        db.beginTransaction();
+        try {
+        	labels = new LabelCache(db, values.length > 1);
+        	for ( ContentValues row : values ) insertBookmark(db, row, labels, batch);
+        	db.setTransactionSuccessful();
+        }
+        finally {
+        	if ( labels != null ) labels.close();
+        	db.endTransaction();
+        	endBatch(batch);
+        }
+        Log.d(TAG, "Inserted " + values.length + " bookmarks");
+        return values.length;
+    }
+
+    /**
+     * Apply every operation in one transaction; if one fails, none of them
+     * are applied.  Observers get one notification per URI afterwards, 
+     * rather than one per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) 
+    		throws OperationApplicationException {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Batch batch = startBatch();
+        db.beginTransaction();
+        try {
+        	ContentProviderResult[] results = super.applyBatch(operations);
+        	db.setTransactionSuccessful();
+        	return results;
+        }
+        finally {
+        	db.endTransaction();
+        	endBatch(batch);
+        }
+    }
+
+    /**
+     * Insert a bookmark along with its full text search row and label 
+     * links.  The labels column is a comma separated list.  Like updates 
+     * and deletes, it isn't sent to the server; the app's own edits are 
+     * queued by {@link UpdateBookmarkTask} & {@link BulkEditTask}.
+     * @return the new row ID
+     */
+    private long insertBookmark(SQLiteDatabase db, ContentValues initialValues, 
+    		LabelCache labels, Batch batch) {
+        ContentValues values;
+        if (initialValues != null) {
+            values = new ContentValues(initialValues);
+        } else {
+            values = new ContentValues();
+        }
+
+        Long now = Long.valueOf(System.currentTimeMillis());
+
+        // Make sure that the fields are all set
+        String url = values.getAsString(Bookmark.Columns.URL);
+        if ( url == null ) throw new IllegalArgumentException("No URL given");
+        
+        if (values.containsKey(Bookmark.Columns.CREATED_DATE) == false) {
+            values.put(Bookmark.Columns.CREATED_DATE, now);
+        }
+
+        if (values.containsKey(Bookmark.Columns.MODIFIED_DATE) == false) {
+            values.put(Bookmark.Columns.MODIFIED_DATE, now);
+        }
+
+        if (values.containsKey(Bookmark.Columns.TITLE) == false) {
+            Resources r = Resources.getSystem();
+            values.put(Bookmark.Columns.TITLE, r.getString(android.R.string.untitled));
+        }
+
+        if (values.containsKey(Bookmark.Columns.DESCRIPTION) == false) {
+            values.put(Bookmark.Columns.DESCRIPTION, "");
+        }
+        
+        if (values.containsKey(Bookmark.Columns.HOST) == false) {
+        	String host = Uri.parse(url).getHost();
+            values.put(Bookmark.Columns.HOST, host != null ? host : url);
+        }
+
+        if (values.containsKey(Bookmark.Columns.THREAD_ID) == false) {
+            values.put(Bookmark.Columns.THREAD_ID, "");
+        }
+
+        if (values.containsKey(Bookmark.Columns.LABELS) == false) {
+            values.put(Bookmark.Columns.LABELS, "");
+        }
+        
+        // let the next sync rewrite it
+        values.put(Bookmark.Columns.CONTENT_HASH, ContentFingerprint.UNKNOWN);
+        
+        long rowId = db.insert(BOOKMARKS_TABLE_NAME, "", values);
+        if (rowId < 0) throw new SQLException("Failed to insert row into " + BOOKMARKS_CONTENT_URI);
+
+        Bookmark b = new Bookmark( values.getAsString(Bookmark.Columns.GOOGLEID), 
+        		values.getAsString(Bookmark.Columns.THREAD_ID),
+        		values.getAsString(Bookmark.Columns.TITLE), url, 
+        		values.getAsString(Bookmark.Columns.HOST),
+        		values.getAsString(Bookmark.Columns.DESCRIPTION),
+        		values.getAsLong(Bookmark.Columns.CREATED_DATE),
+        		values.getAsLong(Bookmark.Columns.MODIFIED_DATE) );
+        b.set_id(rowId);
+        b.parseLabels(values.getAsString(Bookmark.Columns.LABELS));
+        labels.updateLinks(b, true);
+        writeFTS(db, b, true);
+
+        batch.changed.add(BOOKMARKS_CONTENT_URI);
+        batch.changed.add(LABELS_CONTENT_URI);
+        return rowId;
+    }
+
+    /**
+     * Deleting bookmarks also deletes their label links and full text 
+     * search rows.  It doesn't delete them remotely.
+     */
+    @Override
+    public int delete(Uri uri, String where, String[] whereArgs) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        switch (sUriMatcher.match(uri)) {
+        case BOOKMARKS_URI:
+            break;
+
+        case BOOKMARK_ID_URI:
+            String noteId = uri.getPathSegments().get(1);
+            where = Bookmark.Columns._ID + "=" + noteId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : "");
+            break;
+
+        default:
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        Batch batch = startBatch();
+        int count = 0;
+        db.beginTransaction();
+        try {
+        	for ( long id : selectIDs(db, where, whereArgs) ) {
+        		try {
+        			if ( dbHelper.deleteBookmark(id, db) ) count++;
+        		}
+        		catch ( DBException ex ) { throw new SQLException(ex.getMessage()); }
+        	}
+        	db.setTransactionSuccessful();
+        }
+        finally {
+        	db.endTransaction();
+        	batch.changed.add(BOOKMARKS_CONTENT_URI);
+        	if ( count > 0 ) batch.changed.add(LABELS_CONTENT_URI);
+        	endBatch(batch);
+        }
+        return count;
+    }
+
+    /**
+     * Changes to the title, host, description or labels are copied to the
+     * full text search rows, and label changes to the label links.  They
+     * aren't sent to the server.
+     */
+    @Override
+    public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        switch (sUriMatcher.match(uri)) {
+        case BOOKMARKS_URI:
+            break;
+
+        case BOOKMARK_ID_URI:
+            String noteId = uri.getPathSegments().get(1);
+            where = Bookmark.Columns._ID + "=" + noteId
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : "");
+            break;
+
+        default:
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        boolean labelsChanged = values.containsKey(Bookmark.Columns.LABELS);
+        boolean ftsChanged = labelsChanged 
+        	|| values.containsKey(Bookmark.Columns.TITLE)
+        	|| values.containsKey(Bookmark.Columns.HOST)
+        	|| values.containsKey(Bookmark.Columns.DESCRIPTION);
+        Batch batch = startBatch();
+        LabelCache labels = null;
+        int count;
+        db.beginTransaction();
+        try {
+        	long[] ids = selectIDs(db, where, whereArgs);
+        	count = db.update(BOOKMARKS_TABLE_NAME, values, where, whereArgs);
+        	if ( ftsChanged && ids.length > 0 ) {
+        		if ( labelsChanged ) labels = new LabelCache(db, ids.length > 1);
+        		for ( long id : ids ) {
+        			Bookmark b = loadIndexed(db, id);
+        			if ( b == null ) continue;
+        			if ( labels != null ) labels.updateLinks(b, false);
+        			writeFTS(db, b, false);
+        		}
+        	}
+        	db.setTransactionSuccessful();
+        }
+        finally {
+        	if ( labels != null ) labels.close();
+        	db.endTransaction();
+        	batch.changed.add(BOOKMARKS_CONTENT_URI);
+        	if ( labelsChanged ) batch.changed.add(LABELS_CONTENT_URI);
+        	endBatch(batch);
+        }
+        return count;
+    }
+
+    private long[] selectIDs(SQLiteDatabase db, String where, String[] whereArgs) {
+    	Cursor c = db.query(BOOKMARKS_TABLE_NAME, new String[] {Bookmark.Columns._ID}, 
+    			where, whereArgs, null, null, null);
+    	try {
+    		long[] ids = new long[c.getCount()];
+    		for ( int i=0; c.moveToNext(); i++ ) ids[i] = c.getLong(0);
+    		return ids;
+    	}
+    	finally { c.close(); }
+    }
+
+    /** @return the fields that are indexed for full text search, and the labels */
+    private Bookmark loadIndexed(SQLiteDatabase db, long id) {
+    	Cursor c = db.query(BOOKMARKS_TABLE_NAME, new String[] { Bookmark.Columns.TITLE,
+    			Bookmark.Columns.HOST, Bookmark.Columns.DESCRIPTION, Bookmark.Columns.LABELS },
+    			Bookmark.Columns._ID + "=?", new String[] {""+id}, null, null, null);
+    	try {
+    		if ( ! c.moveToFirst() ) return null;
+    		Bookmark b = new Bookmark(null, null, c.getString(0), null, c.getString(1), 
+    				c.getString(2), 0, 0);
+    		b.set_id(id);
+    		if ( c.getString(3) != null ) b.parseLabels(c.getString(3));
+    		return b;
+    	}
+    	finally { c.close(); }
+    }
+
+    private static String parseLimit(Uri uri) {
+    	try { return String.valueOf(Integer.parseInt(uri.getQueryParameter(PARAM_LIMIT))); }
+    	catch ( NumberFormatException ex ) {
+    		throw new IllegalArgumentException("Bad limit in " + uri);
+    	}
+    }
+    
+    /**
+     * Keyset pagination for the two bookmark sorts.  Rows are ordered by the
+     * sort column and then by _id, so each has a unique place, and the 
+     * after_ parameters start the page just past the last row already 
+     * read.  Each page is then a range scan of the sort column's index, 
+     * where an OFFSET would have to step over every row before it.  See
+     * {@link Clauses#pageWhere(String, String, String, String)}.
+     * @param hasWhere true if a where clause has already been appended
+     * @return the order by clause to use
+     */
+    private static String paginate(SQLiteQueryBuilder qb, Uri uri, String sortOrder,
+    		boolean hasWhere) {
+    	String where;
+    	try {
+    		where = Clauses.pageWhere(sortOrder, uri.getQueryParameter(PARAM_AFTER_ID),
+    				uri.getQueryParameter(PARAM_AFTER_TITLE),
+    				uri.getQueryParameter(PARAM_AFTER_MODIFIED));
+    	}
+    	catch ( NumberFormatException ex ) {
+    		throw new IllegalArgumentException("Bad page position in " + uri);
+    	}
+    	if ( where != null ) qb.appendWhere( hasWhere ? " AND " + where : where );
+    	return Clauses.pageOrder(sortOrder);
+    }
+
+    /**
+     * Make the last word of a type-ahead query match as a prefix, so "andr"
+     * finds "android".  Queries that already use FTS syntax are left alone.
+     */
+    static String prefixQuery(String query) {
+    	if ( query == null ) return null;
+    	query = query.trim();
+    	if ( query.length() < 1 ) return null;
+    	char last = query.charAt(query.length()-1);
+    	if ( ! Character.isLetterOrDigit(last) ) return query;
+    	return query + "*";
+    }
+
+    private void writeFTS(SQLiteDatabase db, Bookmark b, boolean isNew) {
+    	if ( DatabaseHelper.hasFTSTriggers() ) return;
+    	ContentValues vals = new ContentValues();
+    	vals.put(Bookmark.Columns.TITLE+"_fts", b.getTitle());
+    	vals.put(Bookmark.Columns.HOST+"_fts", b.getHost());
+    	vals.put(Bookmark.Columns.DESCRIPTION+"_fts", b.getDescription());
+    	vals.put(Bookmark.Columns.LABELS+"_fts", b.getAllLabels());
+    	if ( isNew ) {
+    		vals.put("docid", b.get_id());
+    		db.insert(FTS_TABLE_NAME, "", vals);
+    	}
+    	else db.update(FTS_TABLE_NAME, vals, 
+    			"docid=?", new String[] { ""+b.get_id() });
+    }
+
+    /**
+     * Pieces of the SQL built by {@link GmarksProvider#query(Uri, String[], String, String[], String)}.
+     * Kept apart from the provider, which can't be loaded off the device, 
+     * so QueryPlanTest can check the same statements.
+     */
+    static final class Clauses {
+    	static final String LABEL_JOIN_TABLES = BOOKMARKS_TABLE_NAME + " join " 
+    		+ BOOKMARK_LABELS_TABLE_NAME + " on bookmarks._id = bookmark_labels.bookmark_id";
+    	static final String LABEL_JOIN_WHERE = "bookmark_labels.label_id=?";
+    	static final String SEARCH_WHERE = Bookmark.Columns._ID + " in (select docid from " 
+    		+ FTS_TABLE_NAME + " where " + FTS_TABLE_NAME + " MATCH ?)";
+    	static final String LABELS_WHERE = Label.Columns.COUNT + ">0";
+    	
+    	private Clauses() {}
+    	
+    	/** @return the where clause for a category of lists, or null for all */
+    	static String listsWhere(String category) {
+    		if ( BookmarkList.LISTS_PRIVATE.equals(category) ) return "owned=1";
+    		if ( BookmarkList.LISTS_SHARED.equals(category) ) return "shared=1";
+    		if ( BookmarkList.LISTS_PUBLIC.equals(category) ) return "publshed=1";
+    		return null;
+    	}
+    	
+    	/**
+    	 * The where clause that starts a page just after the given row.  The 
+    	 * plain <code>&lt;=</code> or <code>&gt;=</code> bound is redundant, but
+    	 * older SQLite won't turn the OR alone into an index range.
+    	 * @return null for the first page, or for a sort that isn't paged
+    	 * @throws NumberFormatException if the ID or modified time isn't a number
+    	 */
+    	static String pageWhere(String sortOrder, String afterID, String afterTitle,
+    			String afterModified) {
+    		if ( afterID == null ) return null;
+    		String id = BOOKMARKS_TABLE_NAME + "." + Bookmark.Columns._ID;
+    		if ( Bookmark.Columns.SORT_TITLE.equals(sortOrder) ) {
+    			if ( afterTitle == null ) return null;
+    			String title = quote(afterTitle);
+    			return "(" + Bookmark.Columns.TITLE + " >= " + title + " AND ("
+    				+ Bookmark.Columns.TITLE + " > " + title + " OR (" 
+    				+ Bookmark.Columns.TITLE + " = " + title + " AND " 
+    				+ id + " > " + Long.parseLong(afterID) + ")))";
+    		}
+    		if ( isModifiedSort(sortOrder) ) {
+    			if ( afterModified == null ) return null;
+    			long after = Long.parseLong(afterModified);
+    			return "(" + Bookmark.Columns.MODIFIED_DATE + " <= " + after + " AND ("
+    				+ Bookmark.Columns.MODIFIED_DATE + " < " + after + " OR (" 
+    				+ Bookmark.Columns.MODIFIED_DATE + " = " + after + " AND "
+    				+ id + " > " + Long.parseLong(afterID) + ")))";
+    		}
+    		return null;
+    	}
+    	
+    	/** @return the order by clause for a paged query, with _id to break ties */
+    	static String pageOrder(String sortOrder) {
+    		String id = BOOKMARKS_TABLE_NAME + "." + Bookmark.Columns._ID;
+    		if ( Bookmark.Columns.SORT_TITLE.equals(sortOrder) )
+    			return Bookmark.Columns.SORT_TITLE + ", " + id + " ASC";
+    		// the modified index keeps ties in _id order
+    		if ( isModifiedSort(sortOrder) )
+    			return Bookmark.Columns.SORT_MODIFIED + ", " + id + " ASC";
+    		return sortOrder;
+    	}
+    	
+    	private static boolean isModifiedSort(String sortOrder) {
+    		return sortOrder == null || sortOrder.length() < 1 
+    			|| Bookmark.Columns.SORT_MODIFIED.equals(sortOrder);
+    	}
+    	
+    	/** Same as DatabaseUtils.sqlEscapeString, but usable off the device */
+    	private static String quote(String value) {
+    		return "'" + value.replace("'", "''") + "'";
+    	}
+    }
+
+    /** 
+     * What's changed by the outermost insert, update, delete or batch 
+     * running on this thread, to be announced when it's finished.
+     */
+    private static final class Batch {
+    	final Set<Uri> changed = new LinkedHashSet<Uri>();
+    	int depth = 0;
+    }
+
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
+
+    /** @return the batch in progress on this thread, or a new one */
+    private Batch startBatch() {
+    	Batch batch = currentBatch.get();
+    	if ( batch == null ) {
+    		batch = new Batch();
+    		currentBatch.set(batch);
+    	}
+    	batch.depth++;
+    	return batch;
+    }
+
+    /**
+     * If this is the outermost batch, notify observers of each changed URI once.
+     */
+    private void endBatch(Batch batch) {
+    	if ( --batch.depth > 0 ) return; // not finished yet
+    	currentBatch.remove();
+    	for ( Uri uri : batch.changed )
+    		getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+        case BOOKMARKS_URI:
+        case LIVE_FOLDER_BOOKMARKS_URI:
+            return Bookmark.CONTENT_TYPE;
+        case BOOKMARK_ID_URI:
+            return Bookmark.CONTENT_ITEM_TYPE;
+        case LABELS_URI:
+        	return Label.CONTENT_TYPE;
+        case BOOKMARK_LISTS_URI:
+        	return BookmarkList.CONTENT_TYPE;
+        case BOOKMARK_LISTS_ID_URI:
+        	return BookmarkList.CONTENT_ITEM_TYPE;
+        case SYNC_STATS_URI:
+        	return SyncStats.CONTENT_TYPE;
+        default:
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+    }
+
+    static {
+        sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "bookmarks", BOOKMARKS_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "bookmarks/search", BOOKMARK_SEARCH_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "bookmarks/#", BOOKMARK_ID_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "labels", LABELS_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "live_folders/bookmarks", LIVE_FOLDER_BOOKMARKS_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "bookmark_lists", BOOKMARK_LISTS_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "bookmark_lists/#", BOOKMARK_LISTS_ID_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, "sync_stats", SYNC_STATS_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", 
+        		BOOKMARK_SEARCH_SUGGEST_URI);
+        sUriMatcher.addURI(Bookmark.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, 
+        		BOOKMARK_SEARCH_SUGGEST_URI);
+
+        bookmarksProjectionMap = new HashMap<String, String>();
+        bookmarksProjectionMap.put(Bookmark.Columns._ID, Bookmark.Columns._ID);
+        bookmarksProjectionMap.put(Bookmark.Columns.GOOGLEID, Bookmark.Columns.GOOGLEID);
+        bookmarksProjectionMap.put(Bookmark.Columns.THREAD_ID, Bookmark.Columns.THREAD_ID);
+        bookmarksProjectionMap.put(Bookmark.Columns.TITLE, Bookmark.Columns.TITLE);
+        bookmarksProjectionMap.put(Bookmark.Columns.HOST, Bookmark.Columns.HOST);
+        bookmarksProjectionMap.put(Bookmark.Columns.URL, Bookmark.Columns.URL);
+        bookmarksProjectionMap.put(Bookmark.Columns.DESCRIPTION, Bookmark.Columns.DESCRIPTION);
+        bookmarksProjectionMap.put(Bookmark.Columns.LABELS, Bookmark.Columns.LABELS);
+        bookmarksProjectionMap.put(Bookmark.Columns.CREATED_DATE, Bookmark.Columns.CREATED_DATE);
+        bookmarksProjectionMap.put(Bookmark.Columns.MODIFIED_DATE, Bookmark.Columns.MODIFIED_DATE);
+        bookmarksProjectionMap.put(Bookmark.Columns.FAVICON, Bookmark.Columns.FAVICON);
+        
+        labelsProjectionMap = new HashMap<String, String>();
+        labelsProjectionMap.put(Label.Columns._ID, Label.Columns._ID);
+        labelsProjectionMap.put(Label.Columns.TITLE, Label.Columns.TITLE);
+        labelsProjectionMap.put(Label.Columns.COUNT, Label.Columns.COUNT);
+
+        listsProjectionMap = new HashMap<String,String>();
+        listsProjectionMap.put(BookmarkList.Columns._ID, BookmarkList.Columns._ID);
+        listsProjectionMap.put(BookmarkList.Columns.THREAD_ID, BookmarkList.Columns.THREAD_ID);
+        listsProjectionMap.put(BookmarkList.Columns.TITLE, BookmarkList.Columns.TITLE);
+        listsProjectionMap.put(BookmarkList.Columns.DESCRIPTION, BookmarkList.Columns.DESCRIPTION);
+        
+        // Support for Live Folders.
+        sLiveFolderProjectionMap = new HashMap<String, String>();
+        sLiveFolderProjectionMap.put(LiveFolders._ID, 
+        		Bookmark.Columns._ID + " AS " + LiveFolders._ID);
+        sLiveFolderProjectionMap.put(LiveFolders.NAME, 
+        		Bookmark.Columns.TITLE + " AS " + LiveFolders.NAME);
+        sLiveFolderProjectionMap.put(LiveFolders.DESCRIPTION, 
+        		Bookmark.Columns.HOST + " AS " + LiveFolders.DESCRIPTION);
+        
+        searchSuggestProjectionMap = new HashMap<String, String>();
+        searchSuggestProjectionMap.put(Bookmark.Columns._ID, Bookmark.Columns._ID );
+        searchSuggestProjectionMap.put(SearchManager.SUGGEST_COLUMN_TEXT_1, 
+        		Bookmark.Columns.TITLE + " as " + SearchManager.SUGGEST_COLUMN_TEXT_1 );
+        searchSuggestProjectionMap.put(SearchManager.SUGGEST_COLUMN_TEXT_2, 
+        		Bookmark.Columns.HOST + " as " + SearchManager.SUGGEST_COLUMN_TEXT_2 );
+        searchSuggestProjectionMap.put(SearchManager.SUGGEST_COLUMN_INTENT_DATA, 
+        		Bookmark.Columns.URL + " as " + SearchManager.SUGGEST_COLUMN_INTENT_DATA );
+    }
+    
+    public static class DBException extends Exception {
+		private static final long serialVersionUID = 1L;
+		public DBException() { super(); }
+		public DBException(String arg0, Throwable arg1) { super(arg0, arg1); }
+		public DBException(String arg0) { super(arg0); }
+		public DBException(Throwable arg0) { super(arg0); }
+    }
+    
+	/**
+	 * Owns the app's one database connection, shared by the provider and
+	 * the background tasks for the life of the process: get it with 
+	 * {@link #get(Context)} and don't close it, or the database.  Sharing one
+	 * connection means a sync can't lock anyone else out; where the device 
+	 * supports write-ahead logging, readers don't wait on its writes either.
+	 */
+	public static class DatabaseHelper extends SQLiteOpenHelper {
+		static final int DB_VERSION = 11;
+		
+		private static DatabaseHelper instance = null;
+		
+		public static synchronized DatabaseHelper get( Context ctx ) {
+			if ( instance == null ) 
+				instance = new DatabaseHelper( ctx.getApplicationContext() );
+			return instance;
+		}
+		
+		private DatabaseHelper( Context ctx ) {
+			super(ctx, DB_NAME, null, DB_VERSION );
+		}
+		
+		/** Does nothing; the connection stays open for everyone else */
+		@Override
+		public synchronized void close() {}
+		
+		static final String[] cookieColumns = { 
+			"name", "value", "domain", "path", "expires", "secure"
+		};
+		
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			for ( String sql : schema( supportsFTS4(db) ) ) db.execSQL( sql );
+		}
+		
+		/** 
+		 * @return the statements that create the current schema, in order.  
+		 * Doesn't need a database, so tests can check the schema elsewhere.
+		 * @param fts4 use an FTS4 index kept by triggers, rather than FTS3
+		 */
+		static List<String> schema( boolean fts4 ) {
+			List<String> sql = new ArrayList<String>();
+			sql.add("create table " + COOKIES_TABLE_NAME + " ( "
+					+ "name varchar(50) not null primary key,"
+					+ "value varchar(50) not null,"
+					+ "domain varchar(100),"
+					+ "path varchar(100),"
+					+ "expires long,"
+					+ "secure tinyint default 1 )" );
+			
+			sql.add("create table " + BOOKMARKS_TABLE_NAME + " ( "
+					+ "_id integer primary key,"
+					+ "google_id varchar(50) not null unique,"
+					+ "thread_id varchar(20) not null,"
+					+ "title varchar(50) not null,"
+					+ "url varchar(200) not null,"
+					+ "host varchar(50) not null,"
+					+ "favicon_url varchar(100) default null,"
+					+ "description varchar(150) not null default ''," 
+					+ "labels varchar(150) not null default '',"
+					+ "created long not null,"
+					+ "modified long not null,"
+					+ "sync_gen integer not null default 0,"
+					+ "content_hash integer not null default 0 )" );
+
+			if ( fts4 ) {
+				sql.add( FTS4_TABLE );
+				Collections.addAll( sql, ftsTriggers() );
+			}
+			else sql.add( FTS3_TABLE );
+			
+			sql.add("create index idx_" + BOOKMARKS_TABLE_NAME + "_url on "
+					+ BOOKMARKS_TABLE_NAME + "(url asc)" );
+
+			sql.add( "create table " + LABELS_TABLE_NAME + " ( "
+					+ "_id integer primary key,"
+					+ "label varchar(30) unique not null collate nocase,"
+					+ "_count int not null default 0 )" );
+			
+			sql.add( "create table " + BOOKMARK_LABELS_TABLE_NAME + " ( "
+					+ "label_id integer not null"
+					+ " references labels(_id) on delete cascade,"
+					+ "bookmark_id integer not null" 
+				    + " references bookmarks(_id) on delete cascade )" );
+			
+			sql.add( "create unique index idx_bookmarks_labels_ref on "
+					+ BOOKMARK_LABELS_TABLE_NAME + " ( label_id, bookmark_id )" );
+			
+			sql.add("create table " + BookmarkList.TABLE_NAME + " ( "
+					+ "_id integer primary key,"
+					+ "google_id varchar(50) not null unique,"
+					+ "thread_id varchar(20) not null,"
+					+ "title varchar(50) not null,"
+					+ "description varchar(150) not null default ''," 
+					+ "created long not null,"
+					+ "modified long not null,"
+					+ "owned tinyint not null default 0,"
+					+ "shared tinyint not null default 0,"
+					+ "published tinyint not null default 0 )" );
+			
+			sql.add( syncStatsTable() );
+			sql.add( pendingChangesTable() );
+			Collections.addAll( sql, browserChangeTables() );
+			Collections.addAll( sql, labelCountTriggers() );
+			Collections.addAll( sql, QUERY_INDEXES );
+			return sql;
+		}
+		
+		/**
+		 * Indexes for the provider's common queries and for the statements
+		 * run on every bookmark write.  See QueryPlanTest.
+		 */
+		static final String[] QUERY_INDEXES = {
+			// label links are replaced by bookmark ID on every update & delete
+			"create index idx_bookmark_labels_bookmark on " + BOOKMARK_LABELS_TABLE_NAME
+				+ " ( bookmark_id, label_id )",
+			// the bookmarks list sorts
+			"create index idx_" + BOOKMARKS_TABLE_NAME + "_modified on "
+				+ BOOKMARKS_TABLE_NAME + " ( modified desc )",
+			"create index idx_" + BOOKMARKS_TABLE_NAME + "_title on "
+				+ BOOKMARKS_TABLE_NAME + " ( title asc )",
+			// ListsSync looks lists up by thread, and the lists screen sorts by date
+			"create index idx_" + BookmarkList.TABLE_NAME + "_thread on "
+				+ BookmarkList.TABLE_NAME + " ( thread_id )",
+			"create index idx_" + BookmarkList.TABLE_NAME + "_modified on "
+				+ BookmarkList.TABLE_NAME + " ( modified desc )",
+			"create index idx_" + SyncStats.TABLE_NAME + "_started on "
+				+ SyncStats.TABLE_NAME + " ( started desc )" };
+		
+		/** Full text index written by hand, for SQLite older than 3.7.11 */
+		static final String FTS3_TABLE = "create virtual table " + FTS_TABLE_NAME
+				+ " USING fts3(title_fts, host_fts, description_fts, labels_fts)";
+		
+		/**
+		 * Full text index that reads its text from the bookmarks table rather 
+		 * than storing a copy, with prefix indexes for search suggestions.  
+		 * Kept up to date by {@link #ftsTriggers()}.
+		 */
+		static final String FTS4_TABLE = "create virtual table " + FTS_TABLE_NAME
+				+ " USING fts4(content=\"" + BOOKMARKS_TABLE_NAME + "\","
+				+ Bookmark.Columns.TITLE + "," + Bookmark.Columns.HOST + ","
+				+ Bookmark.Columns.DESCRIPTION + "," + Bookmark.Columns.LABELS + ","
+				+ "prefix=\"2,3\")";
+		
+		/** Name of the trigger that shows the FTS4 index is in use */
+		static final String FTS_INSERT_TRIGGER = "trg_" + BOOKMARKS_TABLE_NAME + "_fts_insert";
+		
+		private static volatile boolean ftsTriggers = false;
+		
+		/** 
+		 * @return true if the full text index is updated by triggers, so
+		 * writers shouldn't touch it.  Known once the database is open.
+		 */
+		static boolean hasFTSTriggers() { return ftsTriggers; }
+		
+		/**
+		 * An external content index has to be told the old text before a row
+		 * changes, so rows are deleted from the index before a bookmark is 
+		 * updated or deleted, and added back after.
+		 */
+		static String[] ftsTriggers() {
+			String cols = Bookmark.Columns.TITLE + "," + Bookmark.Columns.HOST + ","
+				+ Bookmark.Columns.DESCRIPTION + "," + Bookmark.Columns.LABELS;
+			String delete = " begin delete from " + FTS_TABLE_NAME 
+				+ " where docid=old._id; end";
+			String insert = " begin insert into " + FTS_TABLE_NAME + "(docid," + cols 
+				+ ") values (new._id,new." + cols.replace( ",", ",new." ) + "); end";
+			return new String[] {
+				"create trigger " + FTS_INSERT_TRIGGER + " after insert on " 
+					+ BOOKMARKS_TABLE_NAME + insert,
+				"create trigger trg_" + BOOKMARKS_TABLE_NAME + "_fts_before_update"
+					+ " before update of " + cols + " on " + BOOKMARKS_TABLE_NAME + delete,
+				"create trigger trg_" + BOOKMARKS_TABLE_NAME + "_fts_after_update"
+					+ " after update of " + cols + " on " + BOOKMARKS_TABLE_NAME + insert,
+				"create trigger trg_" + BOOKMARKS_TABLE_NAME + "_fts_delete"
+					+ " before delete on " + BOOKMARKS_TABLE_NAME + delete };
+		}
+		
+		/** FTS4 external content tables & prefix indexes need SQLite 3.7.11 */
+		static boolean supportsFTS4( SQLiteDatabase db ) {
+			Cursor c = db.rawQuery( "select sqlite_version()", null );
+			try {
+				if ( ! c.moveToFirst() ) return false;
+				String[] version = c.getString(0).split( "\\." );
+				int major = Integer.parseInt( version[0] );
+				int minor = version.length > 1 ? Integer.parseInt( version[1] ) : 0;
+				int patch = version.length > 2 ? Integer.parseInt( version[2] ) : 0;
+				if ( major != 3 ) return major > 3;
+				return minor > 7 || ( minor == 7 && patch >= 11 );
+			}
+			catch ( NumberFormatException ex ) { return false; }
+			finally { c.close(); }
+		}
+		
+		private static void execAll( SQLiteDatabase db, String[] sql ) {
+			for ( String s : sql ) db.execSQL( s );
+		}
+		
+		/**
+		 * Keep each label's <code>_count</code> equal to its number of rows in
+		 * bookmark_labels, so the labels list doesn't have to group the links 
+		 * on every query.  Deletes that cascade from a label or bookmark fire 
+		 * these too.
+		 */
+		static String[] labelCountTriggers() {
+			return new String[] {
+				"create trigger trg_bookmark_labels_insert after insert on "
+					+ BOOKMARK_LABELS_TABLE_NAME + " begin update " + LABELS_TABLE_NAME
+					+ " set _count=_count+1 where _id=new.label_id; end",
+				"create trigger trg_bookmark_labels_delete after delete on "
+					+ BOOKMARK_LABELS_TABLE_NAME + " begin update " + LABELS_TABLE_NAME
+					+ " set _count=_count-1 where _id=old.label_id; end",
+				"create trigger trg_bookmark_labels_update after update on "
+					+ BOOKMARK_LABELS_TABLE_NAME + " when new.label_id != old.label_id"
+					+ " begin update " + LABELS_TABLE_NAME 
+					+ " set _count=_count-1 where _id=old.label_id;"
+					+ " update " + LABELS_TABLE_NAME 
+					+ " set _count=_count+1 where _id=new.label_id; end",
+				"create index idx_" + LABELS_TABLE_NAME + "_count on "
+					+ LABELS_TABLE_NAME + " ( _count desc )" };
+		}
+		
+		/** See {@link BrowserChangeTracker} */
+		static String[] browserChangeTables() {
+			return new String[] {
+				"create table " + BROWSER_SNAPSHOT_TABLE_NAME + " ( "
+					+ "url varchar(200) primary key,"
+					+ "title varchar(50) )",
+				"create table " + BROWSER_CHANGES_TABLE_NAME + " ( "
+					+ "_id integer primary key,"
+					+ "url varchar(200) not null unique,"
+					+ "changed long not null )" };
+		}
+		
+		/** See {@link ChangeQueue} */
+		static String pendingChangesTable() {
+			return "create table " + PENDING_CHANGES_TABLE_NAME + " ( "
+					+ "_id integer primary key,"
+					+ "bookmark_id integer not null unique,"
+					+ "action integer not null,"
+					+ "google_id varchar(50) default null,"
+					+ "queued long not null,"
+					+ "version integer not null default 0,"
+					+ "attempts integer not null default 0,"
+					+ "next_attempt long not null default 0,"
+					+ "last_error varchar(200) default null )";
+		}
+		
+		static String syncStatsTable() {
+			StringBuilder sql = new StringBuilder( "create table " )
+				.append( SyncStats.TABLE_NAME ).append( " ( " )
+				.append( "_id integer primary key," )
+				.append( "started long not null," )
+				.append( "duration_ms long not null," )
+				.append( "full_sync tinyint not null default 0," )
+				.append( "result integer not null" );
+			for ( String col : SyncStats.PHASE_COLUMNS ) 
+				sql.append( "," ).append( col ).append( " long not null default 0" );
+			sql.append( ",pages integer not null default 0," )
+				.append( "slowest_page_ms long not null default 0," )
+				.append( "bytes long not null default 0," )
+				.append( "inserted integer not null default 0," )
+				.append( "updated integer not null default 0," )
+				.append( "skipped integer not null default 0 )" );
+			return sql.toString();
+		}
+	
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int fromVersion, int toVersion) {
+			Log.i(TAG,"UPGRADE database from v" + fromVersion + " to v" + toVersion );
+			if ( fromVersion < 2 && toVersion >= 2 ) {
+				db.execSQL("alter table " + BOOKMARKS_TABLE_NAME 
+						+ " add column favicon_url varchar(100) default null");
+				// TODO set last sync time back to 0 so that all favicons will be retrieved
+			}
+			
+			if ( fromVersion < 3 && toVersion >= 3 ) {
+				db.execSQL("create table " + BookmarkList.TABLE_NAME + " ( "
+						+ "_id integer primary key,"
+						+ "google_id varchar(50) not null unique,"
+						+ "thread_id varchar(20) not null,"
+						+ "title varchar(50) not null,"
+						+ "description varchar(150) not null default ''," 
+						+ "created long not null,"
+						+ "modified long not null,"
+						+ "owned tinyint not null default 0,"
+						+ "shared tinyint not null default 0,"
+						+ "published tinyint not null default 0 )" );
+			}
+			
+			if ( fromVersion < 4 && toVersion >= 4 ) {
+				db.execSQL("alter table " + BOOKMARKS_TABLE_NAME 
+						+ " add column sync_gen integer not null default 0");
+			}
+			
+			if ( fromVersion < 5 && toVersion >= 5 ) {
+				db.execSQL("alter table " + BOOKMARKS_TABLE_NAME 
+						+ " add column content_hash integer not null default 0");
+			}
+			
+			if ( fromVersion < 6 && toVersion >= 6 ) db.execSQL( syncStatsTable() );
+			
+			if ( fromVersion < 7 && toVersion >= 7 ) db.execSQL( pendingChangesTable() );
+			
+			if ( fromVersion < 8 && toVersion >= 8 ) execAll( db, browserChangeTables() );
+			
+			if ( fromVersion < 9 && toVersion >= 9 ) {
+				// _count held the server's numbers until now
+				db.execSQL( "update " + LABELS_TABLE_NAME + " set _count=(select count(*) from "
+						+ BOOKMARK_LABELS_TABLE_NAME + " where label_id=" 
+						+ LABELS_TABLE_NAME + "._id)" );
+				execAll( db, labelCountTriggers() );
+			}
+			
+			if ( fromVersion < 10 && toVersion >= 10 ) execAll( db, QUERY_INDEXES );
+			
+			if ( fromVersion < 11 && toVersion >= 11 ) {
+				if ( supportsFTS4(db) ) {
+					db.execSQL( "drop table " + FTS_TABLE_NAME );
+					db.execSQL( FTS4_TABLE );
+					execAll( db, ftsTriggers() );
+					db.execSQL( "insert into " + FTS_TABLE_NAME + "(" + FTS_TABLE_NAME 
+							+ ") values ('rebuild')" );
+				}
+				else Log.i(TAG, "SQLite is too old for FTS4; keeping the FTS3 index");
+			}
+		}
+		
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			super.onOpen(db);
+			if (!db.isReadOnly()) { 
+				// Enable foreign key constraints
+				// NOTE versions prior to Froyo don't support this.
+				db.execSQL("PRAGMA foreign_keys=ON;");
+			}
+			Cursor c = db.rawQuery( "select 1 from sqlite_master where type='trigger'"
+					+ " and name=?", new String[] { FTS_INSERT_TRIGGER } );
+			try { ftsTriggers = c.moveToFirst(); }
+			finally { c.close(); }
+			enableWriteAheadLogging( db );
+		}
+		
+		/**
+		 * Let queries read from their own connections while a sync writes.
+		 * Needs API 11, so it's looked up by reflection; older devices keep 
+		 * the rollback journal and readers wait between the sync's batches.
+		 */
+		static void enableWriteAheadLogging( SQLiteDatabase db ) {
+			if ( Build.VERSION.SDK_INT < 11 || db.isReadOnly() ) return;
+			try {
+				boolean enabled = (Boolean)SQLiteDatabase.class.getMethod( 
+						"enableWriteAheadLogging" ).invoke( db );
+				Log.d(TAG, "Write-ahead logging " + (enabled ? "enabled" : "unavailable") );
+			}
+			catch ( Exception ex ) { Log.w(TAG, "Couldn't enable write-ahead logging", ex); }
+		}
+		
+	    /**
+	     * Record a finished sync, dropping the oldest so only the last 
+	     * {@link GmarksProvider#SYNC_STATS_HISTORY} are kept.
+	     */
+	    public void saveSyncStats( SyncStats stats, boolean fullSync, int result ) {
+	    	ContentValues vals = new ContentValues();
+	    	vals.put( SyncStats.Columns.STARTED, stats.getStarted() );
+	    	vals.put( SyncStats.Columns.DURATION, 
+	    			System.currentTimeMillis() - stats.getStarted() );
+	    	vals.put( SyncStats.Columns.FULL_SYNC, fullSync ? 1 : 0 );
+	    	vals.put( SyncStats.Columns.RESULT, result );
+	    	for ( int i=0; i< SyncStats.PHASE_COLUMNS.length; i++ )
+	    		vals.put( SyncStats.PHASE_COLUMNS[i], stats.getMillis(i) );
+	    	vals.put( SyncStats.Columns.PAGES, stats.getPages() );
+	    	vals.put( SyncStats.Columns.SLOWEST_PAGE_TIME, stats.getSlowestPageMillis() );
+	    	vals.put( SyncStats.Columns.BYTES, stats.getBytes() );
+	    	vals.put( SyncStats.Columns.INSERTED, stats.getInserted() );
+	    	vals.put( SyncStats.Columns.UPDATED, stats.getUpdated() );
+	    	vals.put( SyncStats.Columns.SKIPPED, stats.getSkipped() );
+	    	
+	    	SQLiteDatabase db = getWritableDatabase();
+	    	db.insert( SyncStats.TABLE_NAME, null, vals );
+	    	db.delete( SyncStats.TABLE_NAME, SyncStats.Columns._ID + " not in (select " 
+	    			+ SyncStats.Columns._ID + " from " + SyncStats.TABLE_NAME 
+	    			+ " order by " + SyncStats.Columns._ID + " desc limit " 
+	    			+ SYNC_STATS_HISTORY + ")", null );
+	    }
+		
+	    private static final String[] bookmarksIDColumns = new String[] {
+	    	Bookmark.Columns.GOOGLEID, 
+	    	Bookmark.Columns.THREAD_ID, 
+	    	Bookmark.Columns.TITLE, 
+	    	Bookmark.Columns._ID };
+	    
+	    /**
+	     * Note that this does not return the full bookmark object, just a
+	     * shell with the _id, elementID, title and URL filled in.
+	     * @param url
+	     * @param db
+	     * @return
+	     */
+	    public Bookmark findByURL(String url, SQLiteDatabase db ) {
+	    	// Get the database and run the query
+	    	if ( db == null ) db = getReadableDatabase();
+	        Cursor c = db.query(BOOKMARKS_TABLE_NAME, bookmarksIDColumns, 
+	        		"url=?", new String[] {url}, null, null, null);
+
+	        try { // lazy for now, only looking @ first row...
+	        	if ( ! c.moveToFirst() ) return null;
+	        	Bookmark b = new Bookmark(c.getString(0),c.getString(1),c.getString(2),url,null,null,-1,-1);
+	        	b.set_id(c.getLong(3));
+	        	return b;
+	        }
+	        finally { c.close(); }
+	    }
+	    
+	    
+	    public List<Bookmark> findByLabel(String label, SQLiteDatabase db ) {
+	    	// Get the database and run the query
+	    	if ( db == null ) db = getReadableDatabase();
+	        Cursor c = db.query("bookmarks b join bookmark_labels bl on bl.bookmark_id=b._id" 
+	        		+ " join labels l on l._id=bl.label_id", 
+	        		new String[] {"b._id", "b.google_id", "b.thread_id",
+	        				"b.title", "b.url", "b.host", "b.description",
+	        				"b.created", "b.modified", "b.favicon_url"},
+	        		"l.label=?", new String[] {label}, null, null, null);
+
+	        List<Bookmark> bookmarks = new ArrayList<Bookmark>();
+	        try {
+	        	while ( c.moveToNext() ) {
+		        	Bookmark b = new Bookmark(c.getString(1),c.getString(2),c.getString(3),
+		        			c.getString(4),c.getString(5),c.getString(6),c.getLong(7),c.getLong(8));
+		        	b.set_id(c.getLong(0));
+		        	b.setFaviconURL(c.getString(9));
+		        	bookmarks.add(b);
+	        	}
+	        }
+	        finally { c.close(); }
+	        return bookmarks;
+	    }
+	    
+	    public Bookmark insert( Bookmark b, SQLiteDatabase db ) throws DBException {
+	    	boolean ownTransaction = false;
+	    	if ( db == null ) {
+	    		db = getWritableDatabase();
+	    		ownTransaction = true;
+	    		db.beginTransaction();
+	    	}
+	        try {
+	        	ContentValues vals = new ContentValues();
+	        	vals.put(Bookmark.Columns.GOOGLEID, b.getGoogleId());
+	        	vals.put(Bookmark.Columns.THREAD_ID, b.getThreadId());
+	        	vals.put(Bookmark.Columns.TITLE, b.getTitle());
+	        	vals.put(Bookmark.Columns.URL, b.getUrl());
+	        	vals.put(Bookmark.Columns.DESCRIPTION, b.getDescription());
+	        	vals.put(Bookmark.Columns.HOST, b.getHost());
+	        	vals.put(Bookmark.Columns.FAVICON, b.getFaviconURL());
+	        	vals.put(Bookmark.Columns.CREATED_DATE, b.getCreatedDate());
+	        	vals.put(Bookmark.Columns.MODIFIED_DATE, b.getModifiedDate());
+	        	vals.put(Bookmark.Columns.LABELS, b.getAllLabels());
+	        	vals.put(Bookmark.Columns.CONTENT_HASH, ContentFingerprint.of(b));
+
+//	        	long rowID = db.insertWithOnConflict( BOOKMARKS_TABLE_NAME, "", vals, 
+//	        			SQLiteDatabase.CONFLICT_IGNORE );
+	        	long rowID = db.insert( BOOKMARKS_TABLE_NAME, "", vals );
+	        	if ( rowID < 0 ) throw new DBException( "Insert conflict: " + rowID );
+	        	b.set_id(rowID);
+
+	        	this.updateLabels(db, b); // labels
+	        	
+	        	if ( ! ftsTriggers ) { // update FTS table
+	        		vals.clear();
+	        		vals.put("docid", b.get_id());
+	        		vals.put(Bookmark.Columns.TITLE+"_fts", b.getTitle());
+	        		vals.put(Bookmark.Columns.HOST+"_fts", b.getHost());
+	        		vals.put(Bookmark.Columns.DESCRIPTION+"_fts", b.getDescription());
+	        		vals.put(Bookmark.Columns.LABELS+"_fts", b.getAllLabels());
+	        		try {
+	//    				rowID = db.insertWithOnConflict(BOOKMARKS_TABLE_NAME+"_FTS", "",
+	//        				vals, SQLiteDatabase.CONFLICT_IGNORE );
+	    				rowID = db.insert(FTS_TABLE_NAME, "", vals );
+	    				if ( rowID < 0 )
+	    					Log.w(TAG, "Row result error during FTS insert: "+ rowID);
+	        		}
+	        		catch ( SQLiteConstraintException ex ) {
+	        			// this keeps throwing an exception even though I am using 
+	        			// a conflict strategy!??!!!
+	        			Log.w(TAG, "FTS Update Error for ID: " + b.get_id(), ex);
+	        		}
+	        	}
+
+	        	
+	        	if ( ownTransaction ) {
+	        		Log.d(TAG, "Committing changes: " + b.getTitle() );
+	        		db.setTransactionSuccessful();
+	        	}
+
+	        	return b;
+	        }
+	        catch ( SQLiteConstraintException ex ) {
+	        	throw new DBException( "Error creating bookmark: " + b.getTitle(), ex);
+	        }
+	        finally { 
+	        	if ( ownTransaction ) db.endTransaction();
+	        }
+	    }
+
+	    public void update( Bookmark b, SQLiteDatabase db ) throws DBException {
+	    	boolean ownTransaction = false;
+	    	if ( db == null ) {
+	    		db = getWritableDatabase();
+	    		ownTransaction = true;
+	    		db.beginTransaction();
+	    	}
+	        try {
+	        	ContentValues vals = new ContentValues();
+	        	if ( b.getGoogleId() != null )
+	        		vals.put(Bookmark.Columns.GOOGLEID, b.getGoogleId());
+	        	if ( b.getThreadId() != null )
+	        		vals.put(Bookmark.Columns.THREAD_ID, b.getThreadId());
+	        	vals.put(Bookmark.Columns.TITLE, b.getTitle());
+	        	vals.put(Bookmark.Columns.URL, b.getUrl());
+	        	vals.put(Bookmark.Columns.DESCRIPTION, b.getDescription());
+	        	if ( b.getHost() != null ) vals.put(Bookmark.Columns.HOST, b.getHost());
+	        	if ( b.getFaviconURL() != null ) 
+	        		vals.put(Bookmark.Columns.FAVICON, b.getFaviconURL());
+	        	if ( b.getCreatedDate() > 0 ) 
+	        		vals.put(Bookmark.Columns.CREATED_DATE, b.getCreatedDate());
+	        	if ( b.getModifiedDate() > 0 ) 
+	        		vals.put(Bookmark.Columns.MODIFIED_DATE, b.getModifiedDate());
+	        	vals.put(Bookmark.Columns.LABELS, b.getAllLabels());
+	        	// some fields may not have been set; let the next sync rewrite it
+	        	vals.put(Bookmark.Columns.CONTENT_HASH, ContentFingerprint.UNKNOWN);
+	        	
+	        	String whereClause = Bookmark.Columns._ID + "=?";
+	        	String[] whereArgs = new String[] { ""+b.get_id() };
+	        	if ( b.get_id() == null ) {
+	        		if ( b.getGoogleId() == null )
+	        			throw new IllegalArgumentException("Both _id and googleID are null");
+		        	whereClause = Bookmark.Columns.GOOGLEID + "=?";
+	        		whereArgs = new String[] { b.getGoogleId() };
+	        		Log.v(TAG,"Updating bookmark element ID: " + b.getGoogleId() );
+	        	}
+	        	else Log.v(TAG,"Updating bookmark _ID: " + b.get_id() );
+	        	
+//	        	int result = db.updateWithOnConflict( BOOKMARKS_TABLE_NAME, vals,
+//	        			whereClause, whereArgs, SQLiteDatabase.CONFLICT_IGNORE );
+	        	int result = db.update( BOOKMARKS_TABLE_NAME, vals, whereClause, whereArgs );
+	        	
+	        	if ( result < 1 ) throw new DBException( "Update conflict: " + result );
+
+	        	this.updateLabels(db, b); // labels
+
+	        	if ( ! ftsTriggers ) { // update FTS table
+	        		vals.clear();
+	        		vals.put(Bookmark.Columns.TITLE+"_fts", b.getTitle());
+	        		vals.put(Bookmark.Columns.HOST+"_fts", b.getHost());
+	        		vals.put(Bookmark.Columns.DESCRIPTION+"_fts", b.getDescription());
+	        		vals.put(Bookmark.Columns.LABELS+"_fts", b.getAllLabels());
+	        		try {
+	//    				long rowID = db.updateWithOnConflict(BOOKMARKS_TABLE_NAME+"_FTS", vals,
+	//    						"docid=?", new String[] { ""+b.get_id() },
+	//    						SQLiteDatabase.CONFLICT_IGNORE );
+	    				long rowID = db.update(FTS_TABLE_NAME, vals,
+	    						"docid=?", new String[] { ""+b.get_id() } );
+	    				if ( rowID < 0 )
+	    					Log.w(TAG, "Row result error during FTS update: "+ rowID);
+	        		}
+	        		catch ( SQLiteConstraintException ex ) {
+	        			// this keeps throwing an exception even though I am using 
+	        			// a conflict strategy!??!!!
+	        			Log.w(TAG, "FTS Update Error for ID: " + b.get_id(), ex);
+	        		}
+	        	}
+
+	        	
+	        	if ( ownTransaction ) {
+	        		Log.d(TAG, "Committing changes: " + b.getTitle() );
+	        		db.setTransactionSuccessful();
+	        	}
+	        }
+	        catch ( SQLiteConstraintException ex ) {
+	        	throw new DBException( "Error updating bookmark " + b.get_id(), ex);
+	        }
+	        finally {
+	        	if ( ownTransaction ) db.endTransaction();
+	        }
+	    }
+	    
+	    protected void updateLabels( SQLiteDatabase db, Bookmark b ) {
+	    	LabelCache labels = new LabelCache(db, false);
+	    	try { labels.updateLinks(b, false); }
+	    	finally { labels.close(); }
+	    }
+	    
+	    /** Delete the bookmark with the given ID */
+	    public boolean deleteBookmark( long id, SQLiteDatabase db ) throws DBException {
+	    	boolean ownTransaction = false;
+	    	if ( db == null ) {
+	    		db = getWritableDatabase();
+	    		ownTransaction = true;
+	    		db.beginTransaction();
+	    	}
+	    	try {
+	    		int result = db.delete( BOOKMARKS_TABLE_NAME, 
+	    				Bookmark.Columns._ID + "=?", new String[] { ""+id } );
+	    		
+	    		if ( result != 1 )
+	    			throw new DBException("Return result " + result 
+	    					+ " while deleting bookmark ID: " + id );
+	    		
+	    		// delete labels (SQLite in versions prior to Froyo don't
+	    		// support FK constraints
+	        	db.delete(BOOKMARK_LABELS_TABLE_NAME, "bookmark_id=?", new String[]{""+id});
+
+	    		// Delete FTS row
+	    		if ( ! ftsTriggers ) {
+					long count = db.delete(FTS_TABLE_NAME, 
+							"docid=?", new String[] { ""+id } );
+					if ( count != 1 )
+						Log.w(TAG, "Row result error during FTS delete: "+ count);
+	    		}
+	    		
+	        	if ( ownTransaction ) {
+	        		Log.d(TAG, "Committing delete for bookmark ID: " + id );
+	        		db.setTransactionSuccessful();
+	        	}
+	    		
+	    		return true;
+	    	}
+	    	finally { 
+	    		if ( ownTransaction ) db.endTransaction();
+	    	}
+	    }
+	    
+	    public BookmarkList insert( BookmarkList b, SQLiteDatabase db ) throws DBException {
+	    	boolean ownTransaction = false;
+	    	if ( db == null ) {
+	    		db = getWritableDatabase();
+	    		ownTransaction = true;
+	    		db.beginTransaction();
+	    	}
+	        try {
+	        	ContentValues vals = new ContentValues();
+	        	vals.put(BookmarkList.Columns.THREAD_ID, b.getThreadId());
+	        	vals.put(BookmarkList.Columns.TITLE, b.getTitle());
+	        	vals.put(BookmarkList.Columns.DESCRIPTION, b.getDescription());
+	        	vals.put(BookmarkList.Columns.CREATED_DATE, b.getCreatedDate());
+	        	vals.put(BookmarkList.Columns.MODIFIED_DATE, b.getModifiedDate());
+	        	vals.put(BookmarkList.Columns.OWNED, b.isOwnedByUser()?1:0);
+	        	vals.put(BookmarkList.Columns.SHARED, b.isShared()?1:0);
+	        	vals.put(BookmarkList.Columns.PUBLISHED, b.isPublished()?1:0);
+
+	        	long rowID = db.insert( BookmarkList.TABLE_NAME, "", vals );
+	        	if ( rowID < 0 ) throw new DBException( "Insert conflict: " + rowID );
+	        	b.set_id(rowID);
+	        	
+	        	if ( ownTransaction ) {
+	        		Log.d(TAG, "Committing changes: " + b.getTitle() );
+	        		db.setTransactionSuccessful();
+	        	}
+
+	        	return b;
+	        }
+	        catch ( SQLiteConstraintException ex ) {
+	        	throw new DBException( "Error persisting bookmark list: " + b.getTitle(), ex);
+	        }
+	        finally { 
+	        	if ( ownTransaction ) db.endTransaction();
+	        }	    	
+	    }
+		
+	    public void persistCookies( List<Cookie> cookies ) {
+			SQLiteDatabase db = this.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				// flush old auth cookies before persisting new ones.
+				db.delete(COOKIES_TABLE_NAME, "", new String[] {} );
+				
+				for ( Cookie c : cookies ) {
+					ContentValues row = new ContentValues();
+					row.put("name", c.getName()	);
+					row.put("value", c.getValue() );
+					row.put("domain", c.getDomain() );
+					row.put("path", c.getPath());
+					Date expiry = c.getExpiryDate();
+					if ( expiry != null ) row.put("expires", expiry.getTime() );
+					row.put("secure", c.isSecure() ? 1 : 0 );
+					
+					db.insert(COOKIES_TABLE_NAME, "", row);
+				}
+				db.setTransactionSuccessful();
+				Log.d(TAG, "Saved cookies to DB");
+			}
+			catch (Exception ex ) {
+				Log.w(TAG, "Error persisting cookies!", ex );
+			}
+			finally { db.endTransaction(); }
+		}
+		
+		public List<Cookie> restoreCookies() {
+			SQLiteDatabase db = this.getReadableDatabase();
+			Cursor cursor = db.query(COOKIES_TABLE_NAME, cookieColumns, 
+					null, null, null, null, null );
+			try {
+				List<Cookie> cookies = new ArrayList<Cookie>();
+				while ( cursor.moveToNext() ) {
+					BasicClientCookie c = new BasicClientCookie(cursor.getString(0), cursor.getString(1));
+					c.setDomain(cursor.getString(2));
+					c.setPath(cursor.getString(3));
+					Long expires = cursor.getLong(4);
+					if ( expires != null ) c.setExpiryDate( new Date(expires) );
+					c.setSecure( 0 != cursor.getShort(5) );
+					cookies.add( c );
+				}
+				Log.d(TAG, "Restored cookies");
+				return cookies;
+			}
+			finally { cursor.close(); }
+		}
+		
+		public void clearCookies() {
+			this.getWritableDatabase().delete(COOKIES_TABLE_NAME, "", null );
+		}
+		
+		
+
+	}
+}
@@ -0,0 +1,157 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARK_LABELS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.LABELS_TABLE_NAME;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Maps label titles to their row IDs and maintains the bookmark_labels
+ * relation.  A sync loads every label once up front, so linking a bookmark
+ * to its labels needs no label lookups at all; labels created along the
+ * way are added to the map.  Label titles are case-insensitive.
+ *
+ * Not thread safe.  Must be {@link #close() closed} when finished.
+ */
+class LabelCache {
+	static final String TAG = "GMARKS LABELS";
+	/** Bookmarks with no labels are linked to this one */
+	static final String NO_LABEL = "^none";
+
+	private final SQLiteDatabase db;
+	private final Map<String,Long> ids = new HashMap<String,Long>();
+	private final boolean preloaded;
+
+	private SQLiteStatement selectLabel = null;
+	private final SQLiteStatement insertLabel;
+	private final SQLiteStatement insertLink;
+	private final SQLiteStatement deleteLink;
+
+	/**
+	 * @param preload if true, read every label now.  Otherwise labels are
+	 *  looked up as they're needed, which is cheaper when only a single
+	 *  bookmark is being saved.
+	 */
+	LabelCache( SQLiteDatabase db, boolean preload ) {
+		this.db = db;
+		this.preloaded = preload;
+		if ( preload ) {
+			Cursor c = db.query( LABELS_TABLE_NAME,
+					new String[] { Label.Columns._ID, Label.Columns.TITLE },
+					null, null, null, null, null );
+			try {
+				while ( c.moveToNext() )
+					ids.put( c.getString(1).toLowerCase(), c.getLong(0) );
+			}
+			finally { c.close(); }
+		}
+		else this.selectLabel = db.compileStatement( "select " + Label.Columns._ID
+				+ " from " + LABELS_TABLE_NAME + " where " + Label.Columns.TITLE + "=?" );
+
+		this.insertLabel = db.compileStatement( "insert into " + LABELS_TABLE_NAME
+				+ " (" + Label.Columns.TITLE + ") values (?)" );
+		this.insertLink = db.compileStatement( "insert into " + BOOKMARK_LABELS_TABLE_NAME
+				+ " (label_id, bookmark_id) values (?,?)" );
+		this.deleteLink = db.compileStatement( "delete from " + BOOKMARK_LABELS_TABLE_NAME
+				+ " where label_id=? and bookmark_id=?" );
+	}
+
+	/** @return the label's row ID, or -1 if there is no such label */
+	long get( String title ) {
+		String key = title.toLowerCase();
+		Long id = ids.get(key);
+		if ( id != null ) return id;
+		if ( preloaded ) return -1;
+
+		selectLabel.bindString( 1, key );
+		try {
+			long rowID = selectLabel.simpleQueryForLong();
+			ids.put( key, rowID );
+			return rowID;
+		}
+		catch ( SQLiteDoneException ex ) { return -1; }
+	}
+
+	/** @return the label's row ID, inserting a new label if it doesn't exist */
+	long getOrCreate( String title ) {
+		long id = get( title );
+		if ( id >= 0 ) return id;
+		insertLabel.bindString( 1, title );
+		id = insertLabel.executeInsert();
+		if ( id < 0 ) Log.w(TAG, "Couldn't insert label " + title);
+		else ids.put( title.toLowerCase(), id );
+		return id;
+	}
+
+	/**
+	 * Link the bookmark to exactly the labels in b.getLabels().  Only
+	 * links that were added or removed are written; unchanged ones are left
+	 * alone.  A bookmark with no labels is linked to {@link #NO_LABEL}.
+	 * @param isNew true if the bookmark was just inserted, so it can't have
+	 *  any existing links to look up.
+	 */
+	void updateLinks( Bookmark b, boolean isNew ) {
+		long bookmarkID = b.get_id();
+		Set<Long> wanted = new HashSet<Long>();
+		if ( b.getLabels().size() < 1 ) wanted.add( getOrCreate(NO_LABEL) );
+		else for ( String label : b.getLabels() ) wanted.add( getOrCreate(label) );
+		wanted.remove( -1L );
+
+		if ( ! isNew ) {
+			List<Long> existing = new ArrayList<Long>();
+			Cursor c = db.rawQuery( "select label_id from " + BOOKMARK_LABELS_TABLE_NAME
+					+ " where bookmark_id=?", new String[] { ""+bookmarkID } );
+			try {
+				while ( c.moveToNext() ) existing.add( c.getLong(0) );
+			}
+			finally { c.close(); }
+
+			// anything left in 'wanted' afterwards isn't linked yet
+			for ( Long labelID : UpsertPlan.diffLinks( wanted, existing ) ) {
+				deleteLink.bindLong( 1, labelID );
+				deleteLink.bindLong( 2, bookmarkID );
+				deleteLink.execute();
+			}
+		}
+
+		for ( Long labelID : wanted ) {
+			insertLink.bindLong( 1, labelID );
+			insertLink.bindLong( 2, bookmarkID );
+			if ( insertLink.executeInsert() < 0 )
+				Log.w(TAG, "Couldn't link label ID " + labelID + " to bookmark " + bookmarkID);
+		}
+	}
+
+	void close() {
+		if ( selectLabel != null ) selectLabel.close();
+		insertLabel.close();
+		insertLink.close();
+		deleteLink.close();
+	}
+}
@@ -0,0 +1,110 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Holds the process-wide {@link LabelIndex} used to filter labels as the
+ * user types.  The index is loaded on a background thread the first time
+ * it's asked for, and replaced whenever the labels change (after a sync or
+ * a local edit) once the changes have settled.  Until then the previous
+ * index is served, so typing never waits on the database.
+ */
+class LabelIndexCache extends ContentObserver {
+	static final String TAG = "GMARKS LABEL INDEX";
+	/** ms to wait for more changes before reloading */
+	static final long SETTLE_DELAY = 1000;
+
+	static final String[] COLUMNS = {
+		Label.Columns._ID, Label.Columns.TITLE, Label.Columns.COUNT };
+
+	private static LabelIndexCache instance = null;
+	private static volatile LabelIndex index = LabelIndex.EMPTY;
+
+	private final Context ctx;
+	private final Handler handler;
+	private final Runnable load = new Runnable() {
+		public void run() { load(); }
+	};
+
+	private LabelIndexCache( Context ctx, Handler handler ) {
+		super( handler );
+		this.ctx = ctx;
+		this.handler = handler;
+	}
+
+	/**
+	 * @return the current index; empty until the first load finishes.
+	 * Starts loading & watching for changes if it hasn't already.
+	 */
+	static LabelIndex get( Context ctx ) {
+		start( ctx );
+		return index;
+	}
+
+	static synchronized void start( Context ctx ) {
+		if ( instance != null ) return;
+		HandlerThread thread = new HandlerThread( TAG );
+		thread.start();
+		instance = new LabelIndexCache( ctx.getApplicationContext(),
+				new Handler( thread.getLooper() ) );
+		ctx.getContentResolver().registerContentObserver(
+				GmarksProvider.LABELS_CONTENT_URI, true, instance );
+		instance.handler.post( instance.load );
+	}
+
+	@Override public void onChange( boolean selfChange ) {
+		handler.removeCallbacks( load );
+		handler.postDelayed( load, SETTLE_DELAY );
+	}
+
+	private void load() {
+		long start = System.nanoTime();
+		Cursor c = ctx.getContentResolver().query( GmarksProvider.LABELS_CONTENT_URI,
+				COLUMNS, null, null, null );
+		if ( c == null ) return;
+		try {
+			int size = c.getCount();
+			long[] ids = new long[size];
+			String[] titles = new String[size];
+			int[] counts = new int[size];
+			for ( int i=0; c.moveToNext(); i++ ) {
+				ids[i] = c.getLong(0);
+				titles[i] = c.getString(1);
+				counts[i] = c.getInt(2);
+			}
+			index = new LabelIndex( ids, titles, counts );
+		}
+		finally { c.close(); }
+		Log.d(TAG, "Indexed " + index.size() + " labels in "
+				+ (System.nanoTime() - start) / 1000000 + "ms" );
+	}
+
+	/** @return the given labels as rows of {@link #COLUMNS} */
+	static Cursor toCursor( LabelIndex labels, int[] positions ) {
+		MatrixCursor c = new MatrixCursor( COLUMNS, positions.length );
+		for ( int p : positions ) c.addRow( new Object[] {
+				labels.getId(p), labels.getTitle(p), labels.getCount(p) } );
+		return c;
+	}
+}
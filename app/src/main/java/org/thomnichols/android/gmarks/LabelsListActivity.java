@@ -15,6 +15,8 @@
  */
 package org.thomnichols.android.gmarks;
 
+import java.util.concurrent.Callable;
+
 import android.app.ListActivity;
 import android.content.ContentUris;
 import android.content.Context;
@@ -22,7 +24,6 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.database.Cursor;
-import android.database.CursorWrapper;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.Html;
@@ -40,7 +41,8 @@ import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
-public class LabelsListActivity extends ListActivity implements OnClickListener {
+public class LabelsListActivity extends ListActivity
+		implements OnClickListener, AsyncQuery.Callbacks, SyncCoordinator.Listener {
 	static final String TAG = "GMARKS LABELS";
 	
     private static final String[] PROJECTION = new String[] {
@@ -56,6 +58,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
     static final int SORT_COUNT= 2;
     
     protected int currentSort = SORT_ALPHA;
+    protected AsyncQuery query;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -71,7 +74,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
     	// If no data was given in the intent (because we were started
         // as a MAIN activity), then use our default content provider.
         Intent intent = getIntent();
-        if (intent.getData() == null) intent.setData(Label.CONTENT_URI);
+        if (intent.getData() == null) intent.setData(GmarksProvider.LABELS_CONTENT_URI);
         
         if (Intent.ACTION_MAIN.equals(intent.getAction())) {
         	// start up the background service if necessary.
@@ -81,6 +84,8 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
     			service.setAction( Intent.ACTION_RUN );
         		startService(service);
         	}
+        	if ( prefs.getBoolean(Prefs.KEY_BROWSER_SYNC_ENABLED, false) )
+        		BrowserChangeTracker.start(this);
         }
         
     	if (Intent.ACTION_PICK.equals(intent.getAction()) ) {
@@ -92,27 +97,26 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
         
         Log.i(TAG,"Intent URI: " + getIntent().getData() );
         this.currentSort = prefs.getInt(Prefs.KEY_LABELS_SORT_PREF, SORT_ALPHA);
-        String sort = currentSort == SORT_ALPHA ? 
-        		Label.Columns.SORT_ALPHA : Label.Columns.SORT_COUNT;
-        Cursor cursor = managedQuery( getIntent().getData(), PROJECTION, null, null, sort );
+        this.query = new AsyncQuery(this);
         
         // Used to map labels from the database to views
-        SimpleCursorAdapter adapter = new SimpleCursorAdapter(
-        		this, R.layout.labels_list_item, cursor,
-                new String[] { Label.Columns.TITLE, "count(label_id)" }, 
-                new int[] { R.id.title, R.id.count });
+        SimpleCursorAdapter adapter = new AsyncQuery.Adapter(
+        		this, R.layout.labels_list_item, null,
+                new String[] { Label.Columns.TITLE, Label.Columns.COUNT }, 
+                new int[] { R.id.title, R.id.count }, query);
         adapter.setStringConversionColumn(1); // used for text filtering
+        // filter from the in-memory label index so typing doesn't hit the DB
+        LabelIndexCache.start(this);
         adapter.setFilterQueryProvider(new FilterQueryProvider() {
 			public Cursor runQuery(CharSequence constraint) {
-				String label = constraint.toString();
-				label.replaceAll("'", "");
-		        String sort = currentSort == SORT_ALPHA ? 
-		        		Label.Columns.SORT_ALPHA : Label.Columns.SORT_COUNT;
-				return managedQuery( getIntent().getData(), PROJECTION, 
-						"label like '"+label+"%'", null, sort);
+				LabelIndex labels = LabelIndexCache.get(LabelsListActivity.this);
+				int[] found = labels.match(constraint, 0);
+				if ( currentSort == SORT_COUNT ) found = labels.byCount(found);
+				return LabelIndexCache.toCursor(labels, found);
 			}
 		});
         setListAdapter(adapter);
+        this.query.start();
         
         findViewById(R.id.allListItems).setOnClickListener(this);
 
@@ -121,7 +125,32 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
         ((TextView)findViewById(R.id.welcome_msg)).setText(
         		Html.fromHtml(getString(R.string.welcome_msg)) );
     }
-    
+
+    public Callable<Cursor> onCreateQuery() {
+    	final Uri uri = getIntent().getData();
+    	final String sort = currentSort == SORT_ALPHA ?
+        		Label.Columns.SORT_ALPHA : Label.Columns.SORT_COUNT;
+        return new Callable<Cursor>() {
+        	public Cursor call() {
+        		return getContentResolver().query( uri, PROJECTION, null, null, sort );
+        	}
+        };
+    }
+
+    public void onQueryComplete(Cursor cursor) {
+    	if ( cursor == null ) return;
+    	((SimpleCursorAdapter)getListAdapter()).changeCursor(cursor);
+        findViewById(R.id.allListItems).setVisibility(
+        		cursor.getCount() < 1 ? View.GONE : View.VISIBLE );
+    }
+
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	this.query.close();
+    	((SimpleCursorAdapter)getListAdapter()).changeCursor(null);
+    }
+
     @Override
     protected void onResume() {
         if ( BookmarksQueryService.getInstance().isAuthInitialized() ) { 
@@ -137,10 +166,36 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
         
         findViewById(R.id.allListItems).setVisibility(
         		getListAdapter().getCount() < 1 ? View.GONE : View.VISIBLE );
+        SyncCoordinator.addListener(this);
 
     	super.onResume();
     }
     
+    @Override
+    protected void onPause() {
+    	SyncCoordinator.removeListener(this);
+    	super.onPause();
+    }
+    
+    void startSync() {
+    	Toast.makeText(this, SyncCoordinator.submit(new RemoteSyncTask(this)) ?
+    			R.string.sync_begin_msg : R.string.sync_in_progress_msg, 
+    			Toast.LENGTH_SHORT).show();
+    }
+    
+    public void onSyncProgress(int count) {
+    	Button syncBtn = (Button)findViewById(R.id.syncBtn);
+    	syncBtn.setEnabled(false);
+    	if ( count > 0 ) syncBtn.setText(getString(R.string.sync_notify_count, count));
+    	else syncBtn.setText(R.string.sync_notify_start);
+    }
+    
+    public void onSyncFinished(int result) {
+    	Button syncBtn = (Button)findViewById(R.id.syncBtn);
+    	syncBtn.setEnabled(true);
+    	syncBtn.setText(R.string.btn_first_sync);
+    }
+    
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     	if ( requestCode == LOGIN_ACTIVITY_RESULT && resultCode == RESULT_OK ) {
@@ -153,7 +208,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
     protected void onListItemClick(ListView l, View v, int position, long id) {
     	super.onListItemClick(l, v, position, id);
     	String action = getIntent().getAction();
-    	String labelText = ((CursorWrapper)l.getItemAtPosition(position))
+    	String labelText = ((Cursor)l.getItemAtPosition(position))
     		.getString(COLUMN_INDEX_TITLE);
     	
     	if (Intent.ACTION_PICK.equals(action) ) {
@@ -168,7 +223,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
         } 
     	else {
         	// user has selected a label for which to show all bookmarks
-        	Uri queryUri = Bookmark.CONTENT_URI.buildUpon()
+        	Uri queryUri = GmarksProvider.BOOKMARKS_CONTENT_URI.buildUpon()
         		.appendQueryParameter("label_id", ""+id)
         		.appendQueryParameter("label", labelText)
         		.build();
@@ -229,8 +284,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
         	break;
         case R.id.menu_sync:
         	Log.d(TAG, "Starting sync...");
-        	Toast.makeText(this, R.string.sync_begin_msg, Toast.LENGTH_SHORT).show();
-        	new RemoteSyncTask(this).execute();
+        	startSync();
         	break;
         case R.id.menu_settings:
             startActivity(new Intent(this, SettingsActivity.class));
@@ -245,16 +299,12 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
         case R.id.menu_sort_alpha:
             this.currentSort = SORT_ALPHA; 
             Prefs.edit(this).putInt(Prefs.KEY_LABELS_SORT_PREF, SORT_ALPHA).commit();
-        	((SimpleCursorAdapter)getListAdapter()).changeCursor(
-        			managedQuery( getIntent().getData(), PROJECTION, 
-    						null, null, Label.Columns.SORT_ALPHA) );
+            this.query.start();
         	break;
         case R.id.menu_sort_count:
             this.currentSort = SORT_COUNT;
             Prefs.edit(this).putInt(Prefs.KEY_LABELS_SORT_PREF, SORT_COUNT).commit();
-        	((SimpleCursorAdapter)getListAdapter()).changeCursor(
-        			managedQuery( getIntent().getData(), PROJECTION, 
-    						null, null, Label.Columns.SORT_COUNT) );
+            this.query.start();
         	break;
 	    case R.id.menu_logout:
 	    	Log.d(TAG, "Logging out...");
@@ -274,8 +324,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
 		final int viewID = v.getId();
 		if ( viewID == R.id.syncBtn ) {
 			Log.d(TAG, "Starting sync...");
-        	Toast.makeText(this, R.string.sync_begin_msg, Toast.LENGTH_SHORT).show();
-        	new RemoteSyncTask(this).execute();
+        	startSync();
 		}
 		
 		else if ( viewID == R.id.loginBtn ) {
@@ -292,7 +341,7 @@ public class LabelsListActivity extends ListActivity implements OnClickListener
 				// The caller is waiting for us to return a label selected,
 				// in this case, 'all bookmarks'
 				Intent result = new Intent();
-				result.setData( Bookmark.CONTENT_URI );
+				result.setData( GmarksProvider.BOOKMARKS_CONTENT_URI );
 				Log.d(TAG, "Setting result" + result);
 				setResult(RESULT_OK, result);
 				finish();
@@ -17,8 +17,11 @@
 import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
 import org.thomnichols.android.gmarks.GmarksProvider.DatabaseHelper;
 
+import java.util.concurrent.Callable;
+
 import android.app.ListActivity;
 import android.content.Intent;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -26,14 +29,14 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
-import android.widget.CursorAdapter;
 import android.widget.SimpleCursorAdapter;
 import android.widget.Toast;
 
-public class ListsListActivity extends ListActivity {
+public class ListsListActivity extends ListActivity implements AsyncQuery.Callbacks {
 	static final String TAG = "BOOKMARKS LISTS ACT";
 
 	String category;
+	protected AsyncQuery query;
 	
     private static final String[] PROJECTION = new String[] {
         BookmarkList.Columns._ID, // 0
@@ -55,7 +58,7 @@ public class ListsListActivity extends ListActivity {
 
 		Uri uri = intent.getData();
 		if ( uri == null ) {
-			uri = BookmarkList.CONTENT_URI;
+			uri = GmarksProvider.BOOKMARK_LISTS_CONTENT_URI;
 			this.category = intent.getStringExtra(BookmarkList.PARAM_CATEGORY);
 			if ( category != null ) uri = uri.buildUpon().appendQueryParameter(
 					BookmarkList.PARAM_CATEGORY, category ).build();
@@ -63,11 +66,32 @@ public class ListsListActivity extends ListActivity {
 		}
 		else this.category = uri.getQueryParameter(BookmarkList.PARAM_CATEGORY);
 		
-		setListAdapter ( new SimpleCursorAdapter( this, 
-				R.layout.lists_list_item, 
+		this.query = new AsyncQuery(this);
+		setListAdapter ( new AsyncQuery.Adapter( this, 
+				R.layout.lists_list_item, null, 
+				LIST_COLUMNS, LIST_VIEW_IDS, query) ); 
+		this.query.start();
+	}
+	
+	public Callable<Cursor> onCreateQuery() {
+		final Uri uri = getIntent().getData();
+		return new Callable<Cursor>() {
+			public Cursor call() {
 				// TODO get list sort order from prefs
-				managedQuery(uri, PROJECTION, null, null, null), 
-				LIST_COLUMNS, LIST_VIEW_IDS) ); 
+				return getContentResolver().query( uri, PROJECTION, null, null, null );
+			}
+		};
+	}
+	
+	public void onQueryComplete(Cursor cursor) {
+		if ( cursor != null ) ((SimpleCursorAdapter)getListAdapter()).changeCursor(cursor);
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		this.query.close();
+		((SimpleCursorAdapter)getListAdapter()).changeCursor(null);
 	}
 	
 	protected void doListSync() {
@@ -78,10 +102,9 @@ public class ListsListActivity extends ListActivity {
 			protected Integer doInBackground(Void... params) {
 				Log.d(TAG,"Starting list sync...");
 				ListsSync sync = new ListsSync(ctx);
-				DatabaseHelper db = new DatabaseHelper(ctx);
+				DatabaseHelper db = DatabaseHelper.get(ctx);
 				try {
 					sync.synchronizeMyLists(db);
-					((CursorAdapter)ctx.getListAdapter()).getCursor().requery();
 				}
 				catch ( AuthException ex ) {
 					Log.w(TAG,"Auth failure",ex);
@@ -101,6 +124,7 @@ public class ListsListActivity extends ListActivity {
 				}
 				else if ( result == SYNC_RESULT_ERROR )
 					msgID = R.string.sync_notify_error;
+				else query.start();
 				Toast.makeText(ctx, msgID, Toast.LENGTH_LONG);
 			};
 		}.execute();
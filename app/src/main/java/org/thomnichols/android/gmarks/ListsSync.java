@@ -104,7 +104,6 @@ public class ListsSync {
 		}
 		finally {
 			if ( db.inTransaction() ) db.endTransaction();
-			db.close();
 		}
 		prefs.edit().putLong(Prefs.KEY_LAST_LIST_SYNC_ATTEMPT, thisSync).commit();
 	}
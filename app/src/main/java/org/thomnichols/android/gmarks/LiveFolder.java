@@ -16,7 +16,7 @@
 package org.thomnichols.android.gmarks;
 
 import android.content.Intent;
-import android.database.CursorWrapper;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.LiveFolders;
@@ -31,7 +31,7 @@ public class LiveFolder extends LabelsListActivity {
     public static final Uri CONTENT_URI = 
     	Uri.parse("content://" + Bookmark.AUTHORITY + "/live_folders/bookmarks" );
 
-    public static final Uri BOOKMARK_URI = Uri.parse( Bookmark.CONTENT_URI + "/#" );
+    public static final Uri BOOKMARK_URI = Uri.parse( GmarksProvider.BOOKMARKS_CONTENT_URI + "/#" );
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,7 +60,7 @@ public class LiveFolder extends LabelsListActivity {
     protected void onListItemClick(ListView l, View v, int position, long id) {
 //    	super.onListItemClick(l, v, position, id);
     	// user has selected a label
-    	String labelText = ((CursorWrapper)l.getItemAtPosition(position))
+    	String labelText = ((Cursor)l.getItemAtPosition(position))
     		.getString(COLUMN_INDEX_TITLE);
 
     	Uri target = CONTENT_URI.buildUpon()
@@ -97,7 +97,7 @@ public class LiveFolder extends LabelsListActivity {
         liveFolderIntent.putExtra(LiveFolders.EXTRA_LIVE_FOLDER_DISPLAY_MODE,
                 LiveFolders.DISPLAY_MODE_LIST);
         liveFolderIntent.putExtra( LiveFolders.EXTRA_LIVE_FOLDER_BASE_INTENT,
-                new Intent(Intent.ACTION_VIEW, Bookmark.CONTENT_URI) );
+                new Intent(Intent.ACTION_VIEW, GmarksProvider.BOOKMARKS_CONTENT_URI) );
 
 		setResult(RESULT_OK, liveFolderIntent);
     }
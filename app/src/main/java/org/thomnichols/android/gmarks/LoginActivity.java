@@ -59,9 +59,8 @@ public class LoginActivity extends Activity {
     class CheckLoginTask extends AsyncTask<Void, Void, Boolean> {
     	@Override protected Boolean doInBackground(Void... args) {
     		BookmarksQueryService gmarksSvc = BookmarksQueryService.getInstance();
-    		GmarksProvider.DatabaseHelper db = new GmarksProvider.DatabaseHelper(LoginActivity.this);
-    		gmarksSvc.setAuthCookies( db.restoreCookies() );
-    		db.close();
+    		gmarksSvc.setAuthCookies( GmarksProvider.DatabaseHelper.get(
+    				LoginActivity.this).restoreCookies() );
     		return gmarksSvc.testAuth();
     	}
     	@Override protected void onPostExecute( Boolean alreadyLoggedIn ) {
@@ -98,9 +97,8 @@ public class LoginActivity extends Activity {
     		LoginActivity.this.waitDialog.dismiss();
     		if ( loginSuccess ) {
 				Log.d(TAG,"Logged in!");
-				GmarksProvider.DatabaseHelper db = new GmarksProvider.DatabaseHelper(LoginActivity.this);
-				db.persistCookies( BookmarksQueryService.getInstance().cookieStore.getCookies() );
-				db.close();
+				GmarksProvider.DatabaseHelper.get(LoginActivity.this).persistCookies( 
+						BookmarksQueryService.getInstance().cookieStore.getCookies() );
 				Log.d(TAG,"Persisted cookies to DB!!");
 				Toast.makeText(LoginActivity.this, "Logged in!", Toast.LENGTH_LONG);
 				
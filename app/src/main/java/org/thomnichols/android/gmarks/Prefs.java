@@ -33,6 +33,16 @@ public final class Prefs {
 	static final String PREF_LAST_SYNC = "last_sync";
 	static final String PREF_LAST_SYNC_ATTEMPT = "last_sync_attempt";
 	static final String PREF_LAST_BROWSER_SYNC = "last_browser_sync";
+	// last time every browser bookmark was compared; see BrowserSync
+	static final String PREF_LAST_BROWSER_RECONCILE = "last_browser_reconcile";
+	// where an interrupted sync left off; see RemoteSyncTask
+	static final String PREF_SYNC_RESUME_SINCE = "sync_resume_since";
+	static final String PREF_SYNC_RESUME_STARTED = "sync_resume_started";
+	static final String PREF_SYNC_RESUME_OFFSET = "sync_resume_offset";
+	static final String PREF_SYNC_RESUME_MODIFIED = "sync_resume_modified";
+	static final String PREF_SYNC_GENERATION = "sync_generation";
+	// set while local edits are waiting to be sent; see ChangeQueue
+	static final String PREF_CHANGES_PENDING = "changes_pending";
 
 	static final String KEY_LIST_SYNC_ENABLED = "lists_sync_enabled";
 	static final String KEY_LAST_LIST_SYNC = "last_lists_sync";
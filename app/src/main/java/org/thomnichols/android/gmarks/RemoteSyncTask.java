@@ -0,0 +1,530 @@
+/* This file is part of GMarks. Copyright 2010, 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARKS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.BOOKMARK_LABELS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.FTS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.LABELS_TABLE_NAME;
+import static org.thomnichols.android.gmarks.GmarksProvider.PENDING_CHANGES_TABLE_NAME;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
+import org.thomnichols.android.gmarks.GmarksProvider.DBException;
+
+import android.app.Activity;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Syncs bookmarks & labels from the server.  Start it through 
+ * {@link SyncCoordinator#submit(RemoteSyncTask)} rather than 
+ * <code>execute()</code>, so it doesn't run alongside another sync.
+ */
+class RemoteSyncTask extends AsyncTask<Void, Integer, Integer> {
+	static final String TAG = "GMARKS SYNC";
+	
+	static final String SHARED_PREFS_NAME = "sync_prefs";
+	
+	static final int NOTIFY_SYNC_ID = 1;
+	
+	static final int RESULT_SUCCESS = 0;
+	static final int RESULT_FAILURE_AUTH = 1;
+	static final int RESULT_FAILURE_DB = 2;
+	static final int RESULT_FAILURE_UNKNOWN = 500;
+	
+	/* Commit after this many bookmarks so the write lock is released 
+	 * periodically, the list UI can show what's been sync'd so far, and 
+	 * an interrupted sync doesn't lose everything. */
+	static final int COMMIT_EVERY = 100;
+	
+	/* Stale bookmarks deleted per statement by a full sync's sweep */
+	static final int SWEEP_CHUNK = 200;
+	
+	NotificationManager notificationManager;
+	Notification notification;
+	Context ctx;
+	long lastSyncTime = 0;
+	final SharedPreferences syncPrefs;
+	final SharedPreferences legacySyncPrefs;
+	boolean syncBrowserBookmarks;
+	String browserBookmarksLabel;
+	long lastBrowserSyncTime = 0;
+	long thisSyncTime = 0;
+	boolean showToast = true;
+	boolean syncAll = false;
+	
+	SQLiteDatabase db = null;
+	BookmarkUpsertWriter writer = null;
+	int syncCount = 0; // bookmarks written so far
+	int uncommitted = 0;
+	SyncStats stats = null;
+	Set<String> pendingIDs = null; // bookmarks with unsent local edits
+	
+	RemoteSyncTask(Context ctx) {
+		this.ctx = ctx;
+		notificationManager = (NotificationManager)ctx.getSystemService(Context.NOTIFICATION_SERVICE);
+		notification = new Notification( R.drawable.ic_sync, 
+				ctx.getString(R.string.sync_notify_start), 
+				System.currentTimeMillis() );
+		
+		this.syncPrefs = Prefs.get(this.ctx);
+		this.legacySyncPrefs = ctx.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+	}
+	
+	RemoteSyncTask(Context ctx, boolean fullSync ) {
+		this(ctx);
+		this.syncAll = fullSync;
+	}
+	
+	@Override protected void onPreExecute() {
+		super.onPreExecute();
+		this.lastSyncTime = syncPrefs.getLong(Prefs.PREF_LAST_SYNC, 0);
+		if ( lastSyncTime == 0 ) 
+			lastSyncTime = legacySyncPrefs.getLong(Prefs.PREF_LAST_SYNC, 0);
+		this.lastBrowserSyncTime = syncPrefs.getLong(Prefs.PREF_LAST_BROWSER_SYNC, 0);
+		if ( lastBrowserSyncTime == 0 ) 
+			lastBrowserSyncTime = legacySyncPrefs.getLong(Prefs.PREF_LAST_BROWSER_SYNC, 0);
+		
+		if ( this.syncAll ) {
+			this.lastSyncTime = 0;
+			this.lastBrowserSyncTime = 0;
+		}
+		
+		Log.d(TAG,"Syncing bookmarks modified since: " + lastSyncTime);
+		this.thisSyncTime = System.currentTimeMillis();
+		syncPrefs.edit().putLong(Prefs.PREF_LAST_SYNC_ATTEMPT, thisSyncTime).commit();
+		
+		// determine if we should sync browser bookmarks:
+		this.syncBrowserBookmarks = syncPrefs.getBoolean(
+				Prefs.KEY_BROWSER_SYNC_ENABLED, false );
+		this.browserBookmarksLabel = syncPrefs.getString(
+				Prefs.KEY_BROWSER_SYNC_LABEL, null);
+	}
+	
+	@Override protected Integer doInBackground(Void... arg0) {
+		this.stats = new SyncStats();
+		int result = sync();
+		Log.d(TAG, "Sync stats: " + stats);
+		saveStats( result );
+		if ( result == RESULT_SUCCESS ) {
+			// so the list has icons for new hosts without waiting on the network
+			try { FaviconCache.prefetch( ctx ); }
+			catch ( RuntimeException ex ) { Log.w(TAG, "Favicon prefetch failed", ex); }
+		}
+		return result;
+	}
+	
+	private int sync() {
+    	GmarksProvider.DatabaseHelper dbHelper = GmarksProvider.DatabaseHelper.get(this.ctx);
+
+    	BookmarksQueryService remoteSvc = BookmarksQueryService.getInstance();
+
+    	LabelCache labelCache = null;
+    	try {
+        	if ( ! remoteSvc.authInitialized ) 
+    			remoteSvc.setAuthCookies( dbHelper.restoreCookies() );
+        	
+        	/* Send local edits first so the sync brings back their results.
+        	 * Whatever couldn't be sent is left alone by this sync. */
+        	if ( ChangeQueue.push( ctx, dbHelper, remoteSvc ) == RESULT_FAILURE_AUTH )
+        		return RESULT_FAILURE_AUTH;
+    		db = dbHelper.getWritableDatabase();
+    		this.pendingIDs = ChangeQueue.pendingIDs( db );
+    		db.beginTransaction();
+    	}
+    	catch ( SQLiteException ex ) {
+    		Log.w(TAG, "Error opening database", ex);
+    		return RESULT_FAILURE_DB;
+    	}
+    	
+    	/* If the last sync was interrupted, and was syncing back to the same 
+    	 * point as this one, continue where it left off. */
+    	int resumeOffset = syncPrefs.getInt(Prefs.PREF_SYNC_RESUME_OFFSET, 0);
+    	long resumeStarted = syncPrefs.getLong(Prefs.PREF_SYNC_RESUME_STARTED, 0);
+    	long resumeModified = syncPrefs.getLong(Prefs.PREF_SYNC_RESUME_MODIFIED, 0);
+    	boolean resume = resumeOffset > 0 && this.lastSyncTime == 
+    		syncPrefs.getLong(Prefs.PREF_SYNC_RESUME_SINCE, -1);
+    	
+    	/* A full sync stamps every bookmark it writes with a new generation, 
+    	 * then deletes whatever is left on an older one and wasn't seen 
+    	 * unchanged.  A resumed full sync carries on with the generation it 
+    	 * started. */
+    	boolean fullSync = this.lastSyncTime == 0;
+    	int generation = syncPrefs.getInt(Prefs.PREF_SYNC_GENERATION, 0);
+    	if ( fullSync && ! resume ) {
+    		generation++;
+    		syncPrefs.edit().putInt(Prefs.PREF_SYNC_GENERATION, generation).commit();
+    	}
+    	
+		try {
+    		labelCache = new LabelCache(db, true);
+			
+    		long start = System.nanoTime();
+    		remoteSvc.getXtParam(); // no-op if we already have it
+    		stats.add( SyncStats.AUTH, System.nanoTime() - start );
+			
+    		// sync label list
+    		// TODO this is mostly built off of the labels contained 
+    		// in the bookmarks now, so it might be possible to completely
+    		// remove the label sync request altogether.
+    		start = System.nanoTime();
+			List<Label> labels = remoteSvc.getLabels(stats);
+			stats.add( SyncStats.LABELS, System.nanoTime() - start );
+			
+			// label counts are kept by the DB as links are written
+			start = System.nanoTime();
+			try {
+	        	for ( Label l : labels ) {
+	        		if ( this.isCancelled() ) break;
+	        		labelCache.getOrCreate( l.getTitle() );
+	        	}
+			}
+			finally { stats.add( SyncStats.DB_WRITE, System.nanoTime() - start ); }
+
+			// sync bookmarks:
+	    	this.writer = new BookmarkUpsertWriter(db, labelCache, generation);
+	    	// unchanged bookmarks seen before an interruption aren't remembered
+	    	boolean sawAll = ! resume;
+	    	if ( resume ) {
+	    		/* Anything modified since the interrupted sync started is now 
+	    		 * at the head of the list; after that pick up where it stopped. */
+	    		Log.d(TAG, "Resuming interrupted sync at offset " + resumeOffset );
+	    		syncBookmarks( remoteSvc, 0, resumeStarted, -1, false );
+	    		if ( ! this.isCancelled() && ! syncBookmarks( remoteSvc, 
+	    				resumeOffset -1, lastSyncTime, resumeModified, true ) ) {
+	    			Log.d(TAG, "Bookmarks have shifted since the interrupted sync; starting over" );
+	    			syncBookmarks( remoteSvc, 0, lastSyncTime, -1, true );
+	    			sawAll = true;
+	    		}
+	    	}
+	    	else syncBookmarks( remoteSvc, 0, lastSyncTime, -1, true );
+        	writer.logStats();
+        	
+        	if ( ! this.isCancelled() ) {
+        		// an empty result is more likely a server hiccup than an empty account
+        		if ( fullSync && writer.getCount() > 0 ) {
+        			if ( sawAll ) sweep( generation, writer.getUnchangedIDs() );
+        			else Log.d(TAG, "Resumed full sync; leaving the sweep to the next one");
+        		}
+        		db.setTransactionSuccessful();
+        		syncPrefs.edit().remove(Prefs.PREF_SYNC_RESUME_SINCE)
+        			.remove(Prefs.PREF_SYNC_RESUME_STARTED)
+        			.remove(Prefs.PREF_SYNC_RESUME_OFFSET)
+        			.remove(Prefs.PREF_SYNC_RESUME_MODIFIED).commit();
+        	}
+			this.publishProgress(syncCount,1);
+			Log.d(TAG,"Sync'd " + syncCount + " bookmarks");
+		}
+		catch ( AuthException ex ) {
+			Log.d(TAG, "Auth error" );
+			return RESULT_FAILURE_AUTH;
+		}
+		catch ( Exception ex ) {
+			Log.e(TAG, "Error syncing bookmarks", ex);
+			return RESULT_FAILURE_UNKNOWN;
+		}
+		finally {
+			if ( writer != null ) {
+				writer.addTo( stats ); // even for a failed sync
+				writer.close();
+			}
+			if ( labelCache != null ) labelCache.close();
+			// commit() may have failed between ending one transaction & starting the next
+			if ( db.inTransaction() ) db.endTransaction();
+		}
+		
+		long start = System.nanoTime();
+		try {
+        	// sync browser bookmarks:
+        	if ( this.syncBrowserBookmarks && this.browserBookmarksLabel != null ) {
+        		Log.d(TAG, "Starting browser sync for label: " + browserBookmarksLabel ); 
+        		new BrowserSync(ctx).syncBrowserBookmarks( 
+        				this.browserBookmarksLabel, this.lastBrowserSyncTime );
+        	}			
+		}
+		catch ( DBException ex ) {
+			Log.w(TAG,"Database error while syncing browser bookmarks", ex);
+			return RESULT_FAILURE_DB;
+		}
+		catch ( Exception ex ) {
+			Log.w(TAG,"Exception while syncing browser bookmarks", ex);
+			return RESULT_FAILURE_UNKNOWN;
+		}
+		finally { stats.add( SyncStats.BROWSER_SYNC, System.nanoTime() - start ); }
+		
+    	return RESULT_SUCCESS;
+	}
+	
+	/**
+	 * Write bookmarks, starting at the given offset, until reaching one that 
+	 * was modified before <code>since</code>.  The transaction is committed 
+	 * every {@link #COMMIT_EVERY} bookmarks and at the end, even if the task 
+	 * is cancelled.
+	 * @param firstNotBefore if >= 0, give up without writing anything if the 
+	 *  first bookmark was modified before this.  That means bookmarks were 
+	 *  deleted since the resume offset was saved and some could be skipped.
+	 * @param checkpoint save the offset after each commit so the sync can 
+	 *  be resumed from there.
+	 * @return false if the pass was abandoned because of firstNotBefore
+	 */
+	private boolean syncBookmarks( BookmarksQueryService remoteSvc, int startIndex, 
+			long since, long firstNotBefore, boolean checkpoint ) 
+			throws IOException, DBException {
+		ThreadIterator<Bookmark> allBookmarks = remoteSvc.getAllBookmarks( 
+				since > 0 ? ThreadIterator.PREFETCH_PAGES_INCREMENTAL 
+						: ThreadIterator.PREFETCH_PAGES_FULL, startIndex );
+		if ( since < 1 ) allBookmarks.setConcurrency( ThreadIterator.FETCH_CONNECTIONS_FULL );
+		allBookmarks.setStats( stats );
+		int index = startIndex;
+		long lastModified = 0;
+		try {
+        	for ( Bookmark b : allBookmarks ) {
+        		if ( this.isCancelled() ) break;
+        		
+        		if ( index == startIndex && b.getModifiedDate() < firstNotBefore ) 
+        			return false;
+        		
+        		/* Bookmarks are returned in chrono order starting with the 
+        		 * most recently modified.  Keep iterating until we've reached 
+        		 * a bookmark whose 'modified' datetime is before the last sync time. */
+        		if ( b.getModifiedDate() < since ) break;
+        		
+        		if ( ! pendingIDs.contains( b.getGoogleId() ) ) writer.add(b);
+        		index++;
+        		lastModified = b.getModifiedDate();
+        		syncCount++;
+        		if ( ++uncommitted >= COMMIT_EVERY ) 
+        			commit( checkpoint, index, lastModified );
+        		
+        		// TODO different message if there were no new bookmarks.
+        		if ( syncCount % 10 == 0 ) this.publishProgress(syncCount,0);
+        	}
+        	// nothing at all past the offset; bookmarks must have been deleted
+        	if ( index == startIndex && firstNotBefore >= 0 && ! this.isCancelled() )
+        		return false;
+        	if ( uncommitted > 0 ) commit( checkpoint, index, lastModified );
+        	return true;
+		}
+		finally { allBookmarks.close(); }
+	}
+	
+	/**
+	 * Delete bookmarks that weren't seen by the full sync of the given 
+	 * generation, along with their label links & FTS rows, and any labels 
+	 * that no longer have bookmarks.  Bookmarks with local edits that 
+	 * haven't been sent are kept.
+	 * @param unchangedIDs bookmarks the sync saw but didn't stamp
+	 */
+	private void sweep( int generation, Set<Long> unchangedIDs ) {
+		long start = System.nanoTime();
+		List<Long> staleIDs = new ArrayList<Long>();
+		Cursor c = db.rawQuery( "select " + Bookmark.Columns._ID + " from " 
+			+ BOOKMARKS_TABLE_NAME + " where " + Bookmark.Columns.SYNC_GEN + "<?"
+			+ " and " + Bookmark.Columns._ID + " not in (select bookmark_id from " 
+			+ PENDING_CHANGES_TABLE_NAME + ")", new String[] { ""+generation } );
+		try {
+			while ( c.moveToNext() )
+				if ( ! unchangedIDs.contains( c.getLong(0) ) ) staleIDs.add( c.getLong(0) );
+		}
+		finally { c.close(); }
+		
+		int deleted = 0;
+		for ( int i=0; i< staleIDs.size(); i+= SWEEP_CHUNK ) {
+			StringBuilder ids = new StringBuilder();
+			for ( Long id : staleIDs.subList( i, Math.min( i + SWEEP_CHUNK, staleIDs.size() ) ) ) {
+				if ( ids.length() > 0 ) ids.append(',');
+				ids.append( id );
+			}
+			if ( ! GmarksProvider.DatabaseHelper.hasFTSTriggers() )
+				db.delete( FTS_TABLE_NAME, "docid in (" + ids + ")", null );
+			db.delete( BOOKMARK_LABELS_TABLE_NAME, "bookmark_id in (" + ids + ")", null );
+			deleted += db.delete( BOOKMARKS_TABLE_NAME, 
+					Bookmark.Columns._ID + " in (" + ids + ")", null );
+		}
+		int labels = db.delete( LABELS_TABLE_NAME, Label.Columns.COUNT + "<1", null );
+		stats.add( SyncStats.DB_WRITE, System.nanoTime() - start );
+		Log.d(TAG, "Removed " + deleted + " bookmarks and " + labels 
+				+ " labels left over from generation < " + generation );
+		if ( deleted > 0 || labels > 0 ) {
+			ContentResolver resolver = ctx.getContentResolver();
+			resolver.notifyChange(GmarksProvider.BOOKMARKS_CONTENT_URI, null);
+			resolver.notifyChange(GmarksProvider.LABELS_CONTENT_URI, null);
+		}
+	}
+	
+	/**
+	 * Commit everything written so far, record how far we've gotten and let 
+	 * any open lists know there are new bookmarks to show.
+	 */
+	private void commit( boolean checkpoint, int offset, long lastModified ) 
+			throws DBException {
+		writer.flush();
+		long start = System.nanoTime();
+		db.setTransactionSuccessful();
+		db.endTransaction();
+		stats.add( SyncStats.DB_WRITE, System.nanoTime() - start );
+		this.uncommitted = 0;
+		if ( checkpoint ) syncPrefs.edit()
+			.putLong(Prefs.PREF_SYNC_RESUME_SINCE, this.lastSyncTime)
+			.putLong(Prefs.PREF_SYNC_RESUME_STARTED, this.thisSyncTime)
+			.putInt(Prefs.PREF_SYNC_RESUME_OFFSET, offset)
+			.putLong(Prefs.PREF_SYNC_RESUME_MODIFIED, lastModified).commit();
+		
+		ContentResolver resolver = ctx.getContentResolver();
+		resolver.notifyChange(GmarksProvider.BOOKMARKS_CONTENT_URI, null);
+		resolver.notifyChange(GmarksProvider.LABELS_CONTENT_URI, null);
+		db.beginTransaction();
+	}
+	
+	/**
+	 * Add this sync's stats to the history served from 
+	 * {@link GmarksProvider#SYNC_STATS_CONTENT_URI}.
+	 */
+	private void saveStats( int result ) {
+		try {
+			GmarksProvider.DatabaseHelper.get(this.ctx).saveSyncStats( 
+					stats, this.lastSyncTime == 0, result );
+			ctx.getContentResolver().notifyChange(GmarksProvider.SYNC_STATS_CONTENT_URI, null);
+		}
+		catch ( SQLiteException ex ) {
+			Log.w(TAG, "Error saving sync stats", ex);
+		}
+	}
+	
+	@Override protected void onPostExecute( Integer result ) {
+		if ( result == RESULT_SUCCESS ) {
+			// open lists reload themselves in the background (see AsyncQuery.Adapter)
+			// from the change notifications sent as each batch is committed
+			// update shared 'last sync' state
+			Editor prefEditor = this.syncPrefs.edit();
+			prefEditor.putLong(Prefs.PREF_LAST_SYNC, this.thisSyncTime);
+			if ( this.syncBrowserBookmarks )
+				prefEditor.putLong(Prefs.PREF_LAST_BROWSER_SYNC, this.thisSyncTime);
+			prefEditor.commit();
+		}
+		onSyncFinished( result );
+		SyncCoordinator.finished( this, result );
+	}
+	
+	/**
+	 * Let the user know how the sync went.  Called for the task that ran the 
+	 * sync, and for any attached to it by {@link SyncCoordinator}, which 
+	 * never execute themselves.
+	 */
+	protected void onSyncFinished( int result ) {
+		boolean showNotification = this.syncPrefs.getBoolean(Prefs.KEY_SYNC_NOTIFICATION,true);
+		if ( result == RESULT_SUCCESS ) {
+			if (showToast) Toast.makeText(this.ctx, 
+					R.string.sync_done_msg, Toast.LENGTH_LONG).show();
+		}
+		else if ( result == RESULT_FAILURE_DB ) {
+			this.notificationManager.cancel(NOTIFY_SYNC_ID);
+			if (showToast) Toast.makeText(this.ctx, 
+					R.string.sync_db_error, Toast.LENGTH_LONG).show();
+		}
+		else if ( result == RESULT_FAILURE_AUTH ) {
+			if (this.ctx instanceof Activity) {
+				this.notificationManager.cancel(NOTIFY_SYNC_ID);
+				((Activity)this.ctx).startActivityForResult(
+						new Intent("org.thomnichols.gmarks.action.LOGIN"), 
+						Activity.RESULT_OK );
+			}
+			else if (this.ctx instanceof Service) // show notification
+				notifyAuthFailure( this.ctx, notification );
+		}
+		else { // most likely a connection-related error.
+			if ( showNotification ) {
+				Intent intent = new Intent( this.ctx, LabelsListActivity.class );
+				notification.setLatestEventInfo( this.ctx, 
+						ctx.getText(R.string.sync_notify_title), 
+						ctx.getText(R.string.sync_notify_error), 
+						PendingIntent.getActivity(this.ctx, 0, intent, 0) );
+				notification.flags &= ~Notification.FLAG_ONGOING_EVENT;
+				notification.flags |= Notification.FLAG_AUTO_CANCEL;
+				this.notificationManager.notify(NOTIFY_SYNC_ID, notification);
+			}
+			if (showToast) Toast.makeText(this.ctx, R.string.sync_notify_error, Toast.LENGTH_LONG).show();
+		}
+	}
+	
+	/**
+	 * Show a notification that opens the login screen.  Also used by 
+	 * {@link BackgroundService} when queued changes can't be pushed.
+	 */
+	static void notifyAuthFailure( Context ctx, Notification notification ) {
+		Intent intent = new Intent( "org.thomnichols.gmarks.action.LOGIN" );
+		notification.setLatestEventInfo( ctx, 
+				ctx.getText(R.string.sync_notify_title), 
+				ctx.getText(R.string.sync_notify_auth_error), 
+				PendingIntent.getActivity(ctx, 0, intent, 0) );
+		notification.flags &= ~Notification.FLAG_ONGOING_EVENT;
+		notification.flags |= Notification.FLAG_AUTO_CANCEL;
+		((NotificationManager)ctx.getSystemService(Context.NOTIFICATION_SERVICE))
+				.notify(NOTIFY_SYNC_ID, notification);
+	}
+	
+	@Override protected void onCancelled() {
+		Log.d( TAG, "Sync cancelled by user" );
+		// so the next sync isn't left waiting on this one
+		SyncCoordinator.finished( this, RESULT_FAILURE_UNKNOWN );
+	}
+	
+	@Override protected void onProgressUpdate(Integer... values) {
+		int count = values[0];
+		boolean done = values[1] == 1;
+		SyncCoordinator.progress( this, count );
+		if ( done && count == 0 ) {
+			this.notificationManager.cancel(NOTIFY_SYNC_ID);
+			return;
+		}
+		Intent intent = new Intent( this.ctx, LabelsListActivity.class );
+		notification.setLatestEventInfo( this.ctx, 
+				ctx.getText(R.string.sync_notify_title), 
+				ctx.getString(R.string.sync_notify_count, count), 
+				PendingIntent.getActivity(this.ctx, 0, intent, 0) );
+		if ( done ) { 
+			if ( this.syncPrefs.getBoolean(Prefs.KEY_SYNC_NOTIFICATION,true) ) {
+				notification.flags &= ~Notification.FLAG_ONGOING_EVENT;
+				notification.flags |= Notification.FLAG_AUTO_CANCEL;
+			}
+			else {
+				this.notificationManager.cancel(NOTIFY_SYNC_ID);
+				return;
+			}
+		}
+		else notification.flags |= Notification.FLAG_ONGOING_EVENT;
+
+		this.notificationManager.notify(NOTIFY_SYNC_ID, notification);
+	}
+}
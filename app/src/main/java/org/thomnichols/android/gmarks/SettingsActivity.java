@@ -125,10 +125,11 @@ public class SettingsActivity extends PreferenceActivity implements
 		final String key = pref.getKey();
 		if ( KEY_FULL_SYNC_ACTION.equals( key ) ) {
     		Log.d(TAG,"Performing full sync...");
-    		new RemoteSyncTask(this, true).execute();
+    		if ( ! SyncCoordinator.submit(new RemoteSyncTask(this, true)) )
+    			Toast.makeText(this, R.string.sync_in_progress_msg, Toast.LENGTH_SHORT).show();
     	}
 		else if ( KEY_LOGOUT_ACTION.equals( key ) ) {
-			new GmarksProvider.DatabaseHelper(this).clearCookies();
+			GmarksProvider.DatabaseHelper.get(this).clearCookies();
 			BookmarksQueryService.getInstance().clearAuthCookies();
 			new WebViewCookiesDB(this).deleteAllCookies();
 			Toast.makeText(this, R.string.logged_out_msg, Toast.LENGTH_LONG).show();
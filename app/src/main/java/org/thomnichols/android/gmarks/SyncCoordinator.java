@@ -0,0 +1,153 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Makes sure only one {@link RemoteSyncTask} runs at a time, whether it was
+ * started from the UI or by the {@link BackgroundService}.  A sync requested
+ * while another is running is attached to it rather than run again: it's
+ * told when the running sync finishes, as if it had done the work itself.
+ * The exception is a full sync requested during an incremental one, which
+ * is queued to run once the incremental sync is done.  UI that wants to
+ * show progress can register a {@link Listener}.
+ * <p>
+ * GMarks only has the one account (see {@link BookmarksQueryService}), so
+ * there's a single slot.  Everything here must be called on the UI thread,
+ * which is where AsyncTask delivers progress & results.
+ */
+final class SyncCoordinator {
+	static final String TAG = "GMARKS SYNC COORDINATOR";
+
+	interface Listener {
+		/**
+		 * Called when a sync starts, as it goes and when a listener is added
+		 * during a sync.
+		 * @param count bookmarks sync'd so far
+		 */
+		void onSyncProgress( int count );
+
+		/**
+		 * @param result one of the RemoteSyncTask <code>RESULT_*</code> codes
+		 */
+		void onSyncFinished( int result );
+	}
+
+	private static RemoteSyncTask running = null;
+	private static int runningCount = 0;
+	/** requested while the running sync was, and will share its result */
+	private static final List<RemoteSyncTask> attached = new ArrayList<RemoteSyncTask>();
+	/** a full sync to run after the current incremental one */
+	private static RemoteSyncTask queued = null;
+	private static final List<RemoteSyncTask> queuedAttached = new ArrayList<RemoteSyncTask>();
+	private static final List<Listener> listeners = new ArrayList<Listener>();
+
+	private SyncCoordinator() {}
+
+	/**
+	 * Run the given sync, or attach it to the one already running (or 
+	 * queued) if that will do the same work.  Either way the task's
+	 * {@link RemoteSyncTask#onSyncFinished(int)} is called with the result.
+	 * @return true if the sync started now, false if it's waiting on another
+	 */
+	static boolean submit( RemoteSyncTask task ) {
+		if ( running == null ) {
+			run( task );
+			return true;
+		}
+		if ( covers( running, task ) ) {
+			Log.d(TAG, "Sync in progress; attaching to it");
+			attached.add( task );
+		}
+		else if ( queued == null ) {
+			Log.d(TAG, "Incremental sync in progress; queueing a full sync");
+			queued = task;
+		}
+		else if ( covers( queued, task ) ) queuedAttached.add( task );
+		else { // upgrade the queued sync to a full one
+			queuedAttached.add( queued );
+			queued = task;
+		}
+		return false;
+	}
+
+	/** @return true if a sync is running */
+	static boolean isSyncing() {
+		return running != null;
+	}
+
+	/**
+	 * Start telling the listener about syncs.  If one is running the 
+	 * listener hears about it right away.
+	 */
+	static void addListener( Listener l ) {
+		if ( ! listeners.contains( l ) ) listeners.add( l );
+		if ( running != null ) l.onSyncProgress( runningCount );
+	}
+
+	static void removeListener( Listener l ) {
+		listeners.remove( l );
+	}
+
+	/** Called by the running task as it publishes progress */
+	static void progress( RemoteSyncTask task, int count ) {
+		if ( task != running ) return;
+		runningCount = count;
+		for ( Listener l : new ArrayList<Listener>( listeners ) )
+			l.onSyncProgress( count );
+	}
+
+	/**
+	 * Called by the running task when it's done, after its own
+	 * {@link RemoteSyncTask#onSyncFinished(int)}.  Passes the result to 
+	 * attached tasks & listeners, then starts any queued sync.
+	 */
+	static void finished( RemoteSyncTask task, int result ) {
+		if ( task != running ) return;
+		running = null;
+		List<RemoteSyncTask> done = new ArrayList<RemoteSyncTask>( attached );
+		attached.clear();
+		for ( RemoteSyncTask t : done ) t.onSyncFinished( result );
+		for ( Listener l : new ArrayList<Listener>( listeners ) )
+			l.onSyncFinished( result );
+
+		// one of the callbacks may have started another sync already
+		if ( queued != null && running == null ) {
+			RemoteSyncTask next = queued;
+			queued = null;
+			attached.addAll( queuedAttached );
+			queuedAttached.clear();
+			run( next );
+		}
+	}
+
+	private static void run( RemoteSyncTask task ) {
+		running = task;
+		runningCount = 0;
+		task.execute();
+		for ( Listener l : new ArrayList<Listener>( listeners ) )
+			l.onSyncProgress( 0 );
+	}
+
+	/** @return true if sync <code>a</code> does everything <code>b</code> would */
+	private static boolean covers( RemoteSyncTask a, RemoteSyncTask b ) {
+		return a.syncAll || ! b.syncAll;
+	}
+}
@@ -15,26 +15,29 @@
  */
 package org.thomnichols.android.gmarks;
 
-import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
-import org.thomnichols.android.gmarks.BookmarksQueryService.NotFoundException;
 import org.thomnichols.android.gmarks.GmarksProvider.DatabaseHelper;
 
 import android.app.ProgressDialog;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.Toast;
 
+/**
+ * Saves or deletes a bookmark locally and queues the change to be sent to
+ * the server by {@link ChangeQueue}, so it doesn't wait on the network.
+ */
 public class UpdateBookmarkTask extends AsyncTask<Void,Void,Integer> {
 	static final String TAG = "GMARK UPDATE TASK";
 	
-    static final int ACTION_DELETE = 0;
-    static final int ACTION_UPDATE = 1;
-    static final int ACTION_NEW = 2;
+    static final int ACTION_DELETE = PendingChange.DELETE;
+    static final int ACTION_UPDATE = PendingChange.UPDATE;
+    static final int ACTION_NEW = PendingChange.CREATE;
 
     static final int RESULT_OK = 0;
-    static final int RESULT_AUTH_FAILED = 1;
-    static final int RESULT_NOT_FOUND = 2;
     static final int RESULT_ERROR_UNKNOWN = 500;
     
     final int action;
@@ -53,13 +56,6 @@ public class UpdateBookmarkTask extends AsyncTask<Void,Void,Integer> {
     @Override
     protected void onPreExecute() {
     	super.onPreExecute();
-		BookmarksQueryService remoteSvc = BookmarksQueryService.getInstance();
-		
-		if ( ! remoteSvc.isAuthInitialized() ) {
-			DatabaseHelper dbHelper = new DatabaseHelper(this.ctx);
-			remoteSvc.setAuthCookies( dbHelper.restoreCookies() );
-		}
-		
     	if ( showProgress ) {
     		CharSequence progressText = ctx.getText(
     				this.action == ACTION_DELETE ?
@@ -72,45 +68,62 @@ public class UpdateBookmarkTask extends AsyncTask<Void,Void,Integer> {
     }
 	
 	@Override protected Integer doInBackground(Void... arg0) {
-		BookmarksQueryService remoteSvc = BookmarksQueryService.getInstance();
-		DatabaseHelper dbHelper = new DatabaseHelper(this.ctx);
+		DatabaseHelper dbHelper = DatabaseHelper.get(this.ctx);
 
 		try {
-			switch ( this.action ) {
-			case ACTION_NEW:
-				this.bookmark = remoteSvc.create(this.bookmark);
-				dbHelper.insert(this.bookmark, null);
-				break;
-			case ACTION_UPDATE:
-				this.bookmark = remoteSvc.update(this.bookmark);
-				dbHelper.update(this.bookmark, null);
-				break;
-			case ACTION_DELETE:
-				remoteSvc.delete(this.bookmark.getGoogleId());
-				dbHelper.deleteBookmark(this.bookmark.get_id(), null);
-				break;
+			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				switch ( this.action ) {
+				case ACTION_NEW:
+					this.bookmark = dbHelper.insert( localCopy(true), db );
+					ChangeQueue.add( ctx, db, action, bookmark.get_id() );
+					break;
+				case ACTION_UPDATE:
+					dbHelper.update( localCopy(false), db );
+					ChangeQueue.add( ctx, db, action, bookmark.get_id() );
+					break;
+				case ACTION_DELETE:
+					ChangeQueue.add( ctx, db, action, bookmark.get_id() );
+					dbHelper.deleteBookmark( bookmark.get_id(), db );
+					break;
+				}
+				db.setTransactionSuccessful();
 			}
-			Log.d(TAG,"Success!");
-			return RESULT_OK;
-		}
-		catch ( AuthException ex ) {
-			return RESULT_AUTH_FAILED;
-		}
-		catch ( NotFoundException ex ) {
-			return RESULT_NOT_FOUND;
+			finally { db.endTransaction(); }
+			Log.d(TAG,"Saved; queued change for bookmark " + bookmark.get_id() );
+			// the labels may have changed too; see LabelIndexCache
+			ContentResolver resolver = ctx.getContentResolver();
+			resolver.notifyChange(GmarksProvider.BOOKMARKS_CONTENT_URI, null);
+			resolver.notifyChange(GmarksProvider.LABELS_CONTENT_URI, null);
 		}
 		catch ( Exception ex ) {
 			Log.w(TAG, "Update error", ex );
 			return RESULT_ERROR_UNKNOWN;
 		}
-		finally { dbHelper.close(); }
+		
+		ChangeQueue.requestPush( ctx );
+		return RESULT_OK;
 	}
 	
 	/**
-	 * Override this method to handle an activity start when auth fails.
+	 * @return the fields as edited, to be written locally.  A new bookmark 
+	 * gets a made up google ID until it's created remotely.  An edited one 
+	 * has no google or thread ID so they aren't overwritten with stale ones.
 	 */
-	protected void onRemoteAuthFailure() {}
-
+	private Bookmark localCopy( boolean isNew ) {
+		long now = System.currentTimeMillis();
+		Bookmark b = this.bookmark;
+		String host = Uri.parse( b.getUrl() ).getHost();
+		Bookmark copy = new Bookmark( isNew ? ChangeQueue.newLocalID() : null, 
+				isNew ? "" : null, b.getTitle(), b.getUrl(), 
+				host != null ? host : b.getUrl(), b.getDescription(), 
+				isNew ? now : 0, now );
+		copy.set_id( b.get_id() );
+		copy.setLabels( b.getLabels() );
+		return copy;
+	}
+	
 	@Override
 	protected void onPostExecute(Integer resultCode ) {
 		
@@ -120,23 +133,8 @@ public class UpdateBookmarkTask extends AsyncTask<Void,Void,Integer> {
 			} catch ( IllegalArgumentException ex ) {} // if 'back' was pressed 
 		}
 		
-		if ( resultCode == RESULT_AUTH_FAILED ) {
-			this.onRemoteAuthFailure();
-			Toast.makeText( this.ctx, R.string.error_auth_failed_msg, 
-					Toast.LENGTH_LONG ).show();
-			return;
-		}
-		else if ( resultCode == RESULT_NOT_FOUND ) {
-			// if deleting, that's OK, we're just deleting a stale local bookmark.
-			Log.w(TAG,"Remote bookmark not found.");
-			if ( this.action != ACTION_DELETE ) {
-				Toast.makeText( this.ctx, R.string.error_not_found_msg, 
-						Toast.LENGTH_LONG ).show();				
-				return;
-			}
-		}
-		else if ( resultCode !=  RESULT_OK ) {
-			Log.w(TAG,"Update remote failed: " + resultCode );
+		if ( resultCode !=  RESULT_OK ) {
+			Log.w(TAG,"Update failed: " + resultCode );
 			int msgID = this.action == ACTION_DELETE ? 
 					R.string.error_delete_failed_msg : 
 					R.string.error_save_failed_msg;
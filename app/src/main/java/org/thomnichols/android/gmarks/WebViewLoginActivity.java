@@ -276,7 +276,7 @@ public class WebViewLoginActivity extends Activity {
 			}
 
 			if ( loggedIn ) {
-				new GmarksProvider.DatabaseHelper(WebViewLoginActivity.this)
+				GmarksProvider.DatabaseHelper.get(WebViewLoginActivity.this)
 						.persistCookies( cookies );
 				BookmarksQueryService.getInstance().setAuthCookies( cookies );
 			}
@@ -0,0 +1,217 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thomnichols.android.gmarks.GmarksProvider.Clauses;
+
+/**
+ * Runs <code>EXPLAIN QUERY PLAN</code> for each query the provider builds,
+ * plus the per-bookmark lookups done during a sync, against the schema from
+ * {@link GmarksProvider.DatabaseHelper#schema(boolean)}.  Fails if any of 
+ * them would scan a whole table instead of using an index, or if a page 
+ * after the first would walk its index from the top.  Also checks 
+ * that the triggers keep the FTS4 index in step with the bookmarks table.
+ */
+public class QueryPlanTest {
+
+	static final String BOOKMARK_COLUMNS = "bookmarks._id, title, url, modified";
+
+	/** SQL as built by GmarksProvider.query for each URI & sort */
+	static final String[] PROVIDER_QUERIES = {
+		// BOOKMARKS_URI & LIVE_FOLDER_BOOKMARKS_URI
+		select( BOOKMARK_COLUMNS, "bookmarks", null, Bookmark.Columns.SORT_MODIFIED, null ),
+		select( BOOKMARK_COLUMNS, "bookmarks", null, Bookmark.Columns.SORT_TITLE, null ),
+		select( BOOKMARK_COLUMNS, Clauses.LABEL_JOIN_TABLES, 
+				Clauses.LABEL_JOIN_WHERE, Bookmark.Columns.SORT_MODIFIED, null ),
+		select( BOOKMARK_COLUMNS, Clauses.LABEL_JOIN_TABLES, 
+				Clauses.LABEL_JOIN_WHERE, Bookmark.Columns.SORT_TITLE, null ),
+		// ...the first page of them
+		select( BOOKMARK_COLUMNS, "bookmarks", null, 
+				Clauses.pageOrder( Bookmark.Columns.SORT_MODIFIED ), "100" ),
+		select( BOOKMARK_COLUMNS, "bookmarks", null, 
+				Clauses.pageOrder( Bookmark.Columns.SORT_TITLE ), "100" ),
+		// BOOKMARK_SEARCH_URI & BOOKMARK_SEARCH_SUGGEST_URI
+		select( BOOKMARK_COLUMNS, "bookmarks", Clauses.SEARCH_WHERE,
+				Bookmark.Columns.SORT_MODIFIED, "50" ),
+		select( BOOKMARK_COLUMNS, "bookmarks", Clauses.SEARCH_WHERE + " AND " 
+				+ Clauses.pageWhere( Bookmark.Columns.SORT_MODIFIED, "3", null, "5" ),
+				Clauses.pageOrder( Bookmark.Columns.SORT_MODIFIED ), "100" ),
+		// BOOKMARK_ID_URI
+		select( BOOKMARK_COLUMNS, "bookmarks", "_id=1", null, null ),
+		// LABELS_URI
+		select( "_id, label, _count", "labels", Clauses.LABELS_WHERE, 
+				Label.Columns.SORT_ALPHA, null ),
+		select( "_id, label, _count", "labels", Clauses.LABELS_WHERE, 
+				Label.Columns.SORT_COUNT, null ),
+		// BOOKMARK_LISTS_URI
+		select( "_id, title", "bookmark_list", Clauses.listsWhere( BookmarkList.LISTS_PRIVATE ),
+				BookmarkList.Columns.DEFAULT_SORT_ORDER, null ),
+		select( "_id, title", "bookmark_list", Clauses.listsWhere( BookmarkList.LISTS_SHARED ),
+				BookmarkList.Columns.DEFAULT_SORT_ORDER, null ),
+		// SYNC_STATS_URI
+		select( "*", "sync_stats", null, SyncStats.Columns.DEFAULT_SORT_ORDER, null ),
+	};
+
+	/** 
+	 * Pages after the first, which must start with a search of the sort 
+	 * index rather than walking it from the top 
+	 */
+	static final String[] PAGE_QUERIES = {
+		select( BOOKMARK_COLUMNS, "bookmarks",
+				Clauses.pageWhere( Bookmark.Columns.SORT_MODIFIED, "3", null, "5" ),
+				Clauses.pageOrder( Bookmark.Columns.SORT_MODIFIED ), "100" ),
+		select( BOOKMARK_COLUMNS, "bookmarks",
+				Clauses.pageWhere( Bookmark.Columns.SORT_TITLE, "3", "it's", null ),
+				Clauses.pageOrder( Bookmark.Columns.SORT_TITLE ), "100" ),
+		select( BOOKMARK_COLUMNS, Clauses.LABEL_JOIN_TABLES, 
+				Clauses.LABEL_JOIN_WHERE + " AND " 
+				+ Clauses.pageWhere( Bookmark.Columns.SORT_MODIFIED, "3", null, "5" ),
+				Clauses.pageOrder( Bookmark.Columns.SORT_MODIFIED ), "100" ),
+		select( BOOKMARK_COLUMNS, Clauses.LABEL_JOIN_TABLES, 
+				Clauses.LABEL_JOIN_WHERE + " AND " 
+				+ Clauses.pageWhere( Bookmark.Columns.SORT_TITLE, "3", "a", null ),
+				Clauses.pageOrder( Bookmark.Columns.SORT_TITLE ), "100" ),
+	};
+
+	/** Statements run once per bookmark or list while syncing or editing */
+	static final String[] WRITE_PATH_QUERIES = {
+		"delete from bookmark_labels where bookmark_id=?",
+		"select label_id from bookmark_labels where bookmark_id=?",
+		"select _id from bookmarks where google_id=?",
+		"select _id from bookmarks where url=?",
+		"select _id from labels where label=?",
+		"select _id from bookmark_list where thread_id=?",
+		"delete from bookmarks_FTS where docid=?",
+	};
+
+	Connection db;
+
+	@Before public void setUp() throws Exception {
+		Class.forName( "org.sqlite.JDBC" );
+		db = DriverManager.getConnection( "jdbc:sqlite::memory:" );
+		Statement s = db.createStatement();
+		try {
+			for ( String sql : GmarksProvider.DatabaseHelper.schema( true ) )
+				s.executeUpdate( sql );
+		}
+		finally { s.close(); }
+	}
+
+	@After public void tearDown() throws Exception {
+		db.close();
+	}
+
+	@Test public void testProviderQueries() throws Exception {
+		for ( String sql : PROVIDER_QUERIES ) assertNoTableScan( sql );
+	}
+
+	@Test public void testPageQueries() throws Exception {
+		for ( String sql : PAGE_QUERIES ) assertNoScan( sql );
+	}
+
+	@Test public void testWritePathQueries() throws Exception {
+		for ( String sql : WRITE_PATH_QUERIES ) assertNoTableScan( sql );
+	}
+
+	@Test public void testFTSTriggers() throws Exception {
+		Statement s = db.createStatement();
+		try {
+			s.executeUpdate( "insert into bookmarks (google_id, thread_id, title, url,"
+					+ " host, labels, created, modified) values ('g1', 't1',"
+					+ " 'Android tips', 'http://example.com/', 'example.com', 'dev', 0, 0)" );
+			assertEquals( 1, countMatches( s, "andr*" ) );
+			assertEquals( 1, countMatches( s, "dev" ) );
+
+			s.executeUpdate( "update bookmarks set title='Kotlin guide', labels='' where google_id='g1'" );
+			assertEquals( 0, countMatches( s, "android" ) );
+			assertEquals( 0, countMatches( s, "dev" ) );
+			assertEquals( 1, countMatches( s, "kot*" ) );
+
+			// not an indexed column
+			s.executeUpdate( "update bookmarks set modified=1 where google_id='g1'" );
+			assertEquals( 1, countMatches( s, "guide" ) );
+
+			s.executeUpdate( "delete from bookmarks where google_id='g1'" );
+			assertEquals( 0, countMatches( s, "guide" ) );
+		}
+		finally { s.close(); }
+	}
+
+	int countMatches( Statement s, String query ) throws SQLException {
+		ResultSet rs = s.executeQuery( "select count(*) from bookmarks_FTS"
+				+ " where bookmarks_FTS MATCH '" + query + "'" );
+		try { return rs.next() ? rs.getInt(1) : 0; }
+		finally { rs.close(); }
+	}
+
+	/**
+	 * Builds a query the way SQLiteQueryBuilder does, with the appended
+	 * where clause in parentheses
+	 */
+	static String select( String columns, String tables, String where,
+			String orderBy, String limit ) {
+		StringBuilder sql = new StringBuilder( "select " ).append( columns )
+			.append( " from " ).append( tables );
+		if ( where != null ) sql.append( " where (" ).append( where ).append( ')' );
+		if ( orderBy != null ) sql.append( " order by " ).append( orderBy );
+		if ( limit != null ) sql.append( " limit " ).append( limit );
+		return sql.toString();
+	}
+
+	/** Fails on a scan of a table, but allows an ordered walk of an index */
+	void assertNoTableScan( String sql ) throws SQLException {
+		assertPlan( sql, false );
+	}
+
+	/** Fails on any scan, so a range must be found with an index search */
+	void assertNoScan( String sql ) throws SQLException {
+		assertPlan( sql, true );
+	}
+
+	void assertPlan( String sql, boolean indexScans ) throws SQLException {
+		PreparedStatement ps = db.prepareStatement( "explain query plan " + sql );
+		try {
+			int params = ps.getParameterMetaData().getParameterCount();
+			for ( int i=1; i<= params; i++ ) ps.setString( i, "1" );
+			ResultSet rs = ps.executeQuery();
+			StringBuilder plan = new StringBuilder();
+			boolean scan = false;
+			while ( rs.next() ) {
+				String detail = rs.getString( "detail" );
+				plan.append( "\n  " ).append( detail );
+				// FTS tables look up their own index; "SCAN x USING INDEX" is an ordered walk
+				if ( detail.startsWith( "SCAN" ) && detail.indexOf( "VIRTUAL TABLE" ) < 0
+						&& ( indexScans || detail.indexOf( " USING " ) < 0 ) ) scan = true;
+			}
+			rs.close();
+			if ( scan ) fail( ( indexScans ? "Scan for: " : "Full table scan for: " ) + sql + plan );
+		}
+		finally { ps.close(); }
+	}
+}
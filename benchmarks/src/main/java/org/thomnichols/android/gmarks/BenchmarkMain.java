@@ -0,0 +1,34 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Same as JMH's own Main, but always adds the GC profiler so allocation
+ * per operation (gc.alloc.rate.norm) is reported next to throughput.
+ * Takes the usual JMH arguments, e.g. <code>-p count=5000 Labels</code>.
+ */
+public class BenchmarkMain {
+	public static void main( String[] args ) throws Exception {
+		CommandLineOptions cmdLine = new CommandLineOptions( args );
+		new Runner( new OptionsBuilder().parent( cmdLine )
+				.addProfiler( GCProfiler.class ).build() ).run();
+	}
+}
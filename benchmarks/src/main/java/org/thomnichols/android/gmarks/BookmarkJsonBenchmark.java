@@ -0,0 +1,68 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding one threadsearch page (25 bookmarks) into {@link Bookmark}s,
+ * against just tokenizing it, which is the floor for any JSON mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookmarkJsonBenchmark {
+	String page;
+	BookmarksQueryService service;
+
+	@Setup
+	public void setUp() {
+		List<String> items = SyntheticBookmarks.items( ThreadIterator.PAGE_SIZE, 40, 42 );
+		this.page = SyntheticBookmarks.page( items, 0, items.size() );
+		this.service = SyntheticBookmarks.service( items );
+	}
+
+	@Benchmark
+	public void decodePage( Blackhole bh ) throws IOException {
+		for ( Bookmark b : new AllBookmarksIterator( service ) ) bh.consume( b );
+	}
+
+	@Benchmark
+	public void tokenizePage() throws IOException {
+		JsonStreamReader json = new JsonStreamReader( new StringReader(page) );
+		json.skipPrefix( ")]}'" );
+		json.skipValue();
+		json.close();
+	}
+}
@@ -0,0 +1,70 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Label parsing and joining, as done for every bookmark that's saved:
+ * {@link Bookmark#parseLabels(String)} for edits and
+ * {@link Bookmark#getAllLabels()} for the labels column and FTS row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelsBenchmark {
+	List<Bookmark> bookmarks;
+	String[] labelStrings;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.bookmarks = SyntheticBookmarks.bookmarks( 100, 40, 42 );
+		this.labelStrings = new String[bookmarks.size()];
+		for ( int i=0; i< labelStrings.length; i++ )
+			labelStrings[i] = bookmarks.get(i).getAllLabels() + ", , extra label ";
+	}
+
+	@Benchmark
+	public void parseLabels( Blackhole bh ) {
+		for ( String labels : labelStrings ) {
+			Bookmark b = new Bookmark( null, null, null, null, null, null, 0, 0 );
+			b.parseLabels( labels );
+			bh.consume( b );
+		}
+	}
+
+	@Benchmark
+	public void joinLabels( Blackhole bh ) {
+		for ( Bookmark b : bookmarks ) bh.consume( b.getAllLabels() );
+	}
+}
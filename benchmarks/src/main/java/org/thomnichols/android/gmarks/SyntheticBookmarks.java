@@ -0,0 +1,116 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Generates threadsearch responses like Google's, and a query service that
+ * serves them from memory so the benchmarks measure decoding, not the
+ * network.
+ */
+public final class SyntheticBookmarks {
+	static final String[] WORDS = { "android", "java", "recipe", "travel", "news", 
+		"music", "photo", "video", "blog", "docs", "mobile", "sync", "search", "maps" };
+
+	/** @return one bookmark JSON object per item, newest modified first */
+	public static List<String> items( int count, int labelCount, long seed ) {
+		Random rand = new Random( seed );
+		long now = 1300000000000L;
+		List<String> items = new ArrayList<String>( count );
+		for ( int i=0; i< count; i++ ) {
+			String host = "www." + WORDS[rand.nextInt(WORDS.length)] + (i % 97) + ".example.com";
+			StringBuilder desc = new StringBuilder();
+			for ( int w = rand.nextInt(30); w > 0; w-- )
+				desc.append( WORDS[rand.nextInt(WORDS.length)] ).append( ' ' );
+			StringBuilder labels = new StringBuilder();
+			for ( int l = rand.nextInt(4); l > 0; l-- ) {
+				if ( labels.length() > 0 ) labels.append( ',' );
+				labels.append( "\"label" ).append( rand.nextInt(labelCount) ).append( '"' );
+			}
+			long modified = now - i * 1000L;
+			items.add( "{\"elementId\":\"" + (i+1) + "\",\"threadId\":\"BDQAAAAAQAA\""
+					+ ",\"title\":\"Bookmark " + i + " \\u00e9 " + WORDS[rand.nextInt(WORDS.length)] + "\""
+					+ ",\"url\":\"http://" + host + "/page/" + i + "\""
+					+ ",\"host\":\"" + host + "\""
+					+ ",\"description\":\"" + desc.toString().trim() + "\""
+					+ ",\"timestamp\":" + (modified - rand.nextInt(1000000))
+					+ ",\"modifiedTimestamp\":" + modified
+					+ ",\"faviconUrl\":\"http://" + host + "/favicon.ico\""
+					+ ",\"labels\":[" + labels + "]}" );
+		}
+		return items;
+	}
+
+	/** @return the threadsearch response for <code>size</code> items from <code>start</code> */
+	public static String page( List<String> items, int start, int size ) {
+		StringBuilder json = new StringBuilder( ")]}'\n{\"nr\":" ).append( items.size() )
+			.append( ",\"threadTitles\":[" );
+		int end = Math.min( items.size(), start + size );
+		if ( start < end ) {
+			json.append( "{\"threadId\":\"BDQAAAAAQAA\",\"sectionContent\":[" );
+			for ( int i=start; i< end; i++ ) {
+				if ( i > start ) json.append( ',' );
+				json.append( items.get(i) );
+			}
+			json.append( "]}" );
+		}
+		return json.append( "]}" ).toString();
+	}
+
+	/** @return decoded bookmarks, for benchmarks that start after parsing */
+	public static List<Bookmark> bookmarks( int count, int labelCount, long seed ) 
+			throws IOException {
+		List<Bookmark> list = new ArrayList<Bookmark>( count );
+		for ( Bookmark b : new AllBookmarksIterator( service( items(count, labelCount, seed) ) ) ) 
+			list.add( b );
+		return list;
+	}
+
+	/** 
+	 * @return a service that answers threadsearch requests from memory.  
+	 *  Pages are built on first use and then reused.
+	 */
+	public static BookmarksQueryService service( final List<String> items ) {
+		final ConcurrentMap<Integer,String> pages = new ConcurrentHashMap<Integer,String>();
+		return new BookmarksQueryService( null, "http://localhost" ) {
+			@Override
+			protected String getXtParam() { return "xt"; }
+
+			@Override
+			protected JsonStreamReader queryJSONStream( String uri, StreamMeter meter ) 
+					throws IOException {
+				int start = Integer.parseInt( uri.substring( uri.lastIndexOf('=') +1 ) );
+				String page = pages.get( start );
+				if ( page == null ) {
+					page = SyntheticBookmarks.page( items, start, ThreadIterator.PAGE_SIZE );
+					pages.putIfAbsent( start, page );
+				}
+				JsonStreamReader json = new JsonStreamReader( new StringReader(page) );
+				json.skipPrefix( ")]}'" );
+				return json;
+			}
+		};
+	}
+
+	private SyntheticBookmarks() {}
+}
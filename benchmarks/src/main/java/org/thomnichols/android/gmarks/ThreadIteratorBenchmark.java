@@ -0,0 +1,77 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A full pass over every bookmark through {@link ThreadIterator}, with the
+ * pages served from memory.  Shows what prefetching and parallel fetching
+ * cost in threads and hand-offs when the network isn't the bottleneck.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadIteratorBenchmark {
+	@Param({ "1000" })
+	public int count;
+
+	@Param({ "0", "2" })
+	public int lookAhead;
+
+	@Param({ "1", "2" })
+	public int connections;
+
+	BookmarksQueryService service;
+
+	@Setup
+	public void setUp() {
+		this.service = SyntheticBookmarks.service( SyntheticBookmarks.items( count, 40, 42 ) );
+	}
+
+	@Benchmark
+	public int allBookmarks( Blackhole bh ) throws IOException {
+		ThreadIterator<Bookmark> i = service.getAllBookmarks( lookAhead );
+		i.setConcurrency( connections );
+		int n = 0;
+		try {
+			for ( Bookmark b : i ) {
+				bh.consume( b );
+				n++;
+			}
+		}
+		finally { i.close(); }
+		if ( n != count ) throw new IllegalStateException( "Expected " + count + " but got " + n );
+		return n;
+	}
+}
@@ -0,0 +1,107 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The decisions <code>BookmarkUpsertWriter</code> makes for each page of
+ * a sync, minus the SQLite lookups: {@link UpsertPlan} against stored
+ * modified times and {@link ContentFingerprint}s, and the label link diff
+ * for rows that are rewritten.  The stored state is a typical incremental
+ * sync: mostly unchanged, some touched, some updated, some new.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpsertPlanBenchmark {
+	List<Bookmark> page;
+	Map<String,long[]> stored; // google ID -> { modified, hash }
+	Map<String,List<Long>> links; // google ID -> linked label IDs
+	Map<String,Long> labelIDs;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.page = SyntheticBookmarks.bookmarks( ThreadIterator.PAGE_SIZE * 4, 40, 42 );
+		this.stored = new HashMap<String,long[]>();
+		this.links = new HashMap<String,List<Long>>();
+		this.labelIDs = new HashMap<String,Long>();
+		Random rand = new Random( 42 );
+		for ( Bookmark b : page ) {
+			for ( String label : b.getLabels() )
+				if ( ! labelIDs.containsKey(label) ) labelIDs.put( label, (long)labelIDs.size() );
+			int kind = rand.nextInt(10);
+			if ( kind == 0 ) continue; // new
+			long hash = ContentFingerprint.of(b);
+			if ( kind < 8 ) stored.put( b.getGoogleId(), new long[] { b.getModifiedDate(), hash } );
+			else if ( kind == 8 ) stored.put( b.getGoogleId(), new long[] { 1, hash } ); // touched
+			else stored.put( b.getGoogleId(), new long[] { 1, hash +1 } ); // updated
+			List<Long> linked = new ArrayList<Long>();
+			linked.add( (long)rand.nextInt(40) );
+			links.put( b.getGoogleId(), linked );
+		}
+	}
+
+	@Benchmark
+	public void planPage( Blackhole bh ) {
+		for ( Bookmark b : page ) {
+			long[] row = stored.get( b.getGoogleId() );
+			int action = UpsertPlan.byModified( row != null ? row[0] : -1, b );
+			if ( action == UpsertPlan.UNCHANGED ) {
+				bh.consume( action );
+				continue;
+			}
+			long hash = ContentFingerprint.of(b);
+			if ( action == UpsertPlan.COMPARE_HASH ) action = UpsertPlan.byHash( row[1], hash );
+			if ( action != UpsertPlan.TOUCH ) {
+				Set<Long> wanted = new HashSet<Long>();
+				for ( String label : b.getLabels() ) wanted.add( labelIDs.get(label) );
+				if ( action == UpsertPlan.UPDATE ) 
+					bh.consume( UpsertPlan.diffLinks( wanted, links.get( b.getGoogleId() ) ) );
+				bh.consume( wanted );
+			}
+			bh.consume( action );
+		}
+	}
+
+	@Benchmark
+	public void fingerprintPage( Blackhole bh ) {
+		for ( Bookmark b : page ) bh.consume( ContentFingerprint.of(b) );
+	}
+}
@@ -0,0 +1,91 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
+
+class AllBookmarksIterator extends ThreadIterator<Bookmark> {
+	
+	private static final String TAG = "BOOKMARKS ITERATOR";
+	private static final String THREAD_PARAM = "Starred";
+	
+	public AllBookmarksIterator(BookmarksQueryService svc) throws AuthException, IOException {
+		super(svc, THREAD_PARAM );
+	}
+	
+	public AllBookmarksIterator(BookmarksQueryService svc, int lookAhead) 
+			throws AuthException, IOException {
+		super(svc, THREAD_PARAM, lookAhead );
+	}
+	
+	public AllBookmarksIterator(BookmarksQueryService svc, int lookAhead, int startIndex) 
+			throws AuthException, IOException {
+		super(svc, THREAD_PARAM, lookAhead, startIndex );
+	}
+	
+	protected Bookmark readItem( JsonStreamReader json ) throws IOException {
+		String elementId = null, threadId = null, title = null, url = null,
+			host = null, description = null, faviconUrl = null;
+		long created = 0, modified = 0;
+		List<String> labels = new ArrayList<String>();
+		
+		json.beginObject();
+		while ( json.hasNext() ) {
+			String name = json.nextName();
+			if ( "elementId".equals(name) ) elementId = json.nextString();
+			else if ( "threadId".equals(name) ) threadId = json.nextString();
+			else if ( "title".equals(name) ) title = json.nextString();
+			else if ( "url".equals(name) ) url = json.nextString();
+			else if ( "host".equals(name) ) host = json.nextString();
+			else if ( "description".equals(name) ) description = json.nextString();
+			else if ( "timestamp".equals(name) ) created = json.nextLong();
+			else if ( "modifiedTimestamp".equals(name) ) modified = json.nextLong();
+			else if ( "faviconUrl".equals(name) ) faviconUrl = json.nextString();
+			else if ( "labels".equals(name) ) {
+				json.beginArray();
+				while ( json.hasNext() ) {
+					String label = json.nextString();
+					if ( label != null ) labels.add(label);
+				}
+				json.endArray();
+			}
+			else json.skipValue();
+		}
+		json.endObject();
+		
+		if ( elementId == null || url == null )
+			throw new IOException( "Bookmark JSON is missing elementId or url" );
+		
+		// stored in NOT NULL columns
+		if ( title == null ) title = "";
+		if ( host == null ) host = "";
+		if ( description == null ) description = "";
+		
+		Bookmark b = new Bookmark( elementId, threadId, title, url, 
+				host, description, created, modified );
+		b.getLabels().addAll( labels );
+		if ( faviconUrl != null ) b.setFaviconURL(faviconUrl);
+		return b;
+	}
+
+	protected String keyOf( Bookmark item ) {
+		return item.getGoogleId();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a batched create, update or delete.  Items are sent in
+ * chunks, one request per chunk, so a failed request fails every item in
+ * its chunk while the others can still succeed.
+ *
+ * @param <T> what was sent; a {@link Bookmark} or a google ID
+ */
+public class BatchResult<T> {
+	private final List<T> completed = new ArrayList<T>();
+	private final Map<T,IOException> failed = new LinkedHashMap<T,IOException>();
+	private int requests = 0;
+	private boolean authFailed = false;
+
+	void addCompleted( T item ) {
+		completed.add( item );
+	}
+
+	void addFailed( T item, IOException ex ) {
+		failed.put( item, ex );
+		if ( ex instanceof BookmarksQueryService.AuthException ) authFailed = true;
+	}
+
+	void addRequest() {
+		requests++;
+	}
+
+	/** @return what the server accepted.  Created & updated bookmarks are
+	 * the server's copy, with the <code>_id</code> of the bookmark sent. */
+	public List<T> getCompleted() {
+		return Collections.unmodifiableList( completed );
+	}
+
+	/** @return each item that wasn't sent or was rejected, in the order
+	 * sent, with the reason */
+	public Map<T,IOException> getFailed() {
+		return Collections.unmodifiableMap( failed );
+	}
+
+	public int getRequestCount() { return requests; }
+
+	/** @return true if the server asked to log in again; nothing after the
+	 * first such failure was sent */
+	public boolean isAuthFailed() { return authFailed; }
+
+	@Override public String toString() {
+		return "completed=" + completed.size() + ", failed=" + failed.size()
+			+ ", requests=" + requests;
+	}
+}
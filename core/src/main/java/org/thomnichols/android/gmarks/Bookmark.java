@@ -18,17 +18,14 @@ package org.thomnichols.android.gmarks;
 import java.util.HashSet;
 import java.util.Set;
 
-import android.net.Uri;
-import android.provider.BaseColumns;
-import android.text.TextUtils;
-
+/**
+ * A single bookmark.  Plain Java so it can be used off the device; the 
+ * content URI lives in the app's <code>GmarksProvider</code>.
+ */
 public class Bookmark {
 
 	public static final String AUTHORITY = "org.thomnichols.gmarks";
 
-	public static final Uri CONTENT_URI
- 		= Uri.parse("content://" + AUTHORITY + "/bookmarks" );
-
 	public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.bookmark";
 	
 	public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.bookmark";
@@ -70,8 +67,14 @@ public class Bookmark {
 		}
 	}
 	
+	/** @return the labels joined with ", ", as {@link #parseLabels(String)} reads them */
 	public String getAllLabels() {
-		return TextUtils.join( ", ", this.getLabels() );
+		StringBuilder sb = new StringBuilder();
+		for ( String label : this.getLabels() ) {
+			if ( sb.length() > 0 ) sb.append( ", " );
+			sb.append( label );
+		}
+		return sb.toString();
 	}
 	
 	public String getGoogleId() { return this.googleId; }
@@ -135,7 +138,8 @@ public class Bookmark {
 		return this.url != null ? this.url.hashCode() : super.hashCode();
 	}
 
-	public static final class Columns implements BaseColumns {
+	public static final class Columns {
+		public static final String _ID = "_id"; // same as BaseColumns
 		public static final String SORT_MODIFIED = "modified DESC";
 		public static final String SORT_TITLE = "title ASC";
 		public static final String DEFAULT_SORT_ORDER = SORT_MODIFIED;
@@ -150,5 +154,9 @@ public class Bookmark {
 		public static final String CREATED_DATE = "created";
 		public static final String MODIFIED_DATE = "modified";
 		public static final String LABELS = "labels";
+		/** Generation of the last full sync that saw this bookmark */
+		public static final String SYNC_GEN = "sync_gen";
+		/** {@link ContentFingerprint} of the stored fields */
+		public static final String CONTENT_HASH = "content_hash";
 	}
 }
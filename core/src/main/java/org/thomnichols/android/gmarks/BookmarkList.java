@@ -15,9 +15,6 @@
  */
 package org.thomnichols.android.gmarks;
 
-import android.net.Uri;
-import android.provider.BaseColumns;
-
 /**
  * Model class for bookmark lists
  * @author tnichols
@@ -26,7 +23,6 @@ import android.provider.BaseColumns;
 public class BookmarkList {
 	static final String TABLE_NAME = "bookmark_list";
 	
-	public static final Uri CONTENT_URI = Uri.parse("content://" + Bookmark.AUTHORITY + "/bookmark_lists" );
 	public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.bookmark_list";
 	public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.bookmark_list";
 
@@ -75,7 +71,8 @@ public class BookmarkList {
 	public Boolean isShared() { return shared; }
 	public Boolean isPublished() { return published; }
 
-	static final class Columns implements BaseColumns {
+	static final class Columns {
+		public static final String _ID = "_id"; // same as BaseColumns
 		public static final String SORT_MODIFIED = "modified DESC";
 		public static final String SORT_TITLE = "title ASC";
 		public static final String DEFAULT_SORT_ORDER = SORT_MODIFIED;
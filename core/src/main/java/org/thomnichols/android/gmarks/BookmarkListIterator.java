@@ -0,0 +1,59 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+
+import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
+
+public class BookmarkListIterator extends ThreadIterator<BookmarkList> {
+
+	public BookmarkListIterator(BookmarksQueryService svc, String listType) 
+			throws AuthException, IOException {
+		super(svc, listType);
+	}
+	
+	protected BookmarkList readItem( JsonStreamReader json ) throws IOException {
+		String threadId = null, title = null, description = null;
+		long created = 0, modified = 0;
+		boolean owned = false, shared = false, published = false;
+		
+		json.beginObject();
+		while ( json.hasNext() ) {
+			String name = json.nextName();
+			if ( "threadId".equals(name) ) threadId = json.nextString();
+			else if ( "title".equals(name) ) title = json.nextString();
+			else if ( "description".equals(name) ) description = json.nextString();
+			else if ( "timestamp".equals(name) ) created = json.nextLong();
+			else if ( "modifiedTimestamp".equals(name) ) modified = json.nextLong();
+			else if ( "isOwnedByUser".equals(name) ) owned = json.nextBoolean();
+			else if ( "isShared".equals(name) ) shared = json.nextBoolean();
+			else if ( "isPublished".equals(name) ) published = json.nextBoolean();
+			else json.skipValue();
+		}
+		json.endObject();
+		
+		if ( threadId == null ) 
+			throw new IOException( "Bookmark list JSON is missing threadId" );
+		
+		return new BookmarkList( threadId, title, description, created, modified,
+				owned, shared, published );
+	}
+
+	protected String keyOf( BookmarkList item ) {
+		return item.getThreadId();
+	}
+}
@@ -0,0 +1,825 @@
+/* This file is part of GMarks. Copyright 2010, 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.thomnichols.android.gmarks.thirdparty.IOUtils;
+
+/**
+ * @author tnichols
+ *
+ */
+public class BookmarksQueryService {
+
+	public synchronized static BookmarksQueryService getInstance() {
+		if ( instance == null ) instance = new BookmarksQueryService(null);
+		return instance;
+	}
+	
+	public class AuthException extends IOException {
+		private static final long serialVersionUID = 1L;
+		public AuthException() { super(); }
+		public AuthException( String msg ) { super(msg); }
+		public AuthException( Throwable cause) { super(cause); }
+		public AuthException( String msg, Throwable cause) { super(msg,cause); }
+	}
+	
+	public class NotFoundException extends IOException {
+		private static final long serialVersionUID = 1L;
+		public NotFoundException() { super(); }
+		public NotFoundException( String msg ) { super(msg); }
+		public NotFoundException( Throwable cause) { super(cause); }
+		public NotFoundException( String msg, Throwable cause) { super(msg,cause); }
+	}
+	
+	private static BookmarksQueryService instance = null;
+	
+	/** Scheme and host the bookmarks and accounts paths are relative to */
+	public static final String DEFAULT_BASE_URL = "https://www.google.com";
+	/** Bookmarks per request for {@link #createAll}, {@link #updateAll} & {@link #deleteAll} */
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	
+//	protected DefaultHttpClient http;
+	protected HttpClient http;
+	protected HttpContext ctx;
+//	protected String USER_AGENT = "";
+	protected CookieStore cookieStore;
+	protected String TAG = "GMARKS REMOTE SVC";
+	protected boolean authInitialized = false;
+	protected String xtParam = null;
+	protected String mainThreadId = null;
+	protected String baseURL = DEFAULT_BASE_URL;
+	
+	private BookmarksQueryService( String userAgent ) {
+//		java.util.logging.Logger.getLogger("httpclient.wire.header").setLevel(java.util.logging.Level.FINEST);
+//		java.util.logging.Logger.getLogger("httpclient.wire.content").setLevel(java.util.logging.Level.FINEST);
+		this( (HttpClient)null, DEFAULT_BASE_URL );
+		String defaultUA = "Mozilla/5.0 (Linux; U; Android 2.1; en-us) AppleWebKit/522+ (KHTML, like Gecko) Safari/419.3";
+//		http = new DefaultHttpClient();
+		http = newHttpClient( userAgent != null ? userAgent : defaultUA );
+	}
+	
+	/**
+	 * @return an AndroidHttpClient when running on a device.  Otherwise a 
+	 *  DefaultHttpClient set up the same way: no redirects and 2 
+	 *  connections per host.
+	 */
+	static HttpClient newHttpClient( String userAgent ) {
+		try {
+			Class<?> android = Class.forName( "android.net.http.AndroidHttpClient" );
+			return (HttpClient)android.getMethod( "newInstance", String.class )
+				.invoke( null, userAgent );
+		}
+		catch ( Throwable ex ) {} // not on a device
+		
+		HttpParams params = new BasicHttpParams();
+		HttpClientParams.setRedirecting( params, false );
+		if ( userAgent != null ) HttpProtocolParams.setUserAgent( params, userAgent );
+		SchemeRegistry schemes = new SchemeRegistry();
+		schemes.register( new Scheme( "http", PlainSocketFactory.getSocketFactory(), 80 ) );
+		schemes.register( new Scheme( "https", SSLSocketFactory.getSocketFactory(), 443 ) );
+		return new DefaultHttpClient( new ThreadSafeClientConnManager( params, schemes ), params );
+	}
+	
+	/**
+	 * For talking to something other than Google, e.g. a test server.  The 
+	 * client must not follow redirects, since {@link #login(String, String)}
+	 * checks for them.
+	 */
+	BookmarksQueryService( HttpClient http, String baseURL ) {
+		ctx = new BasicHttpContext();
+		cookieStore = new BasicCookieStore();
+		ctx.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+		this.http = http;
+		setBaseURL( baseURL );
+	}
+	
+	public String getBaseURL() {
+		return this.baseURL;
+	}
+	
+	/**
+	 * @param baseURL scheme and host, e.g. {@link #DEFAULT_BASE_URL}.  Any 
+	 *  trailing slash is dropped.
+	 */
+	public synchronized void setBaseURL( String baseURL ) {
+		while ( baseURL.endsWith("/") ) 
+			baseURL = baseURL.substring( 0, baseURL.length() -1 );
+		if ( ! baseURL.equals(this.baseURL) ) this.xtParam = null;
+		this.baseURL = baseURL;
+	}
+	
+	public void setAuthCookies( List<Cookie> cookies ) {
+		this.cookieStore.clear();
+		for ( Cookie c : cookies ) this.cookieStore.addCookie(c);
+		// TODO if cookies are expired, don't set them & notify caller they should be refreshed.
+		this.authInitialized = true;
+	}
+	
+	public boolean isAuthInitialized() {
+		return authInitialized;
+	}
+	
+	public void clearAuthCookies() {
+		this.cookieStore.clear();
+		this.authInitialized = false;
+	}
+	
+	public void login( String user, String passwd ) {
+		try {
+			List<NameValuePair> queryParams = new ArrayList<NameValuePair>();
+			queryParams.add( new BasicNameValuePair("service", "bookmarks") );
+			queryParams.add( new BasicNameValuePair("passive", "true") );
+			queryParams.add( new BasicNameValuePair("nui", "1") );
+			queryParams.add( new BasicNameValuePair("continue", baseURL + "/bookmarks/l") );
+			queryParams.add( new BasicNameValuePair("followup", baseURL + "/bookmarks/l") );
+			HttpGet get = new HttpGet( baseURL + "/accounts/ServiceLogin?" + 
+					URLEncodedUtils.format(queryParams, "UTF-8") );
+			HttpResponse resp = http.execute(get, this.ctx);
+			// this just gets the cookie but I can ignore it...
+			
+			if ( resp.getStatusLine().getStatusCode() != 200 )
+				throw new RuntimeException( "Invalid status code for ServiceLogin " +
+						resp.getStatusLine().getStatusCode() );
+			resp.getEntity().consumeContent();
+			
+			String galx = null;
+			for ( Cookie c : cookieStore.getCookies() )
+				if ( c.getName().equals( "GALX" ) ) galx = c.getValue(); 
+			
+			if ( galx == null ) throw new RuntimeException( "GALX cookie not found!" );
+			
+			HttpPost loginMethod = new HttpPost(baseURL + "/accounts/ServiceLoginAuth");
+			// post parameters:
+			List<NameValuePair> nvps = new ArrayList<NameValuePair>();
+			nvps.add(new BasicNameValuePair("Email", user));
+			nvps.add(new BasicNameValuePair("Passwd", passwd));
+			nvps.add(new BasicNameValuePair("PersistentCookie", "yes"));
+			nvps.add(new BasicNameValuePair("GALX", galx));			
+			nvps.add(new BasicNameValuePair("continue", baseURL + "/bookmarks/l"));
+			loginMethod.setEntity(new UrlEncodedFormEntity(nvps));
+			resp = http.execute( loginMethod, this.ctx );
+			
+			if ( resp.getStatusLine().getStatusCode() != 302 )
+				throw new RuntimeException( "Unexpected status code for ServiceLoginAuth" +
+						resp.getStatusLine().getStatusCode() );
+			resp.getEntity().consumeContent();
+			
+			Header checkCookieLocation = resp.getFirstHeader("Location");
+			if ( checkCookieLocation == null ) 
+				throw new RuntimeException("Missing checkCookie redirect location!");
+
+			// CheckCookie:
+			get = new HttpGet( checkCookieLocation.getValue() );
+			resp = http.execute( get, this.ctx );
+			
+			if ( resp.getStatusLine().getStatusCode() != 302 )
+				throw new RuntimeException( "Unexpected status code for CheckCookie" +
+						resp.getStatusLine().getStatusCode() );
+			resp.getEntity().consumeContent();
+			
+			this.authInitialized = true;
+			Logger.i(TAG, "Final redirect location: " + resp.getFirstHeader("Location").getValue() );
+			Logger.i(TAG, "Logged in.");
+		}
+		catch ( IOException ex ) {
+			Logger.e(TAG, "Error during login", ex );
+			throw new RuntimeException("IOException during login", ex);
+		}
+	}
+	
+	public boolean testAuth() {
+		HttpGet get = new HttpGet( baseURL + "/bookmarks/api/threadsearch?fo=Starred&g&q&start&nr=1" );
+		try {
+			HttpResponse resp = http.execute( get, this.ctx );
+			int statusCode = resp.getStatusLine().getStatusCode();
+			Logger.d( TAG, "testAuth return code: " + statusCode );
+			return statusCode < 400;
+		}
+		catch ( IOException ex ) {
+			Logger.e( TAG, "Error while checking auth status", ex );
+		}
+		return false;
+	}
+
+	public Bookmark create( Bookmark b ) throws IOException {
+		final String createURL = baseURL + "/bookmarks/api/thread?op=Star"
+			+ "&xt=" + URLEncoder.encode( getXtParam(), "UTF-8" );
+		
+		JSONObject requestObj = new JSONObject();
+		try {
+			JSONArray resultArray = new JSONArray();
+			resultArray.put( createJSON(b) );
+			requestObj.put("results", resultArray);			
+		}
+		catch ( JSONException ex ) {
+			throw new IOException( "Error creating request", ex );
+		}
+
+		return createOrUpdate( createURL, requestObj );
+	}
+	
+	public Bookmark update( Bookmark b ) throws IOException {
+		String updateURL = baseURL + "/bookmarks/api/thread?op=UpdateThreadElement" 
+			+ "&xt=" + URLEncoder.encode( getXtParam(), "UTF-8" );
+		
+		JSONObject requestObj = new JSONObject();
+		try {
+			JSONArray results = new JSONArray();
+			results.put( updateJSON(b) );
+			requestObj.put("threadResults", results);
+			addUpdateParams( requestObj );
+		}
+		catch ( JSONException ex ) {
+			throw new IOException( "Error creating request", ex );
+		}
+
+		Bookmark newBookmark = createOrUpdate( updateURL, requestObj );
+		if ( b.get_id() != null ) newBookmark.set_id(b.get_id());
+		// TODO created date is not in response
+//		if ( b.getCreatedDate() != 0 ) newBookmark.setCreatedDate(b.getCreatedDate());
+		return newBookmark;
+	}
+
+	public void delete(String googleId) throws AuthException, NotFoundException, IOException {
+		String requestURI = baseURL + "/bookmarks/api/thread"
+			+ "?xt=" + URLEncoder.encode( getXtParam(), "UTF-8" )
+			+ "&op=DeleteItems";
+//		final String deleteURL = "https://www.google.com/bookmarks/api/thread?"
+//			+ "xt=" + URLEncoder.encode( getXtParam(), "UTF-8" )  
+//			+ "&op=DeleteItems";
+		//  td	{"deleteAllBookmarks":false,"deleteAllThreads":false,"urls":[],"ids":["____"]}
+
+		JSONObject requestObj = new JSONObject();
+		try {
+			requestObj.put("deleteAllBookmarks", false);
+			requestObj.put("deleteAllThreads", false);
+			requestObj.put("urls", new JSONArray());
+			JSONArray elementIDs = new JSONArray();
+			elementIDs.put( googleId );
+			requestObj.put("ids", elementIDs);
+		}
+		catch ( JSONException ex ) {
+			throw new IOException( "JSON error while creating request" );
+		}
+		
+		String postString = "{\"deleteAllBookmarks\":false,\"deleteAllThreads\":false,\"urls\":[],\"ids\":[\""
+			+ googleId + "\"]}";
+		
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+//		params.add( new BasicNameValuePair("td", requestObj.toString()) );
+		params.add( new BasicNameValuePair("td", postString) );
+
+//		Logger.v(TAG,"DELETE: " + requestObj.toString());
+		Logger.v(TAG,"DELETE: " + requestURI );
+		Logger.v(TAG,"DELETE: " + postString);
+
+		HttpPost post = new HttpPost( requestURI );		
+//		HttpPost post = new HttpPost( deleteURL );		
+		post.setEntity( new UrlEncodedFormEntity(params) );
+		HttpResponse resp = http.execute( post, this.ctx );
+		
+		int respCode = resp.getStatusLine().getStatusCode();
+		if ( respCode == 401 ) throw new AuthException();
+		if ( respCode > 299 ) 
+			throw new IOException( "Unexpected response code: " + respCode );
+
+		try { // always assume a single item is created or updated.
+			JSONObject respObj = parseJSON(resp);
+			int deletedCount = respObj.getInt("numDeletedBookmarks");
+			
+			if ( deletedCount < 1 )
+				throw new NotFoundException( "Bookmark could not be found; " + googleId );
+			if ( deletedCount > 1 )
+				throw new IOException("Expected 1 deleted bookmark but got " + deletedCount );
+		} 
+		catch ( JSONException ex ) {
+			throw new IOException( "Response parse error", ex );
+		}
+	}
+	
+	/**
+	 * Create many bookmarks, <code>chunkSize</code> per request.
+	 * @return the created bookmarks, matched to the ones sent by URL.  A 
+	 *  bookmark whose URL isn't in the response fails, since it can't be
+	 *  told which result belongs to it.
+	 * @throws AuthException if the xt token can't be fetched; nothing was sent
+	 */
+	public BatchResult<Bookmark> createAll( List<Bookmark> bookmarks, int chunkSize ) 
+			throws AuthException, IOException {
+		final String createURL = baseURL + "/bookmarks/api/thread?op=Star"
+			+ "&xt=" + URLEncoder.encode( getXtParam(), "UTF-8" );
+
+		return sendAll( bookmarks, chunkSize, new ChunkSender<Bookmark>() {
+			public void send( List<Bookmark> chunk, BatchResult<Bookmark> result )
+					throws IOException, JSONException {
+				JSONArray resultArray = new JSONArray();
+				for ( Bookmark b : chunk ) resultArray.put( createJSON(b) );
+				JSONObject requestObj = new JSONObject();
+				requestObj.put("results", resultArray);
+
+				JSONArray created = postTD( createURL, requestObj ).getJSONArray("results");
+				// the same URL may be sent twice, so keep every result for it
+				Map<String,LinkedList<Bookmark>> byURL = new HashMap<String,LinkedList<Bookmark>>();
+				for ( int i=0; i< created.length(); i++ ) {
+					Bookmark b = parseBookmark( created.getJSONObject(i).getJSONObject("threadresult") );
+					LinkedList<Bookmark> same = byURL.get( b.getUrl() );
+					if ( same == null ) byURL.put( b.getUrl(), same = new LinkedList<Bookmark>() );
+					same.add( b );
+				}
+				for ( Bookmark sent : chunk ) {
+					LinkedList<Bookmark> same = byURL.get( sent.getUrl() );
+					if ( same == null || same.isEmpty() ) {
+						result.addFailed( sent, new IOException( "Not in response: " + sent.getUrl() ) );
+						continue;
+					}
+					Bookmark b = same.removeFirst();
+					b.set_id( sent.get_id() );
+					result.addCompleted( b );
+				}
+			}
+		});
+	}
+
+	/**
+	 * Update many bookmarks, <code>chunkSize</code> per request.  Bookmarks
+	 * the server doesn't return fail with a {@link NotFoundException}.
+	 * @throws AuthException if the xt token can't be fetched; nothing was sent
+	 */
+	public BatchResult<Bookmark> updateAll( List<Bookmark> bookmarks, int chunkSize ) 
+			throws AuthException, IOException {
+		final String updateURL = baseURL + "/bookmarks/api/thread?op=UpdateThreadElement" 
+			+ "&xt=" + URLEncoder.encode( getXtParam(), "UTF-8" );
+
+		return sendAll( bookmarks, chunkSize, new ChunkSender<Bookmark>() {
+			public void send( List<Bookmark> chunk, BatchResult<Bookmark> result )
+					throws IOException, JSONException {
+				JSONArray results = new JSONArray();
+				for ( Bookmark b : chunk ) results.put( updateJSON(b) );
+				JSONObject requestObj = new JSONObject();
+				requestObj.put("threadResults", results);
+				addUpdateParams( requestObj );
+
+				JSONArray updated;
+				try {
+					updated = postTD( updateURL, requestObj ).getJSONArray("threadResults");
+				}
+				catch ( NotFoundException ex ) { // none of them exist
+					for ( Bookmark b : chunk ) result.addFailed( b, ex );
+					return;
+				}
+				Map<String,Bookmark> byID = new HashMap<String,Bookmark>();
+				for ( int i=0; i< updated.length(); i++ ) {
+					Bookmark b = parseBookmark( updated.getJSONObject(i) );
+					byID.put( b.getGoogleId(), b );
+				}
+				for ( Bookmark sent : chunk ) {
+					Bookmark b = byID.get( sent.getGoogleId() );
+					if ( b == null ) {
+						result.addFailed( sent, new NotFoundException( 
+								"Bookmark could not be found; " + sent.getGoogleId() ) );
+						continue;
+					}
+					if ( sent.get_id() != null ) b.set_id( sent.get_id() );
+					result.addCompleted( b );
+				}
+			}
+		});
+	}
+
+	/**
+	 * Delete many bookmarks, <code>chunkSize</code> per request.  The
+	 * response only has a count, so an ID the server didn't find is 
+	 * treated as deleted.
+	 * @throws AuthException if the xt token can't be fetched; nothing was sent
+	 */
+	public BatchResult<String> deleteAll( List<String> googleIds, int chunkSize ) 
+			throws AuthException, IOException {
+		final String requestURI = baseURL + "/bookmarks/api/thread"
+			+ "?xt=" + URLEncoder.encode( getXtParam(), "UTF-8" )
+			+ "&op=DeleteItems";
+
+		return sendAll( googleIds, chunkSize, new ChunkSender<String>() {
+			public void send( List<String> chunk, BatchResult<String> result )
+					throws IOException, JSONException {
+				JSONArray elementIDs = new JSONArray();
+				for ( String id : chunk ) elementIDs.put( id );
+				JSONObject requestObj = new JSONObject();
+				requestObj.put("deleteAllBookmarks", false);
+				requestObj.put("deleteAllThreads", false);
+				requestObj.put("urls", new JSONArray());
+				requestObj.put("ids", elementIDs);
+
+				int deletedCount = postTD( requestURI, requestObj ).getInt("numDeletedBookmarks");
+				if ( deletedCount < chunk.size() )
+					Logger.d(TAG, (chunk.size() - deletedCount) + " of " + chunk.size() 
+							+ " bookmarks were already deleted");
+				for ( String id : chunk ) result.addCompleted( id );
+			}
+		});
+	}
+
+	/** Sends one chunk of a batch and records the outcome of each item */
+	private interface ChunkSender<T> {
+		void send( List<T> chunk, BatchResult<T> result ) throws IOException, JSONException;
+	}
+
+	/**
+	 * A failed request fails its whole chunk and the next chunk is tried,
+	 * unless it was an auth failure; then nothing else is sent.
+	 */
+	private <T> BatchResult<T> sendAll( List<T> items, int chunkSize, ChunkSender<T> sender ) {
+		BatchResult<T> result = new BatchResult<T>();
+		IOException authError = null;
+		for ( int start=0; start< items.size(); start += chunkSize ) {
+			List<T> chunk = items.subList( start, Math.min( items.size(), start + chunkSize ) );
+			if ( authError != null ) {
+				for ( T item : chunk ) result.addFailed( item, authError );
+				continue;
+			}
+			IOException error = null;
+			try {
+				result.addRequest();
+				sender.send( chunk, result );
+			}
+			catch ( JSONException ex ) {
+				error = new IOException( "Response parse error", ex );
+			}
+			catch ( IOException ex ) {
+				error = ex;
+			}
+			if ( error == null ) continue;
+			Logger.w(TAG, "Batch of " + chunk.size() + " failed", error );
+			if ( error instanceof AuthException ) authError = error;
+			for ( T item : chunk ) result.addFailed( item, error );
+		}
+		Logger.d(TAG, "Batch of " + items.size() + ": " + result );
+		return result;
+	}
+
+	/** @return the request object for a new bookmark */
+	private JSONObject createJSON( Bookmark b ) throws JSONException {
+//td {"results":[{"threadId":"BDQAAAAAQAA","elementId":0,"authorId":0,
+//                "title":"My Blog","timestamp":0,"formattedTimestamp":0,
+//                "url":"http://blog.thomnichols.org","signedUrl":"",
+//                "previewUrl":"","snippet":"___________","threadComments":[],
+//                "parentId":"BDQAAAAAQAA","labels":["mobile"]}]}
+		JSONObject bookmarkObj = new JSONObject();
+		// TODO this is part of a bookmark but I've been ignoring it...
+		bookmarkObj.put("threadId", this.mainThreadId);
+		bookmarkObj.put( "elementId", 0);
+		bookmarkObj.put( "title", b.getTitle() );
+		bookmarkObj.put( "url", b.getUrl() );
+		bookmarkObj.put( "snippet", b.getDescription() );
+		JSONArray labels = new JSONArray();
+		for (String label : b.getLabels() ) labels.put(label);
+		bookmarkObj.put( "labels", labels );
+		
+		bookmarkObj.put( "timestamp", 0 );
+		bookmarkObj.put( "formattedTimestamp", 0 );
+		bookmarkObj.put( "authorId", 0 );
+		bookmarkObj.put( "signedUrl", "" );
+		bookmarkObj.put( "previewUrl", "" );
+		bookmarkObj.put( "threadComments", new JSONArray() );
+		// this is the same as threadId...  Do I need to know the value for this??
+		bookmarkObj.put( "parentId", this.mainThreadId );
+		return bookmarkObj;
+	}
+
+	/** @return the request object for an existing bookmark */
+	private JSONObject updateJSON( Bookmark b ) throws JSONException {
+		JSONObject bookmarkObj = new JSONObject();
+		// TODO this is part of a bookmark but I've been ignoring it...
+		bookmarkObj.put("threadId", b.getThreadId());
+		bookmarkObj.put( "elementId", b.getGoogleId());
+		bookmarkObj.put( "title", b.getTitle() );
+		bookmarkObj.put( "url", b.getUrl() );
+		bookmarkObj.put( "snippet", b.getDescription() );
+		JSONArray labels = new JSONArray();
+		for (String label : b.getLabels() ) labels.put(label);
+		bookmarkObj.put( "labels", labels );
+		
+// these are in the request but empty... maybe we can ignore them???
+//			"authorId":0,"timestamp":0,"formattedTimestamp":0,"signedUrl":"",
+//			"previewUrl":"","threadComments":[],"parentId":"",
+		bookmarkObj.put( "authorId", 0 );
+		bookmarkObj.put( "timestamp", 0 );
+		bookmarkObj.put( "formattedTimestamp", 0 );
+		bookmarkObj.put( "signedUrl", "" );
+		bookmarkObj.put( "previewUrl", "" );
+		bookmarkObj.put( "threadComments", new JSONArray() );
+		bookmarkObj.put( "parentId", "" );
+		return bookmarkObj;
+	}
+
+	private void addUpdateParams( JSONObject requestObj ) throws JSONException {
+		// other unneeded params that are part of an update request:
+		JSONArray emptyArray = new JSONArray();
+		requestObj.put("threads", emptyArray);
+		requestObj.put("threadQueries", emptyArray);
+		requestObj.put("threadComments", emptyArray);
+	}
+	
+	protected Bookmark createOrUpdate( String url, JSONObject requestObj ) throws AuthException, IOException {
+		try { // always assume a single item is created or updated.
+			JSONObject respObj = postTD( url, requestObj );
+			if ( respObj.has("results") ) // create response:
+				respObj = respObj.getJSONArray("results").getJSONObject(0).getJSONObject("threadresult");
+			else respObj = respObj.getJSONArray("threadResults").getJSONObject(0);
+			return parseBookmark( respObj );
+		} 
+		catch ( JSONException ex ) {
+			Logger.w(TAG, "Response parse error", ex );
+			throw new IOException( "Response parse error" );
+		}
+	}
+
+	/** Post the request object as the <code>td</code> parameter */
+	protected JSONObject postTD( String url, JSONObject requestObj ) 
+			throws AuthException, IOException, JSONException {
+		HttpPost post = new HttpPost( url );
+		
+//		Logger.v(TAG, "UPDATE: " + url);
+//		Logger.v(TAG, "UPDATE: " + requestObj);
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+		params.add( new BasicNameValuePair("td", requestObj.toString()) );
+		post.setEntity( new UrlEncodedFormEntity(params, "UTF-8") );
+		HttpResponse resp = http.execute( post, this.ctx );
+		
+		int respCode = resp.getStatusLine().getStatusCode(); 
+		if ( respCode == 401 ) throw new AuthException();
+		if ( respCode == 404 ) throw new NotFoundException();
+		if ( respCode > 299 ) 
+			throw new IOException( "Unexpected response code: " + respCode );
+		return parseJSON(resp);
+	}
+
+	private Bookmark parseBookmark( JSONObject respObj ) throws JSONException {
+		Bookmark b = new Bookmark( respObj.getString("elementId"),
+				respObj.getString("threadId"),
+				respObj.getString("title"),
+				respObj.getString("url"),
+				respObj.getString("host"),
+				respObj.getString("snippet"),
+				-1, // no created date in response
+				respObj.getLong("timestamp") );
+			
+		if ( respObj.has("faviconUrl") ) b.setFaviconURL(respObj.getString("faviconUrl"));
+			
+//		Logger.v(TAG, "RESPONSE: " + respObj );
+		if ( respObj.has("labels") ) {
+			JSONArray labelJSON = respObj.getJSONArray("labels");
+				
+			for ( int i=0; i< labelJSON.length(); i++ )
+				b.getLabels().add(labelJSON.getString(i));
+		} 
+		return b;
+	}
+	
+	protected String getXtParam() throws AuthException, IOException {
+		if ( this.xtParam != null ) return this.xtParam; // already init'd
+		
+		HttpGet get = new HttpGet(baseURL + "/bookmarks/l");
+		
+		HttpResponse resp = http.execute(get, this.ctx);
+		
+		final int responseCode = resp.getStatusLine().getStatusCode();
+		if ( responseCode == 401 ) 
+			throw new AuthException("Please log in");
+		if (  responseCode != 200 ) 
+			throw new IOException( "Unexpected response code: " + responseCode );
+		
+		// TODO encoding
+		final String respString = IOUtils.toString( resp.getEntity().getContent() );
+		
+		final String xtSearchString = ";SL.xt = '";
+		int startIndex = respString.indexOf(xtSearchString);
+		if ( startIndex < 0 ) throw new IOException("Could not find xtSearchString");
+		startIndex += xtSearchString.length(); 
+		this.xtParam = respString.substring( startIndex, 
+				respString.indexOf("'", startIndex) );
+//		Logger.d(TAG, "XT context: " + respString.substring( startIndex-10, 
+//				respString.indexOf("'", startIndex)+5 ) );
+		Logger.d(TAG, "GOT XT PARAM: " + xtParam );
+		
+		// Get main thread ID:
+		final String mainThreadSearchString = "(a.threadID):\"";
+		startIndex = respString.indexOf(mainThreadSearchString);
+		if ( startIndex < 0 ) throw new IOException("Could not find thread ID");
+		startIndex += mainThreadSearchString.length(); 
+		this.mainThreadId = respString.substring( startIndex, 
+				respString.indexOf("\"", startIndex) );
+		Logger.d(TAG, "GOT THREAD ID: " + mainThreadId );
+		
+		return this.xtParam;
+	}
+	
+	protected JSONObject queryJSON(String uri) throws AuthException, JSONException, IOException {
+		return parseJSON( queryGet(uri) );
+	}
+	
+	/**
+	 * Like {@link #queryJSON(String)} but the response is decoded as it is 
+	 * read from the connection rather than buffered into a String and a 
+	 * JSONObject first.  The caller must close the returned reader.
+	 */
+	protected JsonStreamReader queryJSONStream(String uri) throws AuthException, IOException {
+		return queryJSONStream( uri, null );
+	}
+	
+	/**
+	 * @param meter if not null, measures the request and the bytes read 
+	 *  from the response.
+	 */
+	protected JsonStreamReader queryJSONStream(String uri, StreamMeter meter) 
+			throws AuthException, IOException {
+		long start = System.nanoTime();
+		HttpResponse resp = queryGet(uri);
+		InputStream in = resp.getEntity().getContent();
+		if ( meter != null ) {
+			meter.requestNanos += System.nanoTime() - start;
+			in = meter.wrap( in );
+		}
+		JsonStreamReader json = new JsonStreamReader( 
+				new InputStreamReader( in, getCharset(resp) ) );
+		json.skipPrefix(")]}'");
+		return json;
+	}
+	
+	private HttpResponse queryGet(String uri) throws AuthException, IOException {
+		HttpGet get = new HttpGet(uri);
+
+		// pages may be fetched from several threads; the context isn't 
+		// thread safe but the cookie store it shares is.
+		HttpResponse resp = http.execute( get, new BasicHttpContext(this.ctx) );
+		int code = resp.getStatusLine().getStatusCode();
+		if ( code == 401 || code == 403 ) {
+			Logger.d(TAG, "Auth failure from queryJSON");
+			resp.getEntity().consumeContent();
+			throw new AuthException(); 
+		}
+		if ( code != 200 ) {
+			Logger.e( TAG, "Unexpected response code: " + code );
+			resp.getEntity().consumeContent();
+			throw new IOException("Unexpected response code: " + code );
+		}
+		return resp;
+	}
+	
+	private String getCharset( HttpResponse resp ) {
+		try {
+			return resp.getEntity().getContentType().getElements()[0]
+			                     .getParameterByName("charset").getValue();			
+		}
+		catch ( Exception ex ) { return "UTF-8"; }
+	}
+	
+	protected JSONObject parseJSON( HttpResponse resp ) throws IOException, JSONException {
+		String charset = getCharset(resp);
+		String respData = IOUtils.toString( resp.getEntity().getContent(), charset );
+		resp.getEntity().consumeContent();
+		if ( respData.startsWith(")]}'") )
+			respData = respData.substring( respData.indexOf("\n") );
+		
+		JSONTokener parser = new JSONTokener(respData);
+		return (JSONObject) parser.nextValue();
+	}
+	
+	public List<Label> getLabels() throws IOException {
+		return getLabels( null );
+	}
+	
+	/** @param stats if not null, the response size is added to it */
+	public List<Label> getLabels( SyncStats stats ) throws IOException {
+		String uri = baseURL + "/bookmarks/api/bookmark?op=LIST_LABELS";
+		
+		StreamMeter meter = new StreamMeter();
+		JsonStreamReader json = queryJSONStream(uri, meter);
+		try {
+			List<String> labels = new ArrayList<String>();
+			List<Integer> counts = new ArrayList<Integer>();
+			json.beginObject();
+			while ( json.hasNext() ) {
+				String name = json.nextName();
+				if ( "labels".equals(name) ) {
+					json.beginArray();
+					while ( json.hasNext() ) labels.add( json.nextString() );
+					json.endArray();
+				}
+				else if ( "counts".equals(name) ) {
+					json.beginArray();
+					while ( json.hasNext() ) counts.add( json.nextInt() );
+					json.endArray();
+				}
+				else json.skipValue();
+			}
+			json.endObject();
+			
+			if ( labels.size() != counts.size() ) 
+				throw new IOException("Labels and counts don't match: " 
+						+ labels.size() + " != " + counts.size() );
+			ArrayList<Label> list = new ArrayList<Label>();
+			for ( int i=0; i< labels.size(); i++ )
+				list.add( new Label(labels.get(i), counts.get(i)) );
+			
+			return list;
+		}
+		catch ( IOException ex ) {
+			Logger.e(TAG, "Labels query JSON parse exception", ex );
+			throw ex;
+		}
+		finally { 
+			json.close();
+			if ( stats != null ) stats.addBytes( meter.bytes );
+		}
+	}
+	
+	public Iterable<BookmarkList> getMyBookmarks() throws AuthException, IOException {
+		return new BookmarkListIterator(this, BookmarkList.LISTS_PRIVATE);
+	}
+	public Iterable<BookmarkList> getSharedBookmarks() throws AuthException, IOException {
+		return new BookmarkListIterator(this, BookmarkList.LISTS_SHARED);
+	}
+	public Iterable<BookmarkList> getPublishedBookmarks() throws AuthException, IOException {
+		return new BookmarkListIterator(this, BookmarkList.LISTS_PUBLIC);
+	}
+
+	/**
+	 * This has the potential to be relatively large..
+	 */
+	public Iterable<Bookmark> getAllBookmarks() throws AuthException, IOException {
+		// make a sequence of JSON requests until they've all been retrieved.
+		// max 25 bookmarks can be requested at one time.
+		return new AllBookmarksIterator(this);
+	}
+	
+	/**
+	 * Like {@link #getAllBookmarks()} but pages are downloaded on a background
+	 * thread, up to <code>lookAhead</code> pages ahead of the caller.  The
+	 * caller must {@link ThreadIterator#close() close} the iterator if it 
+	 * stops before reaching the end.
+	 */
+	public ThreadIterator<Bookmark> getAllBookmarks(int lookAhead) throws AuthException, IOException {
+		return new AllBookmarksIterator(this, lookAhead);
+	}
+	
+	/**
+	 * Like {@link #getAllBookmarks(int)} but skips the first 
+	 * <code>startIndex</code> (most recently modified) bookmarks.
+	 */
+	public ThreadIterator<Bookmark> getAllBookmarks(int lookAhead, int startIndex) 
+			throws AuthException, IOException {
+		return new AllBookmarksIterator(this, lookAhead, startIndex);
+	}
+}
@@ -0,0 +1,65 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 64-bit FNV-1a hash of everything about a bookmark that the app stores:
+ * title, url, host, description, labels and favicon.  If two fingerprints
+ * match there's nothing to write.  Labels are sorted first since their
+ * order doesn't matter.
+ */
+final class ContentFingerprint {
+	/** Stored for rows whose fingerprint isn't known; never returned by {@link #of} */
+	static final long UNKNOWN = 0;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	static long of( Bookmark b ) {
+		long hash = FNV_OFFSET;
+		hash = add( hash, b.getTitle() );
+		hash = add( hash, b.getUrl() );
+		hash = add( hash, b.getHost() );
+		hash = add( hash, b.getDescription() );
+		hash = add( hash, b.getFaviconURL() );
+		if ( b.getLabels() != null ) {
+			List<String> labels = new ArrayList<String>( b.getLabels() );
+			Collections.sort( labels );
+			for ( String label : labels ) hash = add( hash, label );
+		}
+		return hash == UNKNOWN ? 1 : hash;
+	}
+
+	/** Hash each char, then a separator so ("ab","c") != ("a","bc") */
+	private static long add( long hash, String val ) {
+		if ( val == null ) return mix( hash, 0xffff );
+		for ( int i=0; i< val.length(); i++ ) hash = mix( hash, val.charAt(i) );
+		return mix( hash, 0 );
+	}
+
+	private static long mix( long hash, int c ) {
+		hash ^= c & 0xff;
+		hash *= FNV_PRIME;
+		hash ^= c >>> 8;
+		return hash * FNV_PRIME;
+	}
+
+	private ContentFingerprint() {}
+}
@@ -0,0 +1,97 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads values in the background, one load per key at a time: asking for a
+ * key that's already being loaded adds the caller to the waiting list
+ * instead of starting a second load.  How many loads run at once is up to
+ * the executor, i.e. a fixed size thread pool.
+ */
+public abstract class DedupingFetcher<K,V> {
+	static final String TAG = "GMARKS FETCHER";
+
+	public interface Callback<K,V> {
+		/**
+		 * Called on the loading thread.
+		 * @param value the loaded value, or null if the load failed
+		 */
+		void onFetched( K key, V value );
+	}
+
+	private final Executor executor;
+	/** callbacks waiting on each key being loaded */
+	private final Map<K, List<Callback<K,V>>> inFlight =
+		new HashMap<K, List<Callback<K,V>>>();
+
+	protected DedupingFetcher( Executor executor ) {
+		this.executor = executor;
+	}
+
+	/** Load the value for a key; called on one of the executor's threads */
+	protected abstract V load( K key ) throws Exception;
+
+	/**
+	 * Start loading the key, unless it's already being loaded.
+	 * @param callback told when the value's loaded; may be null
+	 * @return true if a load was started, false if one was already running
+	 */
+	public boolean fetch( final K key, Callback<K,V> callback ) {
+		synchronized ( inFlight ) {
+			List<Callback<K,V>> waiting = inFlight.get( key );
+			boolean started = waiting == null;
+			if ( started ) {
+				waiting = new ArrayList<Callback<K,V>>( 2 );
+				inFlight.put( key, waiting );
+			}
+			if ( callback != null ) waiting.add( callback );
+			if ( ! started ) return false;
+		}
+		executor.execute( new Runnable() {
+			public void run() {
+				V value = null;
+				try { value = load( key ); }
+				catch ( Exception ex ) {
+					Logger.d( TAG, "Couldn't load " + key + ": " + ex );
+				}
+				finally { done( key, value ); }
+			}
+		});
+		return true;
+	}
+
+	/** @return true if the key is being loaded */
+	public boolean isInFlight( K key ) {
+		synchronized ( inFlight ) { return inFlight.containsKey( key ); }
+	}
+
+	private void done( K key, V value ) {
+		List<Callback<K,V>> waiting;
+		synchronized ( inFlight ) { waiting = inFlight.remove( key ); }
+		for ( Callback<K,V> callback : waiting ) {
+			try { callback.onFetched( key, value ); }
+			catch ( RuntimeException ex ) {
+				Logger.w( TAG, "Callback failed for " + key, ex );
+			}
+		}
+	}
+}
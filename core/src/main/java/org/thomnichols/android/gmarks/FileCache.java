@@ -0,0 +1,107 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Small blobs kept as files in one directory, one per key, which expire a
+ * fixed time after they were written.  An empty blob is a valid entry, 
+ * i.e. to remember that there's nothing to fetch for a key.
+ */
+public class FileCache {
+	private final File dir;
+	private final long ttl;
+
+	/**
+	 * @param dir created if it doesn't exist
+	 * @param ttl ms an entry stays fresh
+	 */
+	public FileCache( File dir, long ttl ) {
+		this.dir = dir;
+		this.ttl = ttl;
+	}
+
+	/** Keys become file names, so anything but letters, digits, '.' & '-' is replaced */
+	File fileFor( String key ) {
+		StringBuilder name = new StringBuilder( key.length() );
+		for ( int i=0; i< key.length(); i++ ) {
+			char c = key.charAt(i);
+			name.append( c < 128 && ( Character.isLetterOrDigit(c) 
+					|| c == '.' || c == '-' ) ? c : '_' );
+		}
+		return new File( dir, name.toString() );
+	}
+
+	private boolean isFresh( File f, long now ) {
+		long written = f.lastModified(); // 0 if it doesn't exist
+		return written > 0 && now - written < ttl;
+	}
+
+	/** @return true if there's an entry for the key that hasn't expired */
+	public boolean contains( String key, long now ) {
+		return isFresh( fileFor( key ), now );
+	}
+
+	/** @return the entry for the key, or null if there's none or it has expired */
+	public byte[] get( String key, long now ) throws IOException {
+		File f = fileFor( key );
+		if ( ! isFresh( f, now ) ) return null;
+		InputStream in = new FileInputStream( f );
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream( (int)f.length() );
+			byte[] buf = new byte[4096];
+			for ( int n; (n = in.read( buf )) > 0; ) data.write( buf, 0, n );
+			return data.toByteArray();
+		}
+		finally { in.close(); }
+	}
+
+	/** Write the entry for a key; readers never see a partly written file */
+	public void put( String key, byte[] data ) throws IOException {
+		if ( ! dir.isDirectory() && ! dir.mkdirs() ) 
+			throw new IOException( "Can't create " + dir );
+		File f = fileFor( key );
+		File tmp = new File( dir, f.getName() + ".tmp" );
+		OutputStream out = new FileOutputStream( tmp );
+		try { out.write( data ); }
+		finally { out.close(); }
+		if ( ! tmp.renameTo( f ) ) {
+			tmp.delete();
+			throw new IOException( "Can't write " + f );
+		}
+	}
+
+	/**
+	 * Delete expired entries and any left over partial writes.
+	 * @return how many files were deleted
+	 */
+	public int evictExpired( long now ) {
+		File[] files = dir.listFiles();
+		if ( files == null ) return 0;
+		int deleted = 0;
+		for ( File f : files ) 
+			if ( ( f.getName().endsWith( ".tmp" ) || ! isFresh( f, now ) ) 
+					&& f.delete() ) deleted++;
+		return deleted;
+	}
+}
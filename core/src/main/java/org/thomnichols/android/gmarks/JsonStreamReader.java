@@ -0,0 +1,354 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal pull parser for JSON.  Values are read one token at a time
+ * straight from the stream, so a large response never has to be held in
+ * memory as a String or a JSONObject tree.  android.util.JsonReader would
+ * do the same job but isn't available until API 11.
+ *
+ * <p>Like org.json, {@link #nextString()} will also return numbers and
+ * booleans as text, and {@link #nextLong()} will parse quoted numbers.</p>
+ */
+public class JsonStreamReader implements Closeable {
+
+	public static final int BEGIN_ARRAY = 1;
+	public static final int END_ARRAY = 2;
+	public static final int BEGIN_OBJECT = 3;
+	public static final int END_OBJECT = 4;
+	public static final int NAME = 5;
+	public static final int STRING = 6;
+	public static final int NUMBER = 7;
+	public static final int BOOLEAN = 8;
+	public static final int NULL = 9;
+	public static final int END_DOCUMENT = 10;
+
+	// scopes on the nesting stack
+	private static final int EMPTY_ARRAY = 1;
+	private static final int NONEMPTY_ARRAY = 2;
+	private static final int EMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4;
+	private static final int NONEMPTY_OBJECT = 5;
+	private static final int EMPTY_DOCUMENT = 6;
+	private static final int NONEMPTY_DOCUMENT = 7;
+
+	private final Reader in;
+	private final char[] buf = new char[1024];
+	private int pos = 0;
+	private int limit = 0;
+	private long offset = 0; // chars discarded from the front of buf
+
+	private int[] stack = new int[32];
+	private int stackSize = 0;
+
+	private int peeked = 0; // 0 == nothing peeked yet
+	private String peekedValue = null;
+
+	public JsonStreamReader( Reader in ) {
+		this.in = in;
+		push( EMPTY_DOCUMENT );
+	}
+
+	/**
+	 * If the stream starts with the given prefix, skip that entire line.
+	 * Google prepends <code>)]}'</code> to its JSON responses to prevent
+	 * them from being executed as script.
+	 */
+	public void skipPrefix( String prefix ) throws IOException {
+		fill( prefix.length() );
+		if ( limit - pos < prefix.length() ) return;
+		for ( int i=0; i< prefix.length(); i++ )
+			if ( buf[pos+i] != prefix.charAt(i) ) return;
+		pos += prefix.length();
+		while ( pos < limit || fill(1) )
+			if ( buf[pos++] == '\n' ) return;
+	}
+
+	public void beginArray() throws IOException {
+		expect( BEGIN_ARRAY, "BEGIN_ARRAY" );
+		push( EMPTY_ARRAY );
+	}
+
+	public void endArray() throws IOException {
+		expect( END_ARRAY, "END_ARRAY" );
+		stackSize--;
+	}
+
+	public void beginObject() throws IOException {
+		expect( BEGIN_OBJECT, "BEGIN_OBJECT" );
+		push( EMPTY_OBJECT );
+	}
+
+	public void endObject() throws IOException {
+		expect( END_OBJECT, "END_OBJECT" );
+		stackSize--;
+	}
+
+	/** @return true if the current array or object has another element */
+	public boolean hasNext() throws IOException {
+		int p = peek();
+		return p != END_OBJECT && p != END_ARRAY && p != END_DOCUMENT;
+	}
+
+	public String nextName() throws IOException {
+		expect( NAME, "NAME" );
+		return this.peekedValue;
+	}
+
+	/** @return the next value as text, or null if it is a JSON null */
+	public String nextString() throws IOException {
+		int p = peek();
+		if ( p == NULL ) {
+			this.peeked = 0;
+			return null;
+		}
+		if ( p != STRING && p != NUMBER && p != BOOLEAN )
+			throw syntaxError( "Expected a string but was " + p );
+		this.peeked = 0;
+		return this.peekedValue;
+	}
+
+	public long nextLong() throws IOException {
+		int p = peek();
+		if ( p != STRING && p != NUMBER )
+			throw syntaxError( "Expected a number but was " + p );
+		String val = this.peekedValue;
+		this.peeked = 0;
+		try { return Long.parseLong( val ); }
+		catch ( NumberFormatException ex ) {}
+		try { return (long)Double.parseDouble( val ); }
+		catch ( NumberFormatException ex ) {
+			throw syntaxError( "Expected a number but was '" + val + "'" );
+		}
+	}
+
+	public int nextInt() throws IOException {
+		return (int)nextLong();
+	}
+
+	public boolean nextBoolean() throws IOException {
+		int p = peek();
+		String val = this.peekedValue;
+		if ( p == BOOLEAN || p == STRING ) {
+			if ( "true".equalsIgnoreCase(val) ) { this.peeked = 0; return true; }
+			if ( "false".equalsIgnoreCase(val) ) { this.peeked = 0; return false; }
+		}
+		throw syntaxError( "Expected a boolean but was " + p );
+	}
+
+	/** Skip the next value, including any nested arrays or objects */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			switch ( peek() ) {
+			case BEGIN_ARRAY: beginArray(); depth++; break;
+			case BEGIN_OBJECT: beginObject(); depth++; break;
+			case END_ARRAY: endArray(); depth--; break;
+			case END_OBJECT: endObject(); depth--; break;
+			case END_DOCUMENT: throw syntaxError( "Unexpected end of document" );
+			default: this.peeked = 0; // name or scalar
+			}
+		} while ( depth > 0 );
+	}
+
+	/**
+	 * @return the type of the next token, without consuming it.  One of the
+	 * constants defined by this class.
+	 */
+	public int peek() throws IOException {
+		if ( this.peeked != 0 ) return this.peeked;
+
+		int c = nextNonWhitespace();
+		int top = stackSize -1;
+		switch ( stack[top] ) {
+		case EMPTY_ARRAY:
+			stack[top] = NONEMPTY_ARRAY;
+			if ( c == ']' ) { pos++; return peeked = END_ARRAY; }
+			break;
+		case NONEMPTY_ARRAY:
+			if ( c == ']' ) { pos++; return peeked = END_ARRAY; }
+			if ( c != ',' ) throw syntaxError( "Expected ',' or ']'" );
+			pos++;
+			c = nextNonWhitespace();
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			if ( c == '}' ) { pos++; return peeked = END_OBJECT; }
+			if ( stack[top] == NONEMPTY_OBJECT ) {
+				if ( c != ',' ) throw syntaxError( "Expected ',' or '}'" );
+				pos++;
+				c = nextNonWhitespace();
+			}
+			if ( c != '"' ) throw syntaxError( "Expected a name" );
+			pos++;
+			stack[top] = DANGLING_NAME;
+			this.peekedValue = readString();
+			return peeked = NAME;
+		case DANGLING_NAME:
+			if ( c != ':' ) throw syntaxError( "Expected ':'" );
+			stack[top] = NONEMPTY_OBJECT;
+			pos++;
+			c = nextNonWhitespace();
+			break;
+		case EMPTY_DOCUMENT:
+			stack[top] = NONEMPTY_DOCUMENT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			if ( c == -1 ) return peeked = END_DOCUMENT;
+			throw syntaxError( "Expected end of document" );
+		}
+
+		// now expecting a value:
+		switch ( c ) {
+		case -1: throw new EOFException( "Unexpected end of JSON input" );
+		case '{': pos++; return peeked = BEGIN_OBJECT;
+		case '[': pos++; return peeked = BEGIN_ARRAY;
+		case '"':
+			pos++;
+			this.peekedValue = readString();
+			return peeked = STRING;
+		}
+		String literal = readLiteral();
+		this.peekedValue = literal;
+		if ( "true".equals(literal) || "false".equals(literal) ) return peeked = BOOLEAN;
+		if ( "null".equals(literal) ) return peeked = NULL;
+		char first = literal.charAt(0);
+		if ( first == '-' || ( first >= '0' && first <= '9' ) ) return peeked = NUMBER;
+		throw syntaxError( "Unexpected value '" + literal + "'" );
+	}
+
+	public void close() throws IOException {
+		this.peeked = 0;
+		this.stackSize = 0;
+		in.close();
+	}
+
+	private void expect( int token, String name ) throws IOException {
+		int p = peek();
+		if ( p != token ) throw syntaxError( "Expected " + name + " but was " + p );
+		this.peeked = 0;
+	}
+
+	private void push( int scope ) {
+		if ( stackSize == stack.length ) {
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy( stack, 0, newStack, 0, stackSize );
+			this.stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	/**
+	 * Make sure at least <code>minimum</code> unread chars are in the buffer.
+	 * @return false if the stream ended first.
+	 */
+	private boolean fill( int minimum ) throws IOException {
+		if ( pos > 0 ) {
+			offset += pos;
+			limit -= pos;
+			System.arraycopy( buf, pos, buf, 0, limit );
+			pos = 0;
+		}
+		while ( limit < minimum ) {
+			int read = in.read( buf, limit, buf.length - limit );
+			if ( read < 0 ) return false;
+			limit += read;
+		}
+		return true;
+	}
+
+	/** @return the next non-whitespace char without consuming it, or -1 at EOF */
+	private int nextNonWhitespace() throws IOException {
+		while ( pos < limit || fill(1) ) {
+			char c = buf[pos];
+			if ( c != ' ' && c != '\n' && c != '\r' && c != '\t' ) return c;
+			pos++;
+		}
+		return -1;
+	}
+
+	/** Read the rest of a string; the opening quote has been consumed. */
+	private String readString() throws IOException {
+		StringBuilder sb = null;
+		while ( true ) {
+			int start = pos;
+			while ( pos < limit ) {
+				char c = buf[pos++];
+				if ( c == '"' ) {
+					if ( sb == null ) return new String( buf, start, pos - start -1 );
+					sb.append( buf, start, pos - start -1 );
+					return sb.toString();
+				}
+				if ( c == '\\' ) {
+					if ( sb == null ) sb = new StringBuilder();
+					sb.append( buf, start, pos - start -1 );
+					sb.append( readEscape() );
+					start = pos;
+				}
+			}
+			if ( sb == null ) sb = new StringBuilder();
+			sb.append( buf, start, pos - start );
+			if ( ! fill(1) ) throw new EOFException( "Unterminated string" );
+		}
+	}
+
+	private char readEscape() throws IOException {
+		if ( pos == limit && ! fill(1) ) throw new EOFException( "Unterminated escape" );
+		char c = buf[pos++];
+		switch ( c ) {
+		case 'u':
+			if ( limit - pos < 4 && ! fill(4) ) throw new EOFException( "Unterminated escape" );
+			try {
+				char result = (char)Integer.parseInt( new String( buf, pos, 4 ), 16 );
+				pos += 4;
+				return result;
+			}
+			catch ( NumberFormatException ex ) {
+				throw syntaxError( "Invalid unicode escape" );
+			}
+		case 't': return '\t';
+		case 'b': return '\b';
+		case 'n': return '\n';
+		case 'r': return '\r';
+		case 'f': return '\f';
+		default: return c; // quote, backslash & slash
+		}
+	}
+
+	/** Read an unquoted number, true, false or null */
+	private String readLiteral() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while ( pos < limit || fill(1) ) {
+			char c = buf[pos];
+			if ( c == ',' || c == ':' || c == ']' || c == '}' || c == '[' || c == '{'
+					|| c == '"' || c == ' ' || c == '\n' || c == '\r' || c == '\t' ) break;
+			sb.append( c );
+			pos++;
+		}
+		if ( sb.length() < 1 ) throw syntaxError( "Unexpected character" );
+		return sb.toString();
+	}
+
+	private IOException syntaxError( String msg ) {
+		return new IOException( msg + " at character " + (offset + pos) );
+	}
+}
@@ -15,15 +15,9 @@
  */
 package org.thomnichols.android.gmarks;
 
-import android.net.Uri;
-import android.provider.BaseColumns;
-
 public class Label {
 	public static final String AUTHORITY = "org.thomnichols.gmarks";
 
-	public static final Uri CONTENT_URI
- 		= Uri.parse("content://" + AUTHORITY + "/labels" );
-
 	public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.bookmark_label";
 	
 	public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.bookmark_label";
@@ -39,7 +33,8 @@ public class Label {
 	public String getTitle() { return title; }
 	public int getCount() { return count; }
 	
-	public static final class Columns implements BaseColumns {
+	public static final class Columns {
+		public static final String _ID = "_id"; // same as BaseColumns
 		public static final String SORT_ALPHA = "label ASC";
 		public static final String SORT_COUNT = "_count DESC";
 		public static final String DEFAULT_SORT_ORDER = SORT_ALPHA;
@@ -0,0 +1,146 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * An immutable, sorted copy of the label list for matching as the user
+ * types, without going to the database.  Labels are kept in case
+ * insensitive order, the same as {@link Label.Columns#SORT_ALPHA}, so
+ * prefix matches are found with a binary search.  Safe to share between
+ * threads.
+ */
+public final class LabelIndex {
+	public static final LabelIndex EMPTY = new LabelIndex(
+			new long[0], new String[0], new int[0] );
+
+	private final long[] ids;
+	private final String[] titles;
+	private final int[] counts;
+	/** lower case titles, sorted */
+	private final String[] keys;
+
+	/**
+	 * @param ids label row IDs
+	 * @param titles label titles, in any order
+	 * @param counts number of bookmarks with each label
+	 */
+	public LabelIndex( long[] ids, String[] titles, int[] counts ) {
+		int size = titles.length;
+		final String[] lower = new String[size];
+		Integer[] order = new Integer[size];
+		for ( int i=0; i< size; i++ ) {
+			lower[i] = titles[i].toLowerCase( Locale.ENGLISH );
+			order[i] = i;
+		}
+		Arrays.sort( order, new Comparator<Integer>() {
+			public int compare( Integer a, Integer b ) {
+				return lower[a].compareTo( lower[b] );
+			}
+		});
+		this.ids = new long[size];
+		this.titles = new String[size];
+		this.counts = new int[size];
+		this.keys = new String[size];
+		for ( int i=0; i< size; i++ ) {
+			int from = order[i];
+			this.ids[i] = ids[from];
+			this.titles[i] = titles[from];
+			this.counts[i] = counts[from];
+			this.keys[i] = lower[from];
+		}
+	}
+
+	public int size() { return titles.length; }
+	public long getId( int position ) { return ids[position]; }
+	public String getTitle( int position ) { return titles[position]; }
+	public int getCount( int position ) { return counts[position]; }
+
+	/**
+	 * Find labels matching what's been typed so far.  Labels that start with
+	 * the query come first, then labels containing it, then labels that
+	 * contain its characters in order (i.e. "jvs" finds "javascript").
+	 * Each group is in alphabetical order.
+	 * @param query text typed so far; case is ignored
+	 * @param limit most positions to return, or &lt; 1 for no limit
+	 * @return positions of the matching labels
+	 */
+	public int[] match( CharSequence query, int limit ) {
+		int size = titles.length;
+		if ( limit < 1 || limit > size ) limit = size;
+		String q = query == null ? "" : query.toString().trim().toLowerCase( Locale.ENGLISH );
+		int[] found = new int[limit];
+		int n = 0;
+		if ( q.length() < 1 ) {
+			for ( ; n < limit; n++ ) found[n] = n;
+			return found;
+		}
+
+		int first = lowerBound( q );
+		int prefixEnd = first;
+		while ( prefixEnd < size && keys[prefixEnd].startsWith( q ) ) prefixEnd++;
+		for ( int i = first; i < prefixEnd && n < limit; i++ ) found[n++] = i;
+
+		for ( int i=0; i< size && n < limit; i++ )
+			if ( keys[i].indexOf( q, 1 ) > 0 && ! keys[i].startsWith( q ) ) found[n++] = i;
+
+		for ( int i=0; i< size && n < limit; i++ )
+			if ( keys[i].indexOf( q ) < 0 && isSubsequence( q, keys[i] ) ) found[n++] = i;
+
+		if ( n == found.length ) return found;
+		int[] result = new int[n];
+		System.arraycopy( found, 0, result, 0, n );
+		return result;
+	}
+
+	/** @return the same positions, most used labels first */
+	public int[] byCount( int[] positions ) {
+		Integer[] sorted = new Integer[positions.length];
+		for ( int i=0; i< positions.length; i++ ) sorted[i] = positions[i];
+		Arrays.sort( sorted, new Comparator<Integer>() { // stable, so ties stay in order
+			public int compare( Integer a, Integer b ) {
+				return counts[b] - counts[a];
+			}
+		});
+		int[] result = new int[sorted.length];
+		for ( int i=0; i< sorted.length; i++ ) result[i] = sorted[i];
+		return result;
+	}
+
+	/** @return the first position whose key is not less than the given key */
+	private int lowerBound( String key ) {
+		int lo = 0, hi = keys.length;
+		while ( lo < hi ) {
+			int mid = (lo + hi) >>> 1;
+			if ( keys[mid].compareTo( key ) < 0 ) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	private static boolean isSubsequence( String chars, String text ) {
+		int t = 0;
+		for ( int c=0; c< chars.length(); c++ ) {
+			t = text.indexOf( chars.charAt(c), t );
+			if ( t < 0 ) return false;
+			t++;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,78 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.lang.reflect.Method;
+
+/**
+ * Same calls as <code>android.util.Log</code>, for code in the core module.
+ * On a device messages go to android.util.Log (looked up by reflection so
+ * the core doesn't depend on android.jar); on a plain JVM they're printed
+ * to stderr if they're at or above the <code>gmarks.log.level</code>
+ * system property (default {@link #INFO}).
+ */
+public final class Logger {
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private static final String LEVELS = "VDIWE";
+	private static final Method[] android = findAndroidLog();
+	private static final int level = Integer.getInteger( "gmarks.log.level", INFO );
+
+	public static void v( String tag, String msg ) { log( VERBOSE, tag, msg, null ); }
+	public static void v( String tag, String msg, Throwable tr ) { log( VERBOSE, tag, msg, tr ); }
+	public static void d( String tag, String msg ) { log( DEBUG, tag, msg, null ); }
+	public static void d( String tag, String msg, Throwable tr ) { log( DEBUG, tag, msg, tr ); }
+	public static void i( String tag, String msg ) { log( INFO, tag, msg, null ); }
+	public static void i( String tag, String msg, Throwable tr ) { log( INFO, tag, msg, tr ); }
+	public static void w( String tag, String msg ) { log( WARN, tag, msg, null ); }
+	public static void w( String tag, String msg, Throwable tr ) { log( WARN, tag, msg, tr ); }
+	public static void e( String tag, String msg ) { log( ERROR, tag, msg, null ); }
+	public static void e( String tag, String msg, Throwable tr ) { log( ERROR, tag, msg, tr ); }
+
+	private static void log( int priority, String tag, String msg, Throwable tr ) {
+		if ( android != null ) {
+			try {
+				android[priority - VERBOSE].invoke( null, tag, msg, tr );
+				return;
+			}
+			catch ( Exception ex ) {} // fall through to stderr
+		}
+		if ( priority < level ) return;
+		System.err.println( LEVELS.charAt( priority - VERBOSE ) + "/" + tag + ": " + msg );
+		if ( tr != null ) tr.printStackTrace();
+	}
+
+	/** @return v, d, i, w & e taking (tag, msg, throwable), or null if not on Android */
+	private static Method[] findAndroidLog() {
+		try {
+			Class<?> log = Class.forName( "android.util.Log" );
+			Method[] methods = new Method[LEVELS.length()];
+			for ( int i=0; i< methods.length; i++ )
+				methods[i] = log.getMethod( LEVELS.substring(i, i+1).toLowerCase(),
+						String.class, String.class, Throwable.class );
+			// android.jar's stubs throw "Stub!" when used off the device:
+			log.getMethod( "isLoggable", String.class, int.class ).invoke( null, "GMARKS", INFO );
+			return methods;
+		}
+		catch ( Throwable ex ) { return null; }
+	}
+
+	private Logger() {}
+}
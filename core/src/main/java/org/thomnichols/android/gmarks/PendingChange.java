@@ -0,0 +1,91 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+import org.apache.http.NoHttpResponseException;
+
+/**
+ * Rules for the queue of local bookmark edits waiting to be sent to the
+ * server.  The app's <code>ChangeQueue</code> keeps at most one entry per
+ * bookmark: a new edit is merged into whatever is already queued.
+ */
+final class PendingChange {
+	/** Delete the bookmark remotely */
+	static final int DELETE = 0;
+	/** Send the bookmark's current fields */
+	static final int UPDATE = 1;
+	/** Create the bookmark remotely; it only exists locally so far */
+	static final int CREATE = 2;
+	/** Nothing left to send */
+	static final int NONE = -1;
+
+	/** Google ID given to a bookmark that hasn't been created remotely yet */
+	static final String LOCAL_ID_PREFIX = "local:";
+
+	/** Wait before the first retry, in ms */
+	static final long MIN_RETRY_DELAY = 30 * 1000;
+	/** Longest wait between retries, in ms */
+	static final long MAX_RETRY_DELAY = 60 * 60 * 1000;
+	/** Give up on a change that has failed this many times, other than
+	 * for lack of a connection */
+	static final int MAX_ATTEMPTS = 10;
+
+	/**
+	 * @param queued the action already queued for a bookmark
+	 * @param next the action for a new edit to the same bookmark
+	 * @return the single action that has the same effect on the server
+	 */
+	static int coalesce( int queued, int next ) {
+		if ( queued == CREATE ) {
+			// still sent as a create, with the latest fields
+			if ( next == UPDATE ) return CREATE;
+			/* Stays a delete in case the create is already under way; the
+			 * queue drops a delete for a bookmark that has no google ID. */
+			if ( next == DELETE ) return DELETE;
+		}
+		if ( queued == DELETE && next != CREATE ) return DELETE;
+		return next;
+	}
+
+	/** @return how long to wait after the given number of failed attempts */
+	static long retryDelay( int attempts ) {
+		if ( attempts < 1 ) return 0;
+		if ( attempts > 20 ) return MAX_RETRY_DELAY; // don't overflow the shift
+		return Math.min( MIN_RETRY_DELAY << (attempts -1), MAX_RETRY_DELAY );
+	}
+
+	/**
+	 * @return true if the error means the server couldn't be reached, so 
+	 *  the change wasn't rejected and doesn't count towards 
+	 *  {@link #MAX_ATTEMPTS}.  Timeouts are InterruptedIOExceptions.
+	 */
+	static boolean isConnectivityError( IOException ex ) {
+		return ex instanceof SocketException || ex instanceof UnknownHostException
+			|| ex instanceof InterruptedIOException || ex instanceof NoHttpResponseException;
+	}
+
+	/** @return true if the ID was made up locally for a new bookmark */
+	static boolean isLocalID( String googleId ) {
+		return googleId == null || googleId.startsWith( LOCAL_ID_PREFIX );
+	}
+
+	private PendingChange() {}
+}
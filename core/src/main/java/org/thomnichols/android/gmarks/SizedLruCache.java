@@ -0,0 +1,83 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that drops its least recently used entries once their total size
+ * goes over a limit.  Entries count as 1 each unless {@link #sizeOf} is
+ * overridden, i.e. to weigh bitmaps by their bytes.  Safe to share between
+ * threads.  (<code>android.util.LruCache</code> needs API 12.)
+ */
+public class SizedLruCache<K,V> {
+	private final LinkedHashMap<K,V> map = new LinkedHashMap<K,V>( 16, .75f, true );
+	private final int maxSize;
+	private int size = 0;
+
+	/** @param maxSize most total {@link #sizeOf size} to keep */
+	public SizedLruCache( int maxSize ) {
+		if ( maxSize < 1 ) throw new IllegalArgumentException( "maxSize < 1" );
+		this.maxSize = maxSize;
+	}
+
+	/** @return the size of an entry, in the same units as maxSize */
+	protected int sizeOf( K key, V value ) { return 1; }
+
+	/** @return the value, now the most recently used, or null */
+	public synchronized V get( K key ) {
+		return map.get( key );
+	}
+
+	/**
+	 * Add or replace a value, then drop old entries until it fits.  A value
+	 * bigger than the whole cache isn't kept, and doesn't push anything out.
+	 * @return the previous value for the key, or null
+	 */
+	public synchronized V put( K key, V value ) {
+		if ( sizeOf( key, value ) > maxSize ) return remove( key );
+		V old = map.put( key, value );
+		if ( old != null ) size -= sizeOf( key, old );
+		size += sizeOf( key, value );
+		trimTo( maxSize );
+		return old;
+	}
+
+	public synchronized V remove( K key ) {
+		V old = map.remove( key );
+		if ( old != null ) size -= sizeOf( key, old );
+		return old;
+	}
+
+	/** Drop everything, i.e. when memory is low */
+	public synchronized void clear() { trimTo( 0 ); }
+
+	/** @return total size of the entries held */
+	public synchronized int size() { return size; }
+
+	public int maxSize() { return maxSize; }
+
+	private void trimTo( int max ) {
+		Iterator<Map.Entry<K,V>> entries = map.entrySet().iterator();
+		while ( size > max && entries.hasNext() ) {
+			Map.Entry<K,V> e = entries.next();
+			size -= sizeOf( e.getKey(), e.getValue() );
+			entries.remove();
+		}
+	}
+}
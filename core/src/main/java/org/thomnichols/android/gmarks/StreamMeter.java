@@ -0,0 +1,56 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures a single response: how long it took to get the response
+ * headers, and the bytes and time spent reading the body.  Everything else
+ * the reader of a streamed response does in between is decoding, so the
+ * two can be told apart even though they're interleaved.  Not thread safe;
+ * use one per response.
+ */
+final class StreamMeter {
+	long requestNanos = 0;
+	long readNanos = 0;
+	long bytes = 0;
+
+	/** @return time spent waiting on the connection */
+	long getFetchNanos() { return requestNanos + readNanos; }
+
+	InputStream wrap( InputStream in ) {
+		return new FilterInputStream( in ) {
+			@Override public int read() throws IOException {
+				long start = System.nanoTime();
+				int b = super.read();
+				readNanos += System.nanoTime() - start;
+				if ( b >= 0 ) bytes++;
+				return b;
+			}
+
+			@Override public int read( byte[] buf, int off, int len ) throws IOException {
+				long start = System.nanoTime();
+				int n = super.read( buf, off, len );
+				readNanos += System.nanoTime() - start;
+				if ( n > 0 ) bytes += n;
+				return n;
+			}
+		};
+	}
+}
@@ -0,0 +1,141 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time went during a single sync, plus how much was downloaded
+ * and written.  Pages may be fetched and decoded on background threads
+ * while bookmarks are being written, so phase times can add up to more
+ * than the sync's duration.
+ */
+public class SyncStats {
+	static final String TABLE_NAME = "sync_stats";
+
+	public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.sync_stats";
+
+	/** Fetching the xt token, which also checks the auth cookies */
+	public static final int AUTH = 0;
+	/** Downloading the label list */
+	public static final int LABELS = 1;
+	/** Waiting on the connection for bookmark pages */
+	public static final int PAGE_FETCH = 2;
+	/** Decoding bookmark pages, less time spent waiting for data */
+	public static final int JSON_DECODE = 3;
+	/** Writing bookmarks, labels & links, and committing */
+	public static final int DB_WRITE = 4;
+	/** Writing the full text search index */
+	public static final int FTS_WRITE = 5;
+	/** Syncing with the browser's bookmarks */
+	public static final int BROWSER_SYNC = 6;
+
+	/** Column for each phase's time in ms, in phase order */
+	static final String[] PHASE_COLUMNS = {
+		Columns.AUTH_TIME, Columns.LABELS_TIME, Columns.FETCH_TIME,
+		Columns.DECODE_TIME, Columns.DB_WRITE_TIME, Columns.FTS_WRITE_TIME,
+		Columns.BROWSER_SYNC_TIME };
+
+	private final long started = System.currentTimeMillis();
+	private final AtomicLong[] nanos = new AtomicLong[PHASE_COLUMNS.length];
+	private final AtomicInteger pages = new AtomicInteger();
+	private final AtomicLong slowestPage = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private int inserted = 0;
+	private int updated = 0;
+	private int skipped = 0;
+
+	public SyncStats() {
+		for ( int i=0; i< nanos.length; i++ ) nanos[i] = new AtomicLong();
+	}
+
+	/** Add time to a phase, i.e. <code>add( DB_WRITE, System.nanoTime() - start )</code> */
+	public void add( int phase, long elapsedNanos ) {
+		nanos[phase].addAndGet( elapsedNanos );
+	}
+
+	public void addBytes( long count ) {
+		bytes.addAndGet( count );
+	}
+
+	/**
+	 * Record a downloaded page.
+	 * @param busyNanos time spent requesting and reading the page, including
+	 *  time spent waiting on the connection.
+	 */
+	void addPage( StreamMeter meter, long busyNanos ) {
+		long fetch = meter.getFetchNanos();
+		add( PAGE_FETCH, fetch );
+		add( JSON_DECODE, Math.max( 0, busyNanos - fetch ) );
+		addBytes( meter.bytes );
+		pages.incrementAndGet();
+		long slowest = slowestPage.get();
+		while ( fetch > slowest && ! slowestPage.compareAndSet( slowest, fetch ) )
+			slowest = slowestPage.get();
+	}
+
+	public void setRows( int inserted, int updated, int skipped ) {
+		this.inserted = inserted;
+		this.updated = updated;
+		this.skipped = skipped;
+	}
+
+	public long getStarted() { return started; }
+	public long getMillis( int phase ) { return nanos[phase].get() / 1000000; }
+	public int getPages() { return pages.get(); }
+	public long getSlowestPageMillis() { return slowestPage.get() / 1000000; }
+	public long getBytes() { return bytes.get(); }
+	public int getInserted() { return inserted; }
+	public int getUpdated() { return updated; }
+	public int getSkipped() { return skipped; }
+
+	@Override public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for ( int i=0; i< PHASE_COLUMNS.length; i++ )
+			sb.append( PHASE_COLUMNS[i] ).append('=').append( getMillis(i) ).append(", ");
+		return sb.append( Columns.PAGES ).append('=').append( getPages() )
+			.append( ", " ).append( Columns.SLOWEST_PAGE_TIME ).append('=').append( getSlowestPageMillis() )
+			.append( ", " ).append( Columns.BYTES ).append('=').append( getBytes() )
+			.append( ", " ).append( Columns.INSERTED ).append('=').append( inserted )
+			.append( ", " ).append( Columns.UPDATED ).append('=').append( updated )
+			.append( ", " ).append( Columns.SKIPPED ).append('=').append( skipped )
+			.toString();
+	}
+
+	public static final class Columns {
+		public static final String _ID = "_id"; // same as BaseColumns
+		public static final String DEFAULT_SORT_ORDER = "started DESC";
+
+		public static final String STARTED = "started";
+		public static final String DURATION = "duration_ms";
+		public static final String FULL_SYNC = "full_sync";
+		public static final String RESULT = "result";
+		public static final String AUTH_TIME = "auth_ms";
+		public static final String LABELS_TIME = "labels_ms";
+		public static final String FETCH_TIME = "fetch_ms";
+		public static final String DECODE_TIME = "decode_ms";
+		public static final String DB_WRITE_TIME = "db_write_ms";
+		public static final String FTS_WRITE_TIME = "fts_write_ms";
+		public static final String BROWSER_SYNC_TIME = "browser_sync_ms";
+		public static final String PAGES = "pages";
+		public static final String SLOWEST_PAGE_TIME = "slowest_page_ms";
+		public static final String BYTES = "bytes";
+		public static final String INSERTED = "inserted";
+		public static final String UPDATED = "updated";
+		public static final String SKIPPED = "skipped";
+	}
+}
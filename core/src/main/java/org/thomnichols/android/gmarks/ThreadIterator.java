@@ -0,0 +1,540 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.thomnichols.android.gmarks.BookmarksQueryService.AuthException;
+
+/**
+ * Iterates over every item in a bookmark thread, requesting one page at a 
+ * time from the threadsearch API.  Each page is decoded straight from the 
+ * response stream: subclasses read one item at a time in 
+ * {@link #readItem(JsonStreamReader)}, so neither the response text nor a 
+ * JSON tree for the whole page is ever held in memory.
+ */
+public abstract class ThreadIterator<T> implements Iterator<T>, Iterable<T> {
+	static final String TAG = "BOOKMARK THREAD ITERATOR";
+	/** Fetch each page only after the previous one has been consumed */
+	public static final int NO_PREFETCH = 0;
+	/* Pages to download ahead of the DB writes.  An incremental sync usually 
+	 * stops within the first page or two so there's little point fetching 
+	 * further ahead than that. */
+	public static final int PREFETCH_PAGES_INCREMENTAL = 1;
+	public static final int PREFETCH_PAGES_FULL = 2;
+	/* A full sync fetches pages over this many connections at once.  
+	 * AndroidHttpClient won't open more than 2 per host. */
+	public static final int FETCH_CONNECTIONS_FULL = 2;
+	/** Items per threadsearch request */
+	static final int PAGE_SIZE = 25;
+
+	protected final BookmarksQueryService bookmarksQueryService;
+	private static final String uriTemplate = "%s/bookmarks/api/threadsearch?fo=%s&g=Time&nr=" 
+		+ PAGE_SIZE + "&start=";
+	private final String uriBase;
+	
+	private int currentQueryIndex = 0;	
+	private int totalItems = -1; 
+	private int pageSize = -1; // -1 until the first page has been read
+	private boolean finished = false;
+	private PageReader reader = null; // current page when not prefetching
+	private Iterator<T> page = null; // current page when prefetching
+	
+	private final int lookAhead;
+	private int concurrency = 1;
+	private PageSource<T> fetcher = null;
+	private SyncStats stats = null;
+
+	public ThreadIterator(BookmarksQueryService bookmarksQueryService, String threadParam ) 
+			throws AuthException, IOException { 
+		this(bookmarksQueryService, threadParam, NO_PREFETCH);
+	}
+
+	/**
+	 * @param lookAhead number of pages that may be fetched in the background
+	 *  ahead of the page currently being consumed.  The fetcher blocks once
+	 *  it is this far ahead, so memory use stays bounded no matter how slow
+	 *  the consumer is.
+	 */
+	public ThreadIterator(BookmarksQueryService bookmarksQueryService, String threadParam,
+			int lookAhead ) throws AuthException, IOException {
+		this(bookmarksQueryService, threadParam, lookAhead, 0);
+	}
+
+	/**
+	 * @param startIndex offset of the first item to return, i.e. to pick up
+	 *  where a previous iteration left off.
+	 */
+	public ThreadIterator(BookmarksQueryService bookmarksQueryService, String threadParam,
+			int lookAhead, int startIndex ) throws AuthException, IOException {
+		this.bookmarksQueryService = bookmarksQueryService;
+		this.bookmarksQueryService.getXtParam(); // ensures we're logged in & have the default thread ID
+		this.uriBase = String.format(uriTemplate, 
+				bookmarksQueryService.getBaseURL(), threadParam);
+		this.lookAhead = lookAhead;
+		this.currentQueryIndex = startIndex;
+	}
+
+	/**
+	 * Decode a single item.  The reader is positioned at the start of the 
+	 * item's object, and must be left just past the end of it.
+	 */
+	protected abstract T readItem( JsonStreamReader json ) throws IOException;
+
+	/** 
+	 * @return a value that uniquely identifies the item, used to drop 
+	 * duplicates when pages are fetched in parallel.
+	 */
+	protected abstract String keyOf( T item );
+
+	/**
+	 * Fetch pages over this many connections at once.  The pages' offsets
+	 * are worked out from the total count reported by the first page, and
+	 * they're still returned in order.  Must be called before iterating.
+	 * Note AndroidHttpClient only allows 2 connections per host.
+	 */
+	public void setConcurrency( int connections ) {
+		if ( this.fetcher != null || this.reader != null ) 
+			throw new IllegalStateException("Iteration has already started");
+		this.concurrency = connections;
+	}
+
+	/**
+	 * Record the time spent fetching & decoding each page, and the bytes
+	 * downloaded.  Must be called before iterating.
+	 */
+	public void setStats( SyncStats stats ) {
+		if ( this.fetcher != null || this.reader != null ) 
+			throw new IllegalStateException("Iteration has already started");
+		this.stats = stats;
+	}
+
+	private void queryNext() throws IOException {
+		if ( this.reader != null ) { // finished reading a streamed page
+			this.pageSize = reader.count;
+			this.currentQueryIndex += reader.count;
+			if ( reader.total >= 0 ) this.totalItems = reader.total;
+			this.reader.close();
+			this.reader = null;
+		}
+		if ( this.pageSize == 0 || 
+				( this.totalItems >= 0 && this.currentQueryIndex >= this.totalItems ) ) {
+			if ( this.pageSize == 0 ) Logger.w(TAG, "JSON response has 0 items!");
+			close();
+			return;
+		}
+
+		if ( this.lookAhead > NO_PREFETCH || this.concurrency > 1 ) {
+			if ( this.fetcher == null ) {
+				if ( this.concurrency > 1 ) 
+					this.fetcher = new ParallelPageFetcher(currentQueryIndex);
+				else {
+					PageFetcher f = new PageFetcher(currentQueryIndex);
+					f.start();
+					this.fetcher = f;
+				}
+			}
+			List<T> items = this.fetcher.take();
+			if ( items == null ) { // fetcher reached the end
+				close();
+				return;
+			}
+			this.page = items.iterator();
+			this.pageSize = items.size();
+			this.currentQueryIndex += items.size();
+		}
+		else this.reader = new PageReader( uriBase + currentQueryIndex );
+	}
+	
+	public boolean hasNext() throws IteratorException {
+		try {
+			while ( ! this.finished ) {
+				if ( this.reader != null ) {
+					if ( this.reader.seekItem() ) return true;
+				}
+				else if ( this.page != null && this.page.hasNext() ) return true;
+				queryNext();
+			}
+			return false;
+		}
+		catch ( IOException ex ) {
+			Logger.w(TAG,"IO error in query all bookmarks", ex );
+			close();
+			throw new IteratorException(ex);
+		}
+	}
+	
+	public T next() throws IteratorException {
+		if ( ! hasNext() ) throw new NoSuchElementException();
+		if ( this.reader == null ) return this.page.next();
+		try {
+			return this.reader.next();
+		}
+		catch ( IOException ex ) {
+			Logger.w(TAG, "Error parsing item from JSON", ex);
+			close();
+			throw new IteratorException( "Error parsing item from JSON", ex);
+		}
+	}
+
+	public void remove() { throw new UnsupportedOperationException(); }
+
+	public Iterator<T> iterator() { return this; }
+
+	/**
+	 * Stop any background page fetching and release the current response.
+	 * Callers that stop iterating before the end (i.e. an incremental sync) 
+	 * must call this so the fetcher thread doesn't keep pulling pages nobody 
+	 * will read.
+	 */
+	public void close() {
+		this.finished = true;
+		this.page = null;
+		if ( this.reader != null ) {
+			this.reader.close();
+			this.reader = null;
+		}
+		if ( this.fetcher == null ) return;
+		this.fetcher.cancel();
+		this.fetcher = null;
+	}
+
+	/**
+	 * Walks a single threadsearch response, which looks like 
+	 * <code>{"nr":123, "threadTitles":[{"sectionContent":[item, ...]}, ...]}</code>,
+	 * stopping at each item so it can be read by {@link ThreadIterator#readItem}.
+	 */
+	private class PageReader {
+		private static final int IN_RESPONSE = 0;
+		private static final int IN_SECTIONS = 1;
+		private static final int IN_SECTION = 2;
+		private static final int IN_ITEMS = 3;
+		private static final int DONE = 4;
+
+		private final JsonStreamReader json;
+		private final StreamMeter meter;
+		private long busyNanos = 0; // time spent in this reader's methods
+		private int state = IN_RESPONSE;
+		int count = 0;
+		int total = -1;
+
+		PageReader( String uri ) throws IOException {
+			long start = System.nanoTime();
+			this.meter = stats != null ? new StreamMeter() : null;
+			this.json = bookmarksQueryService.queryJSONStream( uri, meter );
+			try { json.beginObject(); }
+			catch ( IOException ex ) {
+				close();
+				throw ex;
+			}
+			finally { busyNanos += System.nanoTime() - start; }
+		}
+
+		/** @return true if the reader is positioned at the start of an item */
+		boolean seekItem() throws IOException {
+			long start = System.nanoTime();
+			try { return seek(); }
+			finally { busyNanos += System.nanoTime() - start; }
+		}
+
+		private boolean seek() throws IOException {
+			while ( true ) {
+				switch ( state ) {
+				case IN_ITEMS:
+					if ( json.hasNext() ) return true;
+					json.endArray();
+					state = IN_SECTION;
+					break;
+				case IN_SECTION:
+					if ( ! json.hasNext() ) {
+						json.endObject();
+						state = IN_SECTIONS;
+					}
+					else if ( "sectionContent".equals( json.nextName() ) ) {
+						json.beginArray();
+						state = IN_ITEMS;
+					}
+					else json.skipValue();
+					break;
+				case IN_SECTIONS:
+					if ( json.hasNext() ) {
+						json.beginObject();
+						state = IN_SECTION;
+					}
+					else {
+						json.endArray();
+						state = IN_RESPONSE;
+					}
+					break;
+				case IN_RESPONSE:
+					if ( ! json.hasNext() ) {
+						json.endObject();
+						state = DONE;
+						break;
+					}
+					String name = json.nextName();
+					if ( "threadTitles".equals(name) ) {
+						json.beginArray();
+						state = IN_SECTIONS;
+					}
+					else if ( "nr".equals(name) ) this.total = json.nextInt();
+					else json.skipValue();
+					break;
+				default:
+					return false;
+				}
+			}
+		}
+
+		T next() throws IOException {
+			long start = System.nanoTime();
+			try {
+				T item = readItem( json );
+				count++;
+				return item;
+			}
+			finally { busyNanos += System.nanoTime() - start; }
+		}
+
+		List<T> readAll() throws IOException {
+			List<T> items = new ArrayList<T>();
+			while ( seekItem() ) items.add( next() );
+			return items;
+		}
+
+		void close() {
+			try { json.close(); }
+			catch ( IOException ex ) {}
+			if ( meter != null && busyNanos > 0 ) {
+				stats.addPage( meter, busyNanos );
+				busyNanos = 0; // only count the page once
+			}
+		}
+	}
+
+	/** Source of decoded pages when not streaming them on the caller's thread */
+	private interface PageSource<E> {
+		/** @return the next page, or null if there are no more pages */
+		List<E> take() throws IOException;
+		void cancel();
+	}
+
+	/**
+	 * Pulls pages from the threadsearch API on a background thread so the
+	 * next page is already downloaded and decoded by the time the consumer
+	 * has finished writing the current one.  At most <code>lookAhead</code>
+	 * pages are held that the consumer hasn't taken yet.
+	 */
+	private class PageFetcher extends Thread implements PageSource<T> {
+		private final BlockingQueue<Object> pages = new LinkedBlockingQueue<Object>();
+		private final Semaphore permits = new Semaphore(lookAhead);
+		private volatile boolean cancelled = false;
+		private int nextIndex;
+
+		PageFetcher(int startIndex) {
+			super("GMarks page fetcher");
+			this.nextIndex = startIndex;
+			setDaemon(true);
+		}
+
+		@Override public void run() {
+			int total = -1;
+			try {
+				while ( ! cancelled ) {
+					permits.acquire();
+					if ( cancelled ) break;
+					if ( total >= 0 && nextIndex >= total ) break; // no more pages
+
+					PageReader reader = new PageReader( uriBase + nextIndex );
+					List<T> items;
+					try { items = reader.readAll(); }
+					finally { reader.close(); }
+					if ( total < 0 ) total = reader.total;
+					pages.put( items );
+					if ( items.size() < 1 ) break; // consumer will see the empty page
+					nextIndex += items.size();
+				}
+			}
+			catch ( InterruptedException ex ) { return; } // cancelled
+			catch ( Exception ex ) {
+				if ( ! cancelled ) Logger.w(TAG, "Error prefetching page at " + nextIndex, ex );
+				pages.offer( ex );
+				return;
+			}
+			pages.offer( this ); // end marker
+		}
+
+		@SuppressWarnings("unchecked")
+		public List<T> take() throws IOException {
+			try {
+				Object page = pages.take();
+				permits.release();
+				if ( page == this ) return null;
+				if ( page instanceof IOException ) throw (IOException)page;
+				if ( page instanceof RuntimeException ) throw (RuntimeException)page;
+				if ( page instanceof Exception ) throw new IteratorException((Exception)page);
+				return (List<T>)page;
+			}
+			catch ( InterruptedException ex ) {
+				throw new IteratorException("Interrupted waiting for page", ex);
+			}
+		}
+
+		public void cancel() {
+			this.cancelled = true;
+			this.interrupt();
+		}
+	}
+
+	/**
+	 * Fetches pages at offsets worked out from the total count over several
+	 * connections at once, handing them back in order.  At most
+	 * <code>concurrency + lookAhead</code> pages are in flight or waiting.
+	 *
+	 * <p>The list can change while it's being fetched, shifting items across
+	 * page boundaries.  Consecutive pages overlap by one item so a shift can
+	 * be detected: if a page doesn't start with the item that ended the one
+	 * before it, the rest is fetched one page at a time starting a page
+	 * back.  Items that were already returned are dropped.</p>
+	 */
+	private class ParallelPageFetcher implements PageSource<T> {
+		private final int stride = PAGE_SIZE -1; // pages overlap by one item
+		private final ExecutorService pool;
+		private final LinkedList<Future<List<T>>> window = new LinkedList<Future<List<T>>>();
+		private final LinkedList<Integer> windowOffsets = new LinkedList<Integer>();
+		private final Set<String> seen = new HashSet<String>();
+		private int nextIndex;
+		private int total = -1; // -1 until the first page has been read
+		private String lastKey = null; // last item of the previous page
+		private boolean lastPageFull = false;
+		private boolean sequential = false; // list shifted; fetch one at a time
+		private boolean done = false;
+
+		ParallelPageFetcher(int startIndex) {
+			this.nextIndex = startIndex;
+			this.pool = Executors.newFixedThreadPool( concurrency, new ThreadFactory() {
+				public Thread newThread( Runnable r ) {
+					Thread t = new Thread( r, "GMarks page fetcher" );
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		public List<T> take() throws IOException {
+			while ( ! done ) {
+				List<T> page;
+				if ( total < 0 ) { // first page tells us how many there are
+					PageReader reader = new PageReader( uriBase + nextIndex );
+					try { page = reader.readAll(); }
+					finally { reader.close(); }
+					this.total = Math.max( reader.total, 0 );
+					nextIndex += stride;
+				}
+				else if ( sequential ) {
+					page = fetch( nextIndex );
+					nextIndex += stride;
+					if ( page.size() < PAGE_SIZE ) done = true;
+				}
+				else {
+					while ( window.size() < concurrency + lookAhead && nextIndex < total ) {
+						final int offset = nextIndex;
+						window.add( pool.submit( new Callable<List<T>>() {
+							public List<T> call() throws Exception { return fetch( offset ); }
+						}) );
+						windowOffsets.add( offset );
+						nextIndex += stride;
+					}
+					if ( window.isEmpty() ) {
+						/* Reached the total from the first page, but if the last
+						 * page was full the list may have grown since. */
+						if ( lastPageFull ) sequential = true;
+						else done = true;
+						continue;
+					}
+					int offset = windowOffsets.removeFirst();
+					page = get( window.removeFirst() );
+					if ( page.size() > 0 && lastKey != null 
+							&& ! lastKey.equals( keyOf(page.get(0)) ) ) {
+						Logger.d(TAG, "Items shifted near offset " + offset 
+								+ "; fetching the rest sequentially");
+						cancelPending();
+						sequential = true;
+						nextIndex = Math.max( 0, offset - PAGE_SIZE );
+						lastKey = null;
+						continue;
+					}
+				}
+
+				this.lastPageFull = page.size() >= PAGE_SIZE;
+				if ( page.size() > 0 ) lastKey = keyOf( page.get( page.size() -1 ) );
+				List<T> fresh = new ArrayList<T>( page.size() );
+				for ( T item : page )
+					if ( seen.add( keyOf(item) ) ) fresh.add( item );
+				if ( fresh.size() > 0 ) return fresh;
+			}
+			pool.shutdown();
+			return null;
+		}
+
+		private List<T> fetch( int offset ) throws IOException {
+			PageReader reader = new PageReader( uriBase + offset );
+			try { return reader.readAll(); }
+			finally { reader.close(); }
+		}
+
+		private List<T> get( Future<List<T>> future ) throws IOException {
+			try { return future.get(); }
+			catch ( InterruptedException ex ) {
+				throw new IteratorException("Interrupted waiting for page", ex);
+			}
+			catch ( ExecutionException ex ) {
+				Throwable cause = ex.getCause();
+				if ( cause instanceof IOException ) throw (IOException)cause;
+				if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+				throw new IteratorException( cause );
+			}
+		}
+
+		private void cancelPending() {
+			for ( Future<List<T>> f : window ) f.cancel(true);
+			window.clear();
+			windowOffsets.clear();
+		}
+
+		public void cancel() {
+			this.done = true;
+			cancelPending();
+			pool.shutdownNow();
+		}
+	}
+}
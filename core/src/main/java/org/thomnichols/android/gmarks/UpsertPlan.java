@@ -0,0 +1,76 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides what a sync has to write for each bookmark it receives, given
+ * what's already stored.  The app's <code>BookmarkUpsertWriter</code> and
+ * <code>LabelCache</code> look up the stored values and carry out the
+ * plan; keeping the decisions here means they can be benchmarked off the
+ * device.
+ */
+final class UpsertPlan {
+	/** Can't tell from the modified time alone; compare fingerprints */
+	static final int COMPARE_HASH = 0;
+	/** No such row: insert it, its label links and its FTS row */
+	static final int INSERT = 1;
+	/** Same modified time: nothing to write */
+	static final int UNCHANGED = 2;
+	/** Nothing we store has changed: only update the modified time */
+	static final int TOUCH = 3;
+	/** Rewrite the row, its label links and its FTS row */
+	static final int UPDATE = 4;
+
+	/**
+	 * @param storedModified the stored bookmark's modified time, or -1 if 
+	 *  it isn't stored yet
+	 * @return {@link #INSERT}, {@link #UNCHANGED} or {@link #COMPARE_HASH}
+	 */
+	static int byModified( long storedModified, Bookmark b ) {
+		if ( storedModified < 0 ) return INSERT;
+		if ( storedModified == b.getModifiedDate() ) return UNCHANGED;
+		return COMPARE_HASH;
+	}
+
+	/**
+	 * @param storedHash the stored {@link ContentFingerprint}
+	 * @return {@link #TOUCH} or {@link #UPDATE}
+	 */
+	static int byHash( long storedHash, long hash ) {
+		return storedHash == hash ? TOUCH : UPDATE;
+	}
+
+	/**
+	 * Work out which label links to add and remove.
+	 * @param wanted IDs of the labels the bookmark should be linked to.  On
+	 *  return it only holds the ones that aren't linked yet.
+	 * @param existing IDs of the labels it's linked to now
+	 * @return IDs of the links to remove
+	 */
+	static List<Long> diffLinks( Set<Long> wanted, Collection<Long> existing ) {
+		List<Long> stale = new ArrayList<Long>();
+		for ( Long labelID : existing )
+			if ( ! wanted.remove(labelID) ) stale.add(labelID);
+		return stale;
+	}
+
+	private UpsertPlan() {}
+}
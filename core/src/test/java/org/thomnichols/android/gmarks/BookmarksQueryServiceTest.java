@@ -0,0 +1,236 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.cookie.Cookie;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks login, single & batched edits and paging against 
+ * {@link FakeBookmarksServer}.  How long a sync takes is measured by
+ * {@link SyncBenchmarkTest}.
+ */
+public class BookmarksQueryServiceTest {
+	static final int COUNT = 200;
+	static final int LABELS = 20;
+
+	BookmarksQueryService gmarksSvc =  BookmarksQueryService.getInstance();
+	FakeBookmarksServer server;
+	
+	@Before public void setUp() throws Exception {
+		server = new FakeBookmarksServer( COUNT, LABELS, 42 ).start();
+	}
+
+	@After public void tearDown() {
+		server.stop();
+	}
+
+//	@Test 
+	public void testLogin() throws Exception {
+//		gmarksSvc.login("test", "test");
+		for( Cookie c : gmarksSvc.cookieStore.getCookies() ) {
+			System.out.printf( "%s : %s%n", c.getName(), c.getValue() );
+		}
+	}
+
+	@Test public void testBadPassword() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		try {
+			svc.login( FakeBookmarksServer.USER, "wrong" );
+			fail( "Login should have failed" );
+		}
+		catch ( RuntimeException ex ) {}
+		try {
+			svc.getXtParam();
+			fail( "Should not be authorized" );
+		}
+		catch ( BookmarksQueryService.AuthException ex ) {}
+	}
+
+	@Test public void testCreateUpdateDelete() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+
+		Bookmark b = new Bookmark( null, null, "New bookmark", "http://example.com/new",
+				null, "Description", 0, 0 );
+		b.getLabels().add( "new" );
+		Bookmark created = svc.create( b );
+		assertNotNull( created.getGoogleId() );
+		assertEquals( "example.com", created.getHost() );
+		assertEquals( COUNT +1, server.getBookmarkCount() );
+		assertEquals( created.getGoogleId(), server.getBookmarkIDs().get(0) );
+
+		created.setTitle( "Changed" );
+		Bookmark updated = svc.update( created );
+		assertEquals( "Changed", updated.getTitle() );
+		assertEquals( "[new]", updated.getLabels().toString() );
+		assertTrue( updated.getModifiedDate() >= created.getModifiedDate() );
+
+		svc.delete( created.getGoogleId() );
+		assertEquals( COUNT, server.getBookmarkCount() );
+		try {
+			svc.delete( created.getGoogleId() );
+			fail( "Bookmark should already be deleted" );
+		}
+		catch ( BookmarksQueryService.NotFoundException ex ) {}
+	}
+
+	@Test public void testBatchCreateUpdateDelete() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+		svc.getXtParam();
+		final int batch = 120, chunk = 50;
+
+		List<Bookmark> bookmarks = new ArrayList<Bookmark>();
+		for ( int i=0; i< batch; i++ ) {
+			Bookmark b = new Bookmark( null, null, "Batch " + i, "http://example.com/batch/" + i,
+					null, "", 0, 0 );
+			b.set_id( (long)i );
+			bookmarks.add( b );
+		}
+		int requests = server.getRequestCount();
+		BatchResult<Bookmark> created = svc.createAll( bookmarks, chunk );
+		assertEquals( 3, server.getRequestCount() - requests );
+		assertEquals( 3, created.getRequestCount() );
+		assertEquals( batch, created.getCompleted().size() );
+		assertTrue( created.getFailed().isEmpty() );
+		assertEquals( COUNT + batch, server.getBookmarkCount() );
+		for ( int i=0; i< batch; i++ ) {
+			Bookmark b = created.getCompleted().get(i);
+			assertEquals( "Batch " + i, b.getTitle() );
+			assertEquals( Long.valueOf(i), b.get_id() );
+		}
+
+		// relabel them all, one of which was deleted remotely meanwhile
+		List<Bookmark> relabelled = new ArrayList<Bookmark>( created.getCompleted() );
+		Bookmark gone = relabelled.get(7);
+		svc.delete( gone.getGoogleId() );
+		for ( Bookmark b : relabelled ) b.getLabels().add( "relabelled" );
+		requests = server.getRequestCount();
+		BatchResult<Bookmark> updated = svc.updateAll( relabelled, chunk );
+		assertEquals( 3, server.getRequestCount() - requests );
+		assertEquals( batch -1, updated.getCompleted().size() );
+		assertEquals( 1, updated.getFailed().size() );
+		assertTrue( updated.getFailed().get( gone ) instanceof BookmarksQueryService.NotFoundException );
+		assertFalse( updated.isAuthFailed() );
+		for ( Bookmark b : updated.getCompleted() )
+			assertEquals( "[relabelled]", b.getLabels().toString() );
+
+		List<String> ids = new ArrayList<String>();
+		for ( Bookmark b : relabelled ) ids.add( b.getGoogleId() );
+		requests = server.getRequestCount();
+		BatchResult<String> deleted = svc.deleteAll( ids, chunk );
+		assertEquals( 3, server.getRequestCount() - requests );
+		assertEquals( batch, deleted.getCompleted().size() );
+		assertEquals( COUNT, server.getBookmarkCount() );
+	}
+
+	/** Results are matched to what was sent by URL, not position */
+	@Test public void testBatchCreateScrambled() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+		svc.getXtParam();
+		server.setScrambleCreated( true );
+
+		List<Bookmark> bookmarks = new ArrayList<Bookmark>();
+		for ( int i=0; i< 5; i++ ) {
+			Bookmark b = new Bookmark( null, null, "Batch " + i, "http://example.com/batch/" + i,
+					null, "", 0, 0 );
+			b.set_id( (long)i );
+			bookmarks.add( b );
+		}
+		BatchResult<Bookmark> created = svc.createAll( bookmarks, 10 );
+		assertEquals( 4, created.getCompleted().size() );
+		for ( Bookmark b : created.getCompleted() )
+			assertEquals( "http://example.com/batch/" + b.get_id(), b.getUrl() );
+		assertEquals( 1, created.getFailed().size() );
+		assertTrue( created.getFailed().containsKey( bookmarks.get(0) ) );
+	}
+
+	@Test public void testBatchAuthFailure() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+		svc.getXtParam();
+		List<String> ids = server.getBookmarkIDs().subList( 0, 30 );
+
+		svc.clearAuthCookies();
+		int requests = server.getRequestCount();
+		BatchResult<String> deleted = svc.deleteAll( ids, 10 );
+		assertTrue( deleted.isAuthFailed() );
+		assertEquals( 1, server.getRequestCount() - requests ); // stops after the first
+		assertTrue( deleted.getCompleted().isEmpty() );
+		assertEquals( ids.size(), deleted.getFailed().size() );
+		assertEquals( COUNT, server.getBookmarkCount() );
+	}
+
+	@Test public void testSyncStats() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+		svc.getXtParam();
+		long bytes = server.getBytesSent();
+		int requests = server.getRequestCount();
+
+		SyncStats stats = new SyncStats();
+		svc.getLabels( stats );
+		ThreadIterator<Bookmark> i = svc.getAllBookmarks( ThreadIterator.PREFETCH_PAGES_FULL, 0 );
+		i.setConcurrency( ThreadIterator.FETCH_CONNECTIONS_FULL );
+		i.setStats( stats );
+		int count = 0;
+		try {
+			for ( Bookmark b : i ) count++;
+		}
+		finally { i.close(); }
+
+		assertEquals( COUNT, count );
+		assertEquals( server.getRequestCount() - requests -1, stats.getPages() );
+		assertEquals( server.getBytesSent() - bytes, stats.getBytes() );
+		assertTrue( stats.getSlowestPageMillis() <= stats.getMillis( SyncStats.PAGE_FETCH ) );
+	}
+
+	/** Bookmarks edited mid-sync shift the pages; nothing should be missed or repeated */
+	@Test public void testListChangesDuringSync() throws Exception {
+		BookmarksQueryService svc = server.newService();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+		List<String> ids = server.getBookmarkIDs();
+
+		ThreadIterator<Bookmark> i = svc.getAllBookmarks( ThreadIterator.PREFETCH_PAGES_FULL, 0 );
+		i.setConcurrency( ThreadIterator.FETCH_CONNECTIONS_FULL );
+		Map<String,Bookmark> seen = new HashMap<String,Bookmark>();
+		try {
+			for ( Bookmark b : i ) {
+				assertTrue( "Duplicate " + b.getGoogleId(), seen.put( b.getGoogleId(), b ) == null );
+				// moves an item that hasn't been fetched yet to the top
+				if ( seen.size() == 10 ) server.touch( ids.get( ids.size() -1 ) );
+			}
+		}
+		finally { i.close(); }
+		for ( String id : ids.subList( 0, ids.size() -1 ) )
+			assertTrue( "Missed " + id, seen.containsKey(id) );
+	}
+}
@@ -0,0 +1,82 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DedupingFetcherTest {
+
+	ExecutorService pool = Executors.newFixedThreadPool( 2 );
+	CountDownLatch release = new CountDownLatch( 1 );
+	AtomicInteger loads = new AtomicInteger();
+
+	DedupingFetcher<String,String> fetcher = new DedupingFetcher<String,String>( pool ) {
+		@Override protected String load( String key ) throws Exception {
+			loads.incrementAndGet();
+			release.await();
+			if ( key.equals( "bad" ) ) throw new Exception( "no such host" );
+			return key.toUpperCase();
+		}
+	};
+
+	final List<String> results = Collections.synchronizedList( new ArrayList<String>() );
+	final CountDownLatch done = new CountDownLatch( 4 );
+
+	DedupingFetcher.Callback<String,String> callback = new DedupingFetcher.Callback<String,String>() {
+		public void onFetched( String key, String value ) {
+			results.add( key + "=" + value );
+			done.countDown();
+		}
+	};
+
+	@After public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test public void testOneLoadPerKey() throws Exception {
+		assertTrue( fetcher.fetch( "a.com", callback ) );
+		assertFalse( fetcher.fetch( "a.com", callback ) );
+		assertFalse( fetcher.fetch( "a.com", null ) );
+		assertTrue( fetcher.fetch( "bad", callback ) );
+		assertFalse( fetcher.fetch( "bad", callback ) );
+		assertTrue( fetcher.isInFlight( "a.com" ) );
+
+		release.countDown();
+		assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+		assertEquals( 2, loads.get() );
+		Collections.sort( results );
+		assertEquals( "[a.com=A.COM, a.com=A.COM, bad=null, bad=null]", results.toString() );
+
+		// ...and loads again once the first load is done
+		pool.shutdown();
+		pool.awaitTermination( 5, TimeUnit.SECONDS );
+		assertFalse( fetcher.isInFlight( "a.com" ) );
+	}
+}
@@ -0,0 +1,578 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.thomnichols.android.gmarks.thirdparty.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the parts of Google Bookmarks that
+ * {@link BookmarksQueryService} talks to, serving a synthetic set of
+ * bookmarks over plain HTTP on localhost:
+ * <ul>
+ * <li>/accounts/ServiceLogin, ServiceLoginAuth and CheckCookie, which hand
+ * out the GALX and session cookies and redirect like the real thing</li>
+ * <li>/bookmarks/l, the page the <code>SL.xt</code> token and main thread
+ * ID are scraped from</li>
+ * <li>/bookmarks/api/threadsearch, paged and newest-modified first</li>
+ * <li>/bookmarks/api/bookmark?op=LIST_LABELS</li>
+ * <li>/bookmarks/api/thread?op=Star, UpdateThreadElement and DeleteItems</li>
+ * </ul>
+ * Every response can be delayed by a fixed latency and throttled to a
+ * bandwidth limit, to approximate a phone on a slow network.  Point a
+ * service at {@link #getBaseURL()}.
+ */
+public class FakeBookmarksServer {
+	public static final String USER = "gmarks.test@example.com";
+	public static final String PASSWORD = "secret";
+	public static final String MAIN_THREAD_ID = "BDQAAAAAQAA";
+
+	private static final String JSON_PREFIX = ")]}'\n";
+	private static final String XT = "fake-xt-token";
+	private static final String GALX = "fake-galx";
+	private static final String SESSION = "fake-session";
+
+	private final HttpServer server;
+	private final ExecutorService pool = Executors.newCachedThreadPool();
+	/* newest modified first, same as threadsearch with g=Time */
+	private final List<Entry> bookmarks = new ArrayList<Entry>();
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger nextID = new AtomicInteger(1);
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private volatile long latency = 0; // ms before each response
+	private volatile long bandwidth = 0; // bytes per second; 0 is unlimited
+	private volatile boolean scrambleCreated = false;
+
+	static class Entry {
+		String id;
+		String title;
+		String url;
+		String host;
+		String description;
+		long created;
+		long modified;
+		List<String> labels = new ArrayList<String>();
+	}
+
+	/**
+	 * @param count number of bookmarks to generate
+	 * @param labelCount size of the pool of labels they're tagged with
+	 * @param seed the same seed always generates the same bookmarks
+	 */
+	public FakeBookmarksServer( int count, int labelCount, long seed ) throws IOException {
+		generate( count, labelCount, new Random(seed) );
+		this.server = HttpServer.create( new InetSocketAddress("127.0.0.1", 0), 0 );
+		this.server.setExecutor( pool );
+		this.server.createContext( "/", new Dispatcher() );
+	}
+
+	public FakeBookmarksServer start() {
+		server.start();
+		return this;
+	}
+
+	public void stop() {
+		server.stop(0);
+		pool.shutdownNow();
+	}
+
+	public String getBaseURL() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/** @return a service with its own HTTP client, talking to this server */
+	public BookmarksQueryService newService() {
+		return new BookmarksQueryService( BookmarksQueryService.newHttpClient(null), getBaseURL() );
+	}
+
+	/** @param millis delay before each response's headers are sent */
+	public void setLatency( long millis ) { this.latency = millis; }
+
+	/** @param bytesPerSecond throttle every response body; 0 to not limit */
+	public void setBandwidth( long bytesPerSecond ) { this.bandwidth = bytesPerSecond; }
+
+	/**
+	 * @param scramble list created bookmarks in the opposite order to the
+	 *  request, and leave the first one out
+	 */
+	public void setScrambleCreated( boolean scramble ) { this.scrambleCreated = scramble; }
+
+	public int getRequestCount() { return requestCount.get(); }
+	public long getBytesSent() { return bytesSent.get(); }
+
+	public synchronized int getBookmarkCount() { return bookmarks.size(); }
+
+	/** @return the bookmark IDs, newest modified first */
+	public synchronized List<String> getBookmarkIDs() {
+		List<String> ids = new ArrayList<String>( bookmarks.size() );
+		for ( Entry e : bookmarks ) ids.add( e.id );
+		return ids;
+	}
+
+	/** Bump a bookmark to the top of the list, as if it was edited elsewhere */
+	public synchronized void touch( String id ) {
+		Entry e = remove( id );
+		if ( e == null ) throw new IllegalArgumentException( "No bookmark " + id );
+		e.modified = tick();
+		bookmarks.add( 0, e );
+	}
+
+	private void generate( int count, int labelCount, Random rand ) {
+		String[] words = { "android", "java", "recipe", "travel", "news", "music",
+				"photo", "video", "blog", "docs", "mobile", "sync", "search", "maps" };
+		long now = System.currentTimeMillis();
+		clock.set( now );
+		for ( int i=0; i< count; i++ ) {
+			Entry e = new Entry();
+			e.id = "" + nextID.getAndIncrement();
+			e.host = "www." + words[rand.nextInt(words.length)] + (i % 97) + ".example.com";
+			e.url = "http://" + e.host + "/page/" + i;
+			e.title = "Bookmark " + i + " " + words[rand.nextInt(words.length)];
+			StringBuilder desc = new StringBuilder();
+			for ( int w = rand.nextInt(30); w > 0; w-- )
+				desc.append( words[rand.nextInt(words.length)] ).append( ' ' );
+			e.description = desc.toString().trim();
+			// listed newest first, so timestamps count down
+			e.modified = now - i * 1000L;
+			e.created = e.modified - rand.nextInt(1000000);
+			if ( labelCount > 0 )
+				for ( int l = rand.nextInt(4); l > 0; l-- ) {
+					String label = "label" + rand.nextInt(labelCount);
+					if ( ! e.labels.contains(label) ) e.labels.add(label);
+				}
+			bookmarks.add( e );
+		}
+	}
+
+	private long tick() {
+		long now = System.currentTimeMillis();
+		while ( true ) { // strictly increasing, even within the same ms
+			long last = clock.get();
+			long next = Math.max( now, last +1 );
+			if ( clock.compareAndSet( last, next ) ) return next;
+		}
+	}
+
+	private Entry remove( String id ) {
+		for ( Iterator<Entry> i = bookmarks.iterator(); i.hasNext(); ) {
+			Entry e = i.next();
+			if ( e.id.equals(id) ) {
+				i.remove();
+				return e;
+			}
+		}
+		return null;
+	}
+
+	private class Dispatcher implements HttpHandler {
+		public void handle( HttpExchange x ) throws IOException {
+			requestCount.incrementAndGet();
+			try {
+				if ( latency > 0 ) Thread.sleep( latency );
+				String path = x.getRequestURI().getPath();
+				Map<String,String> params = parseParams( x.getRequestURI().getRawQuery() );
+				if ( "POST".equals( x.getRequestMethod() ) )
+					params.putAll( parseParams( IOUtils.toString( x.getRequestBody(), "UTF-8" ) ) );
+
+				if ( path.equals("/accounts/ServiceLogin") ) serviceLogin( x );
+				else if ( path.equals("/accounts/ServiceLoginAuth") ) serviceLoginAuth( x, params );
+				else if ( path.equals("/accounts/CheckCookie") ) checkCookie( x, params );
+				else if ( ! path.startsWith("/bookmarks/") ) send( x, 404, "text/plain", "Not found" );
+				else if ( ! hasCookie( x, "SID", SESSION ) ) send( x, 401, "text/plain", "Please log in" );
+				else if ( path.equals("/bookmarks/l") ) bookmarksPage( x );
+				else if ( path.equals("/bookmarks/api/threadsearch") ) threadSearch( x, params );
+				else if ( path.equals("/bookmarks/api/bookmark")
+						&& "LIST_LABELS".equals( params.get("op") ) ) listLabels( x );
+				else if ( path.equals("/bookmarks/api/thread") ) thread( x, params );
+				else send( x, 404, "text/plain", "Not found" );
+			}
+			catch ( InterruptedException ex ) {
+				Thread.currentThread().interrupt();
+			}
+			catch ( RuntimeException ex ) {
+				ex.printStackTrace();
+				send( x, 500, "text/plain", ex.toString() );
+			}
+			finally { x.close(); }
+		}
+	}
+
+	private void serviceLogin( HttpExchange x ) throws IOException {
+		x.getResponseHeaders().add( "Set-Cookie", "GALX=" + GALX + "; Path=/" );
+		send( x, 200, "text/html", "<html><body>Sign in</body></html>" );
+	}
+
+	private void serviceLoginAuth( HttpExchange x, Map<String,String> params )
+			throws IOException {
+		if ( ! GALX.equals( params.get("GALX") ) || ! USER.equals( params.get("Email") )
+				|| ! PASSWORD.equals( params.get("Passwd") ) ) {
+			send( x, 200, "text/html", "<html><body>Wrong password</body></html>" );
+			return;
+		}
+		x.getResponseHeaders().add( "Set-Cookie", "SID=" + SESSION + "; Path=/" );
+		x.getResponseHeaders().add( "Location", getBaseURL() + "/accounts/CheckCookie?continue="
+				+ params.get("continue") );
+		send( x, 302, "text/html", "" );
+	}
+
+	private void checkCookie( HttpExchange x, Map<String,String> params )
+			throws IOException {
+		String target = params.get("continue");
+		x.getResponseHeaders().add( "Location", target != null ? target : getBaseURL() + "/bookmarks/l" );
+		send( x, 302, "text/html", "" );
+	}
+
+	private void bookmarksPage( HttpExchange x ) throws IOException {
+		send( x, 200, "text/html; charset=UTF-8", "<html><head><script>var SL={};SL.a=1;SL.xt = '"
+				+ XT + "';function init(a){return (a.threadID):\"" + MAIN_THREAD_ID
+				+ "\"}</script></head><body></body></html>" );
+	}
+
+	private void threadSearch( HttpExchange x, Map<String,String> params )
+			throws IOException {
+		int start = parseInt( params.get("start"), 0 );
+		int count = parseInt( params.get("nr"), 25 );
+		List<Entry> page = new ArrayList<Entry>();
+		int total;
+		if ( "Starred".equals( params.get("fo") ) ) synchronized ( this ) {
+			total = bookmarks.size();
+			for ( int i=start; i< Math.min( total, start + count ); i++ )
+				page.add( bookmarks.get(i) );
+		}
+		else total = 0; // no lists
+
+		StringBuilder json = new StringBuilder( JSON_PREFIX );
+		json.append( "{\"nr\":" ).append( total ).append( ",\"threadTitles\":[" );
+		if ( page.size() > 0 ) {
+			json.append( "{\"threadId\":" ).append( quote(MAIN_THREAD_ID) )
+				.append( ",\"sectionContent\":[" );
+			for ( int i=0; i< page.size(); i++ ) {
+				if ( i > 0 ) json.append( ',' );
+				appendBookmark( json, page.get(i), "description" );
+			}
+			json.append( "]}" );
+		}
+		json.append( "]}" );
+		send( x, 200, "application/json; charset=UTF-8", json.toString() );
+	}
+
+	private void listLabels( HttpExchange x ) throws IOException {
+		Map<String,Integer> counts = new LinkedHashMap<String,Integer>();
+		synchronized ( this ) {
+			for ( Entry e : bookmarks ) for ( String label : e.labels ) {
+				Integer c = counts.get(label);
+				counts.put( label, c == null ? 1 : c +1 );
+			}
+		}
+		StringBuilder labels = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for ( Map.Entry<String,Integer> c : counts.entrySet() ) {
+			if ( labels.length() > 0 ) {
+				labels.append( ',' );
+				values.append( ',' );
+			}
+			labels.append( quote( c.getKey() ) );
+			values.append( c.getValue() );
+		}
+		send( x, 200, "application/json; charset=UTF-8", JSON_PREFIX
+				+ "{\"labels\":[" + labels + "],\"counts\":[" + values + "]}" );
+	}
+
+	private void thread( HttpExchange x, Map<String,String> params )
+			throws IOException {
+		if ( ! "POST".equals( x.getRequestMethod() ) || ! XT.equals( params.get("xt") ) ) {
+			send( x, 400, "text/plain", "Bad request" );
+			return;
+		}
+		String op = params.get("op");
+		String td = params.get("td");
+		if ( td == null ) {
+			send( x, 400, "text/plain", "Missing td" );
+			return;
+		}
+		JsonStreamReader json = new JsonStreamReader( new StringReader(td) );
+		StringBuilder resp = new StringBuilder( JSON_PREFIX );
+		if ( "Star".equals(op) ) {
+			List<Entry> created = readEntries( json, "results" );
+			synchronized ( this ) {
+				for ( Entry e : created ) {
+					e.id = "" + nextID.getAndIncrement();
+					e.created = e.modified = tick();
+					bookmarks.add( 0, e );
+				}
+			}
+			if ( scrambleCreated ) {
+				created = new ArrayList<Entry>( created.subList( 1, created.size() ) );
+				Collections.reverse( created );
+			}
+			resp.append( "{\"results\":[" );
+			for ( int i=0; i< created.size(); i++ ) {
+				if ( i > 0 ) resp.append( ',' );
+				resp.append( "{\"threadresult\":" );
+				appendBookmark( resp, created.get(i), "snippet" );
+				resp.append( '}' );
+			}
+			resp.append( "]}" );
+		}
+		else if ( "UpdateThreadElement".equals(op) ) {
+			// bookmarks that don't exist are left out of the response
+			List<Entry> updated = new ArrayList<Entry>();
+			String missing = null;
+			for ( Entry changes : readEntries( json, "threadResults" ) ) synchronized ( this ) {
+				Entry e = remove( changes.id );
+				if ( e == null ) {
+					missing = changes.id;
+					continue;
+				}
+				e.title = changes.title;
+				e.url = changes.url;
+				e.host = changes.host;
+				e.description = changes.description;
+				e.labels = changes.labels;
+				e.modified = tick();
+				bookmarks.add( 0, e );
+				updated.add( e );
+			}
+			if ( updated.isEmpty() ) {
+				send( x, 404, "text/plain", "No bookmark " + missing );
+				return;
+			}
+			resp.append( "{\"threadResults\":[" );
+			for ( int i=0; i< updated.size(); i++ ) {
+				if ( i > 0 ) resp.append( ',' );
+				appendBookmark( resp, updated.get(i), "snippet" );
+			}
+			resp.append( "]}" );
+		}
+		else if ( "DeleteItems".equals(op) ) {
+			int deleted = 0;
+			List<String> ids = readIDs( json );
+			synchronized ( this ) {
+				for ( String id : ids ) if ( remove(id) != null ) deleted++;
+			}
+			resp.append( "{\"numDeletedBookmarks\":" ).append( deleted ).append( '}' );
+		}
+		else {
+			send( x, 400, "text/plain", "Unknown op " + op );
+			return;
+		}
+		send( x, 200, "application/json; charset=UTF-8", resp.toString() );
+	}
+
+	/** Read the bookmark objects in the named array of the td object */
+	private List<Entry> readEntries( JsonStreamReader json, String arrayName ) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		json.beginObject();
+		while ( json.hasNext() ) {
+			if ( ! arrayName.equals( json.nextName() ) ) {
+				json.skipValue();
+				continue;
+			}
+			json.beginArray();
+			while ( json.hasNext() ) {
+				Entry e = new Entry();
+				json.beginObject();
+				while ( json.hasNext() ) {
+					String name = json.nextName();
+					if ( "elementId".equals(name) ) e.id = json.nextString();
+					else if ( "title".equals(name) ) e.title = json.nextString();
+					else if ( "url".equals(name) ) e.url = json.nextString();
+					else if ( "snippet".equals(name) ) e.description = json.nextString();
+					else if ( "labels".equals(name) ) {
+						json.beginArray();
+						while ( json.hasNext() ) e.labels.add( json.nextString() );
+						json.endArray();
+					}
+					else json.skipValue();
+				}
+				json.endObject();
+				e.host = hostOf( e.url );
+				entries.add( e );
+			}
+			json.endArray();
+		}
+		json.endObject();
+		if ( entries.size() < 1 ) throw new IOException( "No " + arrayName + " in request" );
+		return entries;
+	}
+
+	private List<String> readIDs( JsonStreamReader json ) throws IOException {
+		List<String> ids = new ArrayList<String>();
+		json.beginObject();
+		while ( json.hasNext() ) {
+			if ( ! "ids".equals( json.nextName() ) ) {
+				json.skipValue();
+				continue;
+			}
+			json.beginArray();
+			while ( json.hasNext() ) ids.add( json.nextString() );
+			json.endArray();
+		}
+		json.endObject();
+		return ids;
+	}
+
+	/** @param descriptionKey threadsearch calls it "description", thread ops "snippet" */
+	private void appendBookmark( StringBuilder json, Entry e, String descriptionKey ) {
+		json.append( "{\"elementId\":" ).append( quote(e.id) )
+			.append( ",\"threadId\":" ).append( quote(MAIN_THREAD_ID) )
+			.append( ",\"title\":" ).append( quote(e.title) )
+			.append( ",\"url\":" ).append( quote(e.url) )
+			.append( ",\"host\":" ).append( quote(e.host) )
+			.append( ",\"" ).append( descriptionKey ).append( "\":" ).append( quote(e.description) )
+			.append( ",\"timestamp\":" ).append( e.created )
+			.append( ",\"modifiedTimestamp\":" ).append( e.modified )
+			.append( ",\"faviconUrl\":" ).append( quote( "http://" + e.host + "/favicon.ico" ) )
+			.append( ",\"labels\":[" );
+		for ( int i=0; i< e.labels.size(); i++ ) {
+			if ( i > 0 ) json.append( ',' );
+			json.append( quote( e.labels.get(i) ) );
+		}
+		json.append( "]}" );
+	}
+
+	private void send( HttpExchange x, int code, String contentType, String body )
+			throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		x.getResponseHeaders().set( "Content-Type", contentType );
+		x.sendResponseHeaders( code, bytes.length > 0 ? bytes.length : -1 );
+		if ( bytes.length < 1 ) return;
+		OutputStream out = x.getResponseBody();
+		if ( bandwidth > 0 ) out = new ThrottledOutputStream( out, bandwidth );
+		// counted first, so the client can't see the response before it's counted
+		bytesSent.addAndGet( bytes.length );
+		out.write( bytes );
+		out.close();
+	}
+
+	private static boolean hasCookie( HttpExchange x, String name, String value ) {
+		List<String> headers = x.getRequestHeaders().get("Cookie");
+		if ( headers == null ) return false;
+		for ( String header : headers )
+			for ( String cookie : header.split(";") )
+				if ( cookie.trim().equals( name + "=" + value ) ) return true;
+		return false;
+	}
+
+	private static Map<String,String> parseParams( String query )
+			throws UnsupportedEncodingException {
+		Map<String,String> params = new HashMap<String,String>();
+		if ( query == null || query.length() < 1 ) return params;
+		for ( String pair : query.split("&") ) {
+			int eq = pair.indexOf('=');
+			if ( eq < 0 ) params.put( URLDecoder.decode( pair, "UTF-8" ), "" );
+			else params.put( URLDecoder.decode( pair.substring(0, eq), "UTF-8" ),
+					URLDecoder.decode( pair.substring(eq +1), "UTF-8" ) );
+		}
+		return params;
+	}
+
+	private static int parseInt( String val, int defaultVal ) {
+		if ( val == null || val.length() < 1 ) return defaultVal;
+		return Integer.parseInt( val );
+	}
+
+	private static String hostOf( String url ) {
+		if ( url == null ) return null;
+		int start = url.indexOf("://");
+		start = start < 0 ? 0 : start +3;
+		int end = url.indexOf( '/', start );
+		return end < 0 ? url.substring(start) : url.substring( start, end );
+	}
+
+	static String quote( String val ) {
+		if ( val == null ) return "null";
+		StringBuilder sb = new StringBuilder( val.length() +2 ).append( '"' );
+		for ( int i=0; i< val.length(); i++ ) {
+			char c = val.charAt(i);
+			switch ( c ) {
+			case '"': sb.append( "\\\"" ); break;
+			case '\\': sb.append( "\\\\" ); break;
+			case '\n': sb.append( "\\n" ); break;
+			case '\r': sb.append( "\\r" ); break;
+			case '\t': sb.append( "\\t" ); break;
+			default:
+				if ( c < 0x20 ) sb.append( String.format( "\\u%04x", (int)c ) );
+				else sb.append( c );
+			}
+		}
+		return sb.append( '"' ).toString();
+	}
+
+	/** Writes in small chunks, sleeping so the average rate stays under the limit */
+	static class ThrottledOutputStream extends FilterOutputStream {
+		private static final int CHUNK = 1024;
+		private final long bytesPerSecond;
+		private final long start = System.nanoTime();
+		private long written = 0;
+
+		ThrottledOutputStream( OutputStream out, long bytesPerSecond ) {
+			super( out );
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			write( new byte[] { (byte)b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			while ( len > 0 ) {
+				int n = Math.min( len, CHUNK );
+				out.write( b, off, n );
+				out.flush();
+				written += n;
+				off += n;
+				len -= n;
+				long due = start + written * 1000000000L / bytesPerSecond;
+				long wait = due - System.nanoTime();
+				if ( wait > 0 ) {
+					try { Thread.sleep( wait / 1000000, (int)(wait % 1000000) ); }
+					catch ( InterruptedException ex ) {
+						Thread.currentThread().interrupt();
+						throw new IOException( "Interrupted" );
+					}
+				}
+			}
+		}
+	}
+}
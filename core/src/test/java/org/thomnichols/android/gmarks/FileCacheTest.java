@@ -0,0 +1,67 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileCacheTest {
+	static final long TTL = 1000 * 60;
+
+	File dir;
+	FileCache cache;
+
+	@Before public void setUp() throws Exception {
+		dir = File.createTempFile( "gmarks", "cache" );
+		dir.delete();
+		cache = new FileCache( new File( dir, "favicons" ), TTL );
+	}
+
+	@After public void tearDown() {
+		File[] files = new File( dir, "favicons" ).listFiles();
+		if ( files != null ) for ( File f : files ) f.delete();
+		new File( dir, "favicons" ).delete();
+		dir.delete();
+	}
+
+	@Test public void testPutAndExpire() throws Exception {
+		long now = System.currentTimeMillis();
+		assertNull( cache.get( "example.com", now ) );
+		cache.put( "example.com", new byte[] { 1, 2, 3 } );
+		cache.put( "empty.com", new byte[0] );
+		assertArrayEquals( new byte[] { 1, 2, 3 }, cache.get( "example.com", now ) );
+		assertEquals( 0, cache.get( "empty.com", now ).length );
+		assertTrue( cache.contains( "empty.com", now ) );
+
+		assertFalse( cache.contains( "example.com", now + TTL + 1000 ) );
+		assertNull( cache.get( "example.com", now + TTL + 1000 ) );
+		assertEquals( 2, cache.evictExpired( now + TTL + 1000 ) );
+		assertEquals( 0, new File( dir, "favicons" ).listFiles().length );
+	}
+
+	@Test public void testKeysAreSafeFileNames() {
+		assertEquals( "a.b-c_d__", cache.fileFor( "a.b-c/d:\u00e9" ).getName() );
+	}
+}
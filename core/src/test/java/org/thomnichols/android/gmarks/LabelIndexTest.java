@@ -0,0 +1,60 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LabelIndexTest {
+
+	LabelIndex index = new LabelIndex(
+			new long[] { 1, 2, 3, 4, 5 },
+			new String[] { "javascript", "Java", "android", "tools", "dev-java" },
+			new int[] { 5, 20, 10, 1, 3 } );
+
+	String titles( int[] positions ) {
+		StringBuilder sb = new StringBuilder();
+		for ( int p : positions ) {
+			if ( sb.length() > 0 ) sb.append( ',' );
+			sb.append( index.getTitle( p ) );
+		}
+		return sb.toString();
+	}
+
+	@Test public void testSortedIgnoringCase() {
+		assertEquals( "android,dev-java,Java,javascript,tools",
+				titles( index.match( "", 0 ) ) );
+		assertEquals( 2, index.getId( 2 ) );
+		assertEquals( 20, index.getCount( 2 ) );
+	}
+
+	@Test public void testMatchOrder() {
+		// prefix, then substring, then characters in order
+		assertEquals( "Java,javascript,dev-java", titles( index.match( "JAV", 0 ) ) );
+		assertEquals( "javascript", titles( index.match( "jvs", 0 ) ) );
+		assertEquals( "tools", titles( index.match( "to", 0 ) ) );
+		assertEquals( "", titles( index.match( "xyz", 0 ) ) );
+		assertEquals( "Java,javascript", titles( index.match( "jav", 2 ) ) );
+	}
+
+	@Test public void testByCount() {
+		assertEquals( "Java,javascript,dev-java",
+				titles( index.byCount( index.match( "jav", 0 ) ) ) );
+		assertEquals( "Java,android,javascript,dev-java,tools",
+				titles( index.byCount( index.match( null, 0 ) ) ) );
+	}
+}
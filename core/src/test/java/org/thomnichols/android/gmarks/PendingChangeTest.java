@@ -0,0 +1,65 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.thomnichols.android.gmarks.PendingChange.CREATE;
+import static org.thomnichols.android.gmarks.PendingChange.DELETE;
+import static org.thomnichols.android.gmarks.PendingChange.UPDATE;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class PendingChangeTest {
+
+	@Test public void testCoalesce() {
+		assertEquals( CREATE, PendingChange.coalesce( CREATE, UPDATE ) );
+		assertEquals( DELETE, PendingChange.coalesce( CREATE, DELETE ) );
+		assertEquals( UPDATE, PendingChange.coalesce( UPDATE, UPDATE ) );
+		assertEquals( DELETE, PendingChange.coalesce( UPDATE, DELETE ) );
+		assertEquals( DELETE, PendingChange.coalesce( DELETE, UPDATE ) );
+		assertEquals( CREATE, PendingChange.coalesce( DELETE, CREATE ) );
+	}
+
+	@Test public void testRetryDelay() {
+		assertEquals( 0, PendingChange.retryDelay( 0 ) );
+		assertEquals( PendingChange.MIN_RETRY_DELAY, PendingChange.retryDelay( 1 ) );
+		assertEquals( PendingChange.MIN_RETRY_DELAY * 4, PendingChange.retryDelay( 3 ) );
+		for ( int i=1; i< 100; i++ ) 
+			assertTrue( PendingChange.retryDelay( i ) <= PendingChange.MAX_RETRY_DELAY );
+		assertEquals( PendingChange.MAX_RETRY_DELAY, PendingChange.retryDelay( 100 ) );
+	}
+
+	@Test public void testLocalID() {
+		assertTrue( PendingChange.isLocalID( null ) );
+		assertTrue( PendingChange.isLocalID( PendingChange.LOCAL_ID_PREFIX + "1234" ) );
+		assertFalse( PendingChange.isLocalID( "BDQAAAAAQAA" ) );
+	}
+
+	@Test public void testConnectivityError() {
+		assertTrue( PendingChange.isConnectivityError( new ConnectException() ) );
+		assertTrue( PendingChange.isConnectivityError( new SocketTimeoutException() ) );
+		assertTrue( PendingChange.isConnectivityError( new UnknownHostException() ) );
+		assertFalse( PendingChange.isConnectivityError( new IOException( "Response parse error" ) ) );
+		assertFalse( PendingChange.isConnectivityError( new IOException( "Unexpected response code: 500" ) ) );
+	}
+}
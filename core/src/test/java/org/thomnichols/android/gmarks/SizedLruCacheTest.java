@@ -0,0 +1,52 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SizedLruCacheTest {
+
+	SizedLruCache<String,String> cache = new SizedLruCache<String,String>( 10 ) {
+		@Override protected int sizeOf( String key, String value ) {
+			return value.length();
+		}
+	};
+
+	@Test public void testDropsLeastRecentlyUsed() {
+		cache.put( "a", "aaaa" );
+		cache.put( "b", "bbbb" );
+		cache.get( "a" );
+		cache.put( "c", "cc" );
+		assertEquals( 10, cache.size() );
+		cache.put( "d", "d" ); // b is the oldest
+		assertNull( cache.get( "b" ) );
+		assertEquals( "aaaa", cache.get( "a" ) );
+		assertEquals( 7, cache.size() );
+	}
+
+	@Test public void testReplaceAndRemove() {
+		cache.put( "a", "aaaa" );
+		assertEquals( "aaaa", cache.put( "a", "a" ) );
+		assertEquals( 1, cache.size() );
+		cache.put( "big", "bbbbbbbbbbb" ); // bigger than the cache
+		assertNull( cache.get( "big" ) );
+		assertEquals( "a", cache.remove( "a" ) );
+		assertEquals( 0, cache.size() );
+	}
+}
@@ -0,0 +1,132 @@
+/* This file is part of GMarks. Copyright 2011 Thom Nichols
+ *
+ * GMarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GMarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GMarks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.thomnichols.android.gmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the network side of a full sync, from login to the last bookmark
+ * read, against {@link FakeBookmarksServer} and reports how long each part
+ * took.  Bookmarks are stored in a map keyed by ID, so DB writes aren't 
+ * included; those are timed on the device by
+ * <code>BookmarkUpsertWriter.logStats()</code>.
+ *
+ * <p>The defaults keep this quick enough for every build.  For a real
+ * measurement, scale it up with system properties, e.g.:</p>
+ * <pre>mvn test -Dtest=SyncBenchmarkTest -Dgmarks.bench.count=5000
+ *   -Dgmarks.bench.latency=150 -Dgmarks.bench.bandwidth=40000</pre>
+ */
+public class SyncBenchmarkTest {
+	static final int COUNT = Integer.getInteger( "gmarks.bench.count", 500 );
+	static final int LABELS = Integer.getInteger( "gmarks.bench.labels", 40 );
+	/** ms added to every response */
+	static final long LATENCY = Long.getLong( "gmarks.bench.latency", 0 );
+	/** bytes per second, 0 for no limit */
+	static final long BANDWIDTH = Long.getLong( "gmarks.bench.bandwidth", 0 );
+	static final int RUNS = Integer.getInteger( "gmarks.bench.runs", 1 );
+
+	FakeBookmarksServer server;
+
+	@Before public void setUp() throws Exception {
+		server = new FakeBookmarksServer( COUNT, LABELS, 42 ).start();
+		server.setLatency( LATENCY );
+		server.setBandwidth( BANDWIDTH );
+	}
+
+	@After public void tearDown() {
+		server.stop();
+	}
+
+	static class Result {
+		long loginTime;
+		long labelsTime;
+		long bookmarksTime;
+		int requests;
+		long bytes;
+		Map<String,Bookmark> bookmarks = new HashMap<String,Bookmark>();
+		List<String> order = new ArrayList<String>();
+
+		long total() { return loginTime + labelsTime + bookmarksTime; }
+	}
+
+	/** Log in, then fetch labels and every bookmark the way <code>RemoteSyncTask</code> does */
+	Result sync( int lookAhead, int connections ) throws Exception {
+		Result r = new Result();
+		int requests = server.getRequestCount();
+		long bytes = server.getBytesSent();
+		BookmarksQueryService svc = server.newService();
+
+		long start = System.currentTimeMillis();
+		svc.login( FakeBookmarksServer.USER, FakeBookmarksServer.PASSWORD );
+		svc.getXtParam();
+		r.loginTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		assertFalse( svc.getLabels().isEmpty() );
+		r.labelsTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		ThreadIterator<Bookmark> i = svc.getAllBookmarks( lookAhead, 0 );
+		i.setConcurrency( connections );
+		try {
+			for ( Bookmark b : i ) {
+				assertTrue( "Duplicate " + b.getGoogleId(),
+						r.bookmarks.put( b.getGoogleId(), b ) == null );
+				r.order.add( b.getGoogleId() );
+			}
+		}
+		finally { i.close(); }
+		r.bookmarksTime = System.currentTimeMillis() - start;
+
+		r.requests = server.getRequestCount() - requests;
+		r.bytes = server.getBytesSent() - bytes;
+		return r;
+	}
+
+	void report( String name, Result r ) {
+		System.out.printf( "%-28s %6d bookmarks  login %5dms  labels %5dms  bookmarks %6dms"
+				+ "  total %6dms  %4d requests  %8d bytes%n",
+				name, r.bookmarks.size(), r.loginTime, r.labelsTime, r.bookmarksTime,
+				r.total(), r.requests, r.bytes );
+	}
+
+	@Test public void testSyncBenchmark() throws Exception {
+		System.out.printf( "Sync benchmark: latency %dms, bandwidth %s%n", LATENCY,
+				BANDWIDTH > 0 ? BANDWIDTH + " bytes/sec" : "unlimited" );
+		int[][] configs = { // lookAhead, connections
+				{ ThreadIterator.NO_PREFETCH, 1 },
+				{ ThreadIterator.PREFETCH_PAGES_FULL, 1 },
+				{ ThreadIterator.PREFETCH_PAGES_FULL, ThreadIterator.FETCH_CONNECTIONS_FULL } };
+		for ( int run = 0; run < RUNS; run++ ) {
+			for ( int[] config : configs ) {
+				Result r = sync( config[0], config[1] );
+				assertEquals( server.getBookmarkIDs(), r.order );
+				report( "lookAhead " + config[0] + ", connections " + config[1], r );
+			}
+		}
+	}
+}